@@ -0,0 +1,230 @@
+package de.scyv.scarchive.server;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Walks the document paths in parallel: each directory is listed by a fork/join
+ * task, which forks a task per sub directory. The regular files are passed to
+ * a visitor together with their attributes, so each file is read only once.
+ * The visitor is called by several threads at once, it may block, e.g. on a
+ * full queue, which slows down the walk.
+ *
+ * A walker walks once, its threads end with the walk.
+ *
+ * Meta data sub directories and <code>.AppleDouble</code> directories are not
+ * walked. Symbolic links to files are followed, symbolic links to directories
+ * are not.
+ *
+ * Directories that cannot be listed and entries that cannot be read are
+ * skipped and reported by {@link #getFailedPaths()}, so their files are not
+ * taken for deleted.
+ */
+public class DocumentWalker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DocumentWalker.class);
+
+    private final List<Path> roots;
+
+    private final BiConsumer<Path, BasicFileAttributes> visitor;
+
+    private final ForkJoinPool pool;
+
+    private ForkJoinTask<?> walk;
+
+    private volatile boolean cancelled = false;
+
+    private final Queue<Path> failedPaths = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Create the walker.
+     *
+     * @param roots
+     *            the document paths. Must not be <code>null</code>.
+     * @param parallelism
+     *            the number of threads that walk the directories, 0 for one per
+     *            processor core.
+     * @param visitor
+     *            receives each regular file with its attributes. Must not be
+     *            <code>null</code>.
+     */
+    public DocumentWalker(List<Path> roots, int parallelism, BiConsumer<Path, BasicFileAttributes> visitor) {
+        this.roots = new ArrayList<>(roots);
+        this.visitor = visitor;
+        pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(),
+                forkJoinPool -> {
+                    final ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+                            .newThread(forkJoinPool);
+                    thread.setName("scarchive-walk-" + thread.getPoolIndex());
+                    thread.setDaemon(true);
+                    return thread;
+                }, null, false);
+    }
+
+    /**
+     * Check whether a directory is skipped by the walk.
+     *
+     * @param directory
+     *            the directory. Must not be <code>null</code>.
+     * @return true, if its files are no documents.
+     */
+    public static boolean isSkipped(Path directory) {
+        final Path fileName = directory.getFileName();
+        return fileName != null && (fileName.toString().equals(MetaDataService.META_DATA_SUB_DIRECTORY)
+                || fileName.toString().equals(".AppleDouble"));
+    }
+
+    /**
+     * Start walking the document paths in the background.
+     */
+    public void start() {
+        walk = pool.submit(new RecursiveAction() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected void compute() {
+                try {
+                    final List<DirectoryTask> tasks = new ArrayList<>();
+                    for (final Path root : roots) {
+                        LOGGER.info("Collecting files from " + root + "...");
+                        tasks.add(new DirectoryTask(root, true));
+                    }
+                    invokeAll(tasks);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        });
+    }
+
+    /**
+     * Check whether the walk has ended.
+     *
+     * @return true, if all files have been visited, or the walk has been
+     *         cancelled or has failed.
+     */
+    public boolean isDone() {
+        return walk.isDone();
+    }
+
+    /**
+     * Check whether all files have been visited.
+     *
+     * @return true, if the walk has ended without being cancelled and without
+     *         failing. Paths that could not be read are skipped, see
+     *         {@link #getFailedPaths()}.
+     */
+    public boolean isComplete() {
+        return walk.isDone() && !walk.isCompletedAbnormally() && !cancelled;
+    }
+
+    /**
+     * Get the directories and files that could not be read, e.g. because a
+     * share has not been mounted. The files below them have not been visited.
+     *
+     * @return the failed paths, empty if all paths could be read. Never
+     *         <code>null</code>.
+     */
+    public List<Path> getFailedPaths() {
+        return new ArrayList<>(failedPaths);
+    }
+
+    /**
+     * Stop the walk. Directories that are being listed are finished, no
+     * further directories are listed.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Check whether the walk has been cancelled, e.g. so a blocked visitor can
+     * give up.
+     *
+     * @return true, if {@link #cancel()} has been called.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+
+        private final boolean root;
+
+        DirectoryTask(Path directory, boolean root) {
+            this.directory = directory;
+            this.root = root;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled) {
+                return;
+            }
+            final List<DirectoryTask> subTasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (final Path entry : stream) {
+                    if (cancelled) {
+                        break;
+                    }
+                    visit(entry, subTasks);
+                }
+            } catch (final IOException ex) {
+                failedPaths.add(directory);
+                if (root) {
+                    LOGGER.error("Walking through " + directory + " failed.", ex);
+                } else {
+                    LOGGER.warn("Cannot list " + directory + ": " + ex.getMessage());
+                }
+            }
+            subTasks.forEach(ForkJoinTask::join);
+        }
+
+        private void visit(Path entry, List<DirectoryTask> subTasks) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+                        LinkOption.NOFOLLOW_LINKS);
+                if (attributes.isSymbolicLink()) {
+                    attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                    if (attributes.isDirectory()) {
+                        return;
+                    }
+                }
+                if (attributes.isDirectory()) {
+                    if (!isSkipped(entry)) {
+                        final DirectoryTask subTask = new DirectoryTask(entry, false);
+                        subTask.fork();
+                        subTasks.add(subTask);
+                    }
+                } else if (attributes.isRegularFile()) {
+                    visitor.accept(entry, attributes);
+                }
+            } catch (final IOException ex) {
+                failedPaths.add(entry);
+                LOGGER.warn("Cannot read " + entry + ": " + ex.getMessage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+package de.scyv.scarchive.server;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches the document paths for created, modified and deleted files with a
+ * {@link WatchService} (inotify on Linux).
+ *
+ * All directories below the document paths are registered, except for the meta
+ * data sub directories, whose changes are written by the extraction itself.
+ * Directories that are created or moved into a document path are registered
+ * as well, and all files within them are reported. The changed paths are
+ * collected until no event has arrived for a short while (files are usually
+ * written in several steps), then they are handed to the consumer in one go.
+ * The consumer gets the paths only, it has to check whether they (still)
+ * exist.
+ *
+ * Events may get lost, e.g. when the operating system drops them under heavy
+ * load. This is reported by {@link #takeEventsLost()}, so the document paths
+ * can be walked completely.
+ */
+public class DocumentWatcher {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DocumentWatcher.class);
+
+    // changes are handed over once no event has arrived for this long
+    private static final long QUIET_PERIOD_MILLIS = 2000;
+
+    // but not later than this after the first change
+    private static final long MAX_DELAY_MILLIS = 30000;
+
+    private final List<Path> roots;
+
+    private final Consumer<Set<Path>> consumer;
+
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+
+    private final Set<Path> changed = new LinkedHashSet<>();
+
+    private long firstChange;
+
+    private volatile WatchService watchService;
+
+    private volatile boolean watching = false;
+
+    private volatile boolean eventsLost = false;
+
+    /**
+     * Create the watcher.
+     *
+     * @param roots
+     *            the document paths to watch. Must not be <code>null</code>.
+     * @param consumer
+     *            receives the paths of the changed files. It is called by the
+     *            thread of the watcher, so it should return quickly. Must not
+     *            be <code>null</code>.
+     */
+    public DocumentWatcher(List<Path> roots, Consumer<Set<Path>> consumer) {
+        this.roots = new ArrayList<>(roots);
+        this.consumer = consumer;
+    }
+
+    /**
+     * Start watching in a background thread. The directories are registered by
+     * this thread as well, which takes a while for large document paths.
+     */
+    public void start() {
+        final Thread thread = new Thread(this::run, "scarchive-watch");
+        thread.setDaemon(true);
+        watching = true;
+        thread.start();
+    }
+
+    /**
+     * Stop watching.
+     */
+    public void stop() {
+        watching = false;
+        final WatchService service = watchService;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (final IOException ex) {
+                LOGGER.error("Cannot close watch service.", ex);
+            }
+        }
+    }
+
+    /**
+     * Whether the document paths are watched. This is not the case anymore
+     * after the directories could not be registered, e.g. because the limit of
+     * watches of the operating system has been reached.
+     *
+     * @return true, if changes are reported.
+     */
+    public boolean isWatching() {
+        return watching;
+    }
+
+    /**
+     * Whether events have been lost since the last call, so the reported
+     * changes are not complete.
+     *
+     * @return true, if events have been lost.
+     */
+    public boolean takeEventsLost() {
+        final boolean lost = eventsLost;
+        eventsLost = false;
+        return lost;
+    }
+
+    private void run() {
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            for (final Path root : roots) {
+                register(root, false);
+            }
+            LOGGER.info("Watching " + directories.size() + " directories for changes.");
+            while (watching) {
+                final WatchKey key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    processEvents(key);
+                }
+                if (!changed.isEmpty() && (key == null
+                        || System.currentTimeMillis() - firstChange >= MAX_DELAY_MILLIS)) {
+                    final Set<Path> paths = new LinkedHashSet<>(changed);
+                    changed.clear();
+                    consumer.accept(paths);
+                }
+            }
+        } catch (final ClosedWatchServiceException ex) {
+            // stopped
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot watch the document paths for changes. They are walked completely with each scan.",
+                    ex);
+            stop();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            stop();
+        }
+    }
+
+    private void processEvents(WatchKey key) throws IOException {
+        final Path directory = directories.get(key);
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                LOGGER.warn("Events of the document paths have been lost.");
+                eventsLost = true;
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            final Path path = directory.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+                register(path, true);
+            } else {
+                addChanged(path);
+            }
+        }
+        if (!key.reset()) {
+            // the directory has been deleted or moved away
+            directories.remove(key);
+        }
+    }
+
+    private void register(Path root, boolean reportFiles) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (DocumentWalker.isSkipped(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                try {
+                    directories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+                } catch (final NoSuchFileException ex) {
+                    // deleted in the meantime
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (reportFiles) {
+                    addChanged(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                LOGGER.warn("Cannot watch " + file + ": " + ex.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void addChanged(Path path) {
+        if (DocumentWalker.isSkipped(path)) {
+            return;
+        }
+        if (changed.isEmpty()) {
+            firstChange = System.currentTimeMillis();
+        }
+        changed.add(path);
+    }
+
+}
@@ -24,6 +24,9 @@ public class MetaData {
 
     private List<String> tags = new ArrayList<>();
 
+    // of the original file when it has been extracted, null for meta data written before it has been recorded
+    private Long originalSize;
+
     // set at runtime
     @JsonIgnore
     private Path filePath;
@@ -104,6 +107,14 @@ public class MetaData {
         this.tags = tags;
     }
 
+    public Long getOriginalSize() {
+        return originalSize;
+    }
+
+    public void setOriginalSize(Long originalSize) {
+        this.originalSize = originalSize;
+    }
+
     public Date getLastUpdateMetaData() {
         return lastUpdateMetaData;
     }
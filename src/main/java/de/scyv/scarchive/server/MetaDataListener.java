@@ -0,0 +1,28 @@
+package de.scyv.scarchive.server;
+
+import java.nio.file.Path;
+
+/**
+ * Listener that gets informed whenever meta data is written or removed via the
+ * {@link MetaDataService}.
+ */
+public interface MetaDataListener {
+
+    /**
+     * Called after the meta data has been written to its json file.
+     *
+     * @param metaData
+     *            the saved meta data, with the file path set. Never
+     *            <code>null</code>.
+     */
+    void metaDataSaved(MetaData metaData);
+
+    /**
+     * Called after the meta data of an original file has been deleted.
+     *
+     * @param originalFilePath
+     *            the path of the original file. Never <code>null</code>.
+     */
+    void metaDataDeleted(Path originalFilePath);
+
+}
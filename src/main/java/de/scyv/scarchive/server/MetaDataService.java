@@ -1,31 +1,386 @@
 package de.scyv.scarchive.server;
 
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
 /**
  * Service that provides means to find/handle meta data files
  *
+ * Whether a file has been extracted, and when, is answered from listings of the
+ * meta data directories, so a scan does not need a file system access per file,
+ * which is expensive on network shares. A listing holds the names and
+ * modification times of the json files of its directory. It is checked against
+ * the modification time of its directory once after {@link #refreshListings()},
+ * e.g. once per scan, and kept up to date with the meta data saved and deleted
+ * by this service. The listings of the most recently used directories are kept.
+ * Directories are listed without a global lock, so the threads of a scan list
+ * different directories at the same time.
  */
 @Service
 public class MetaDataService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetaDataService.class);
+
     public static final String META_DATA_SUB_DIRECTORY = ".scarchive";
 
+    public static final String META_DATA_SUFFIX = ".meta.json";
+
+    private static final Pattern PAGE_TEXT_PATTERN = Pattern.compile("^(.*)_(\\d+)\\.png\\.txt$");
+
+    private static final int MAX_LISTINGS = 1024;
+
+    // a directory modified this shortly before its listing may have changed within the same timestamp
+    private static final long RACY_LISTING_MILLIS = 2000;
+
+    private final List<MetaDataListener> listeners = new CopyOnWriteArrayList<>();
+
+    // meta data directory -> its json files
+    private final Map<Path, Listing> listings = new ConcurrentHashMap<>();
+
+    private final AtomicInteger listingGeneration = new AtomicInteger();
+
+    /**
+     * Register a listener that gets informed about saved and deleted meta data.
+     *
+     * @param listener
+     *            the listener to add. Must not be <code>null</code>.
+     */
+    public void addMetaDataListener(MetaDataListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Save meta data to its json file and inform the registered listeners.
+     *
+     * @param metaData
+     *            the meta data to save. Must not be <code>null</code>.
+     * @param metaDataFile
+     *            path where the data shall be stored. Must not be
+     *            <code>null</code>.
+     * @throws IOException
+     *             when writing to the json file fails.
+     */
+    public void save(MetaData metaData, Path metaDataFile) throws IOException {
+        metaData.saveToFile(metaDataFile);
+        updateListing(metaDataFile, true);
+        listeners.forEach(listener -> listener.metaDataSaved(metaData));
+    }
+
+    /**
+     * Delete the meta data json file of an original file and inform the
+     * registered listeners.
+     *
+     * @param originalFilePath
+     *            the original file. Must not be <code>null</code>.
+     * @throws IOException
+     *             when the json file cannot be deleted.
+     */
+    public void delete(Path originalFilePath) throws IOException {
+        Files.deleteIfExists(getMetaDataPath(originalFilePath));
+        updateListing(getMetaDataPath(originalFilePath), false);
+        listeners.forEach(listener -> listener.metaDataDeleted(originalFilePath));
+    }
+
+    /**
+     * Create the meta data for the extraction of an original file. If the file
+     * has been extracted before, e.g. it has been replaced by a new version, its
+     * title and tags are taken over.
+     *
+     * @param originalFilePath
+     *            the original file. Must not be <code>null</code>.
+     * @return the meta data without text and thumbnails, with the current size
+     *         of the original file. Never <code>null</code>.
+     */
+    public MetaData createMetaData(Path originalFilePath) {
+        final MetaData metaData = new MetaData();
+        metaData.setTitle(originalFilePath.getFileName().toString());
+        try {
+            metaData.setOriginalSize(Files.size(originalFilePath));
+        } catch (final IOException ex) {
+            LOGGER.warn("Cannot read the size of " + originalFilePath + ": " + ex.getMessage());
+        }
+        final Path metaDataPath = getMetaDataPath(originalFilePath);
+        if (isAlreadyExtracted(originalFilePath)) {
+            try {
+                final MetaData previous = MetaData.createFromFile(metaDataPath);
+                if (previous.getTitle() != null) {
+                    metaData.setTitle(previous.getTitle());
+                }
+                if (previous.getTags() != null) {
+                    metaData.setTags(new ArrayList<>(previous.getTags()));
+                }
+            } catch (final IOException ex) {
+                LOGGER.warn("Cannot read previous meta data " + metaDataPath + ". Title and tags are reset.", ex);
+            }
+        }
+        return metaData;
+    }
+
+    /**
+     * Copy the extraction of an original file to a file with the same content,
+     * instead of extracting it again: the text, the page text files and the
+     * thumbnails. The title and the tags are those of the target, if it has
+     * been extracted before, otherwise the tags of the source are taken over.
+     * The registered listeners are informed about the new meta data.
+     *
+     * @param sourceFilePath
+     *            the extracted original file. Must not be <code>null</code>.
+     * @param targetFilePath
+     *            the original file with the same content. Must not be
+     *            <code>null</code>.
+     * @throws IOException
+     *             when the meta data cannot be read or written.
+     */
+    public void copyMetaData(Path sourceFilePath, Path targetFilePath) throws IOException {
+        final MetaData source = MetaData.createFromFile(getMetaDataPath(sourceFilePath));
+        final boolean extractedBefore = isAlreadyExtracted(targetFilePath);
+        final MetaData metaData = createMetaData(targetFilePath);
+        if (!extractedBefore && source.getTags() != null) {
+            metaData.setTags(new ArrayList<>(source.getTags()));
+        }
+        metaData.setText(source.getText());
+
+        final Path targetDirectory = getMetaDataPathPrefix(targetFilePath).getParent();
+        Files.createDirectories(targetDirectory);
+        deletePageTexts(targetFilePath);
+        final Map<Integer, Path> pageTexts = getPageTextPaths(getMetaDataPathPrefix(sourceFilePath).getParent())
+                .get(sourceFilePath.getFileName().toString());
+        if (pageTexts != null) {
+            for (final Map.Entry<Integer, Path> pageText : pageTexts.entrySet()) {
+                Files.copy(pageText.getValue(), getPageTextPath(targetFilePath, pageText.getKey()),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        // thumbnails are named after their original file, see PDFTextExtractor
+        final String sourcePrefix = "thumb_" + sourceFilePath.getFileName();
+        for (final String thumbnail : source.getThumbnailPaths()) {
+            if (thumbnail.startsWith(sourcePrefix)) {
+                final String targetThumbnail = "thumb_" + targetFilePath.getFileName()
+                        + thumbnail.substring(sourcePrefix.length());
+                Files.copy(getMetaDataPathPrefix(sourceFilePath).resolveSibling(thumbnail),
+                        targetDirectory.resolve(targetThumbnail), StandardCopyOption.REPLACE_EXISTING);
+                metaData.getThumbnailPaths().add(targetThumbnail);
+            }
+        }
+        save(metaData, getMetaDataPath(targetFilePath));
+    }
+
+    /**
+     * Delete the page text files (<code>&lt;file&gt;_&lt;n&gt;.png.txt</code>)
+     * of an original file, e.g. before it is extracted again.
+     *
+     * @param originalFilePath
+     *            the original file. Must not be <code>null</code>.
+     * @throws IOException
+     *             when the files cannot be deleted.
+     */
+    public void deletePageTexts(Path originalFilePath) throws IOException {
+        final Path metaDataDirectory = getMetaDataPathPrefix(originalFilePath).getParent();
+        if (!Files.isDirectory(metaDataDirectory)) {
+            return;
+        }
+        final Map<Integer, Path> pageTexts = getPageTextPaths(metaDataDirectory)
+                .get(originalFilePath.getFileName().toString());
+        if (pageTexts != null) {
+            for (final Path pageText : pageTexts.values()) {
+                Files.deleteIfExists(pageText);
+            }
+        }
+    }
+
     /**
      * Check if a file has already been processed by extraction service.
      *
-     * This is determined by the pure existence of the metadata file
+     * This is determined by the pure existence of the metadata file, looked up
+     * in the listing of its directory.
      *
      * @param originalFilePath.
      *            Must not be <code>null</code>.
      * @return true, if the file has been processed.
      */
     public boolean isAlreadyExtracted(Path originalFilePath) {
-        return Files.exists(getMetaDataPath(originalFilePath));
+        return getMetaDataLastModified(originalFilePath) >= 0;
+    }
+
+    /**
+     * Get the modification time of the metadata json file of a file, looked up
+     * in the listing of its directory.
+     *
+     * @param originalFilePath.
+     *            Must not be <code>null</code>.
+     * @return the modification time in millis, -1 if the file has not been
+     *         processed.
+     */
+    public long getMetaDataLastModified(Path originalFilePath) {
+        final Path metaDataPath = getMetaDataPath(originalFilePath);
+        final Long lastModified = getListing(metaDataPath.getParent()).files
+                .get(metaDataPath.getFileName().toString());
+        return lastModified == null ? -1 : lastModified;
+    }
+
+    /**
+     * Check the listings of the meta data directories against the file system
+     * again, once per directory. Call it before a scan, so changes by others,
+     * e.g. synchronized meta data, are found.
+     */
+    public void refreshListings() {
+        listingGeneration.incrementAndGet();
+    }
+
+    /**
+     * Find the meta data sub directories below a document path. Only the
+     * directories are looked at, the meta data sub directories and
+     * <code>.AppleDouble</code> directories are not descended into.
+     *
+     * @param documentPath
+     *            the document path. Must not be <code>null</code>.
+     * @param consumer
+     *            receives each meta data sub directory. Must not be
+     *            <code>null</code>.
+     * @throws IOException
+     *             when the document path or one of its directories cannot be
+     *             read. The meta data directories that have been found anyway
+     *             have been passed to the consumer.
+     */
+    public void forEachMetaDataDirectory(Path documentPath, Consumer<Path> consumer) throws IOException {
+        final List<IOException> failures = new ArrayList<>();
+        Files.walkFileTree(documentPath, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (dir.endsWith(META_DATA_SUB_DIRECTORY)) {
+                    consumer.accept(dir);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return DocumentWalker.isSkipped(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                failures.add(ex);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) {
+                if (ex != null) {
+                    failures.add(ex);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        if (!failures.isEmpty()) {
+            throw failures.get(0);
+        }
+    }
+
+    private Listing getListing(Path metaDataDirectory) {
+        final int generation = listingGeneration.get();
+        Listing listing = listings.get(metaDataDirectory);
+        if (listing == null || listing.generation != generation) {
+            // only the directory is locked while it is listed
+            listing = listings.compute(metaDataDirectory,
+                    (directory, previous) -> checkListing(directory, previous, generation));
+            if (listing == null) {
+                return new Listing(-1, 0, generation);
+            }
+            if (listings.size() > MAX_LISTINGS) {
+                evictLeastRecentlyUsedListing();
+            }
+        }
+        listing.lastUsed = System.nanoTime();
+        return listing;
+    }
+
+    // the previous listing, if the directory has not changed since, otherwise a new listing, null if the directory
+    // cannot be listed
+    private Listing checkListing(Path metaDataDirectory, Listing previous, int generation) {
+        if (previous != null && previous.generation == generation) {
+            return previous;
+        }
+        final long lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(metaDataDirectory).toMillis();
+        } catch (final IOException ex) {
+            // not extracted at all
+            return new Listing(-1, Long.MAX_VALUE, generation);
+        }
+        if (previous != null && previous.isValid(lastModified)) {
+            previous.generation = generation;
+            return previous;
+        }
+        final Listing listing = new Listing(lastModified, System.currentTimeMillis(), generation);
+        try {
+            // the attributes come with the listing, e.g. on Windows and SMB shares without a request per file
+            Files.walkFileTree(metaDataDirectory, EnumSet.noneOf(FileVisitOption.class), 1,
+                    new SimpleFileVisitor<Path>() {
+
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                            final String name = file.getFileName().toString();
+                            if (name.endsWith(META_DATA_SUFFIX)) {
+                                listing.files.put(name, attrs.lastModifiedTime().toMillis());
+                            }
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                            LOGGER.warn("Cannot read " + file + ": " + ex.getMessage());
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+        } catch (final IOException ex) {
+            LOGGER.warn("Cannot list meta data directory " + metaDataDirectory + ": " + ex.getMessage());
+            return null;
+        }
+        return listing;
+    }
+
+    private void evictLeastRecentlyUsedListing() {
+        listings.entrySet().stream().min(Comparator.comparingLong(entry -> entry.getValue().lastUsed))
+                .ifPresent(eldest -> listings.remove(eldest.getKey(), eldest.getValue()));
+    }
+
+    private void updateListing(Path metaDataFile, boolean exists) {
+        final Listing listing = listings.get(metaDataFile.getParent());
+        if (listing == null) {
+            return;
+        }
+        final String name = metaDataFile.getFileName().toString();
+        if (!exists) {
+            listing.files.remove(name);
+            return;
+        }
+        try {
+            listing.files.put(name, Files.getLastModifiedTime(metaDataFile).toMillis());
+        } catch (final IOException ex) {
+            listing.files.put(name, System.currentTimeMillis());
+        }
     }
 
     /**
@@ -37,7 +392,7 @@ public class MetaDataService {
      */
     public Path getMetaDataPath(Path originalFilePath) {
         return Paths.get(originalFilePath.getParent().toString(), META_DATA_SUB_DIRECTORY,
-                originalFilePath.getFileName().toString() + ".meta.json");
+                originalFilePath.getFileName().toString() + META_DATA_SUFFIX);
     }
 
     /**
@@ -55,6 +410,20 @@ public class MetaDataService {
                 originalFilePath.getFileName().toString());
     }
 
+    /**
+     * Get the path of the text file of a page (<code>&lt;file&gt;_&lt;n&gt;.png.txt</code>)
+     * by its origin file.
+     *
+     * @param originalFilePath
+     *            the original file. Must not be <code>null</code>.
+     * @param page
+     *            the page number, starting with 1.
+     * @return never <code>null</code>.
+     */
+    public Path getPageTextPath(Path originalFilePath, int page) {
+        return Paths.get(getMetaDataPathPrefix(originalFilePath).toString() + "_" + page + ".png.txt");
+    }
+
     /**
      * Get the original filepath from the metadata file.
      * 
@@ -65,8 +434,93 @@ public class MetaDataService {
         if (metaData.getFilePath() == null) {
             throw new IllegalStateException("Filepath of metadata is not set!");
         }
-        return Paths.get(metaData.getFilePath().getParent().getParent().toString(),
-                metaData.getFilePath().getFileName().toString().replaceAll("\\.meta\\.json$", ""));
+        return getOriginalFilePath(metaData.getFilePath());
+    }
+
+    /**
+     * Get the original filepath from the path of a metadata json file.
+     *
+     * @param metaDataPath
+     *            the path of the json file. Must not be <code>null</code>.
+     * @return never <code>null</code>.
+     */
+    public Path getOriginalFilePath(Path metaDataPath) {
+        return Paths.get(metaDataPath.getParent().getParent().toString(),
+                metaDataPath.getFileName().toString().replaceAll("\\.meta\\.json$", ""));
+    }
+
+    /**
+     * Collect the page text files (<code>&lt;file&gt;_&lt;n&gt;.png.txt</code>)
+     * of all original files that have their meta data in the given directory.
+     *
+     * @param metaDataDirectory
+     *            the meta data sub directory. Must not be <code>null</code>.
+     * @return map of original file name to its page text files, keyed and sorted
+     *         by page number. Never <code>null</code>.
+     * @throws IOException
+     *             when the directory cannot be listed.
+     */
+    public Map<String, Map<Integer, Path>> getPageTextPaths(Path metaDataDirectory) throws IOException {
+        final List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(metaDataDirectory)) {
+            stream.forEach(entries::add);
+        }
+        return getPageTextPaths(entries);
+    }
+
+    /**
+     * Group the page text files (<code>&lt;file&gt;_&lt;n&gt;.png.txt</code>)
+     * among the given entries of a meta data directory by their original file.
+     *
+     * @param metaDataDirectoryEntries
+     *            the already listed entries of a meta data sub directory. Must
+     *            not be <code>null</code>.
+     * @return map of original file name to its page text files, keyed and sorted
+     *         by page number. Never <code>null</code>.
+     */
+    public Map<String, Map<Integer, Path>> getPageTextPaths(Iterable<Path> metaDataDirectoryEntries) {
+        final Map<String, Map<Integer, Path>> pageTexts = new TreeMap<>();
+        for (final Path path : metaDataDirectoryEntries) {
+            final Matcher matcher = PAGE_TEXT_PATTERN.matcher(path.getFileName().toString());
+            if (matcher.matches()) {
+                Map<Integer, Path> pages = pageTexts.get(matcher.group(1));
+                if (pages == null) {
+                    pages = new TreeMap<>();
+                    pageTexts.put(matcher.group(1), pages);
+                }
+                pages.put(Integer.valueOf(matcher.group(2)), path);
+            }
+        }
+        return pageTexts;
+    }
+
+    /**
+     * The json files in a meta data directory.
+     */
+    private static class Listing {
+
+        // name -> modification time
+        private final Map<String, Long> files = new ConcurrentHashMap<>();
+
+        // of the directory when listed, -1 if it does not exist
+        private final long lastModified;
+
+        private final long listedAt;
+
+        private volatile int generation;
+
+        private volatile long lastUsed;
+
+        Listing(long lastModified, long listedAt, int generation) {
+            this.lastModified = lastModified;
+            this.listedAt = listedAt;
+            this.generation = generation;
+        }
+
+        // the directory may have changed unnoticed, if it has been modified right before the listing
+        boolean isValid(long currentLastModified) {
+            return currentLastModified == lastModified && listedAt - lastModified > RACY_LISTING_MILLIS;
+        }
     }
 
 }
@@ -0,0 +1,280 @@
+package de.scyv.scarchive.server;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Removes the meta data of original files that have been deleted or moved away:
+ * the json file, the page texts, the thumbnails and page images left behind by
+ * an interrupted extraction.
+ *
+ * The document paths are swept in the background every
+ * <code>scarchive.orphans.interval</code> seconds, so searches only read. Each
+ * meta data directory is compared with a listing of its document directory, and
+ * the listings and deletions are limited to
+ * <code>scarchive.orphans.maxOperationsPerSecond</code>, so a sweep does not
+ * keep a network share busy. The json files are deleted by the
+ * {@link MetaDataService}, which informs the indexes.
+ *
+ * Like the scan, the sweep only runs with <code>scarchive.enablescan</code>.
+ * If a document path cannot be read, e.g. because the share is not mounted,
+ * nothing is removed from it.
+ */
+@Service
+public class OrphanCollector {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OrphanCollector.class);
+
+    // the first sweep waits for the first scan
+    private static final long INITIAL_DELAY_SECONDS = 600;
+
+    private static final Pattern PAGE_TEXT_PATTERN = Pattern.compile("^(.*)_\\d+\\.png\\.txt$");
+
+    private static final Pattern THUMBNAIL_PATTERN = Pattern.compile("^thumb_(.*)_\\d+\\.png$");
+
+    private static final Pattern PAGE_IMAGE_PATTERN = Pattern.compile("^(.*)_\\d+\\.png$");
+
+    @Value("${scarchive.enablescan}")
+    private Boolean enableScan;
+
+    @Value("${scarchive.documentPaths}")
+    private String documentPaths;
+
+    @Value("${scarchive.orphans.interval}")
+    private long interval;
+
+    @Value("${scarchive.orphans.maxOperationsPerSecond}")
+    private int maxOperationsPerSecond;
+
+    @Autowired
+    private MetaDataService metaDataService;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * Schedule the sweeps, if enabled.
+     */
+    @PostConstruct
+    public void start() {
+        if (!enableScan || interval <= 0) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "scarchive-orphans");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::sweep, INITIAL_DELAY_SECONDS, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stop sweeping, a running sweep is interrupted.
+     */
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sweep the document paths once.
+     */
+    public void sweep() {
+        final Sweep sweep = new Sweep();
+        LOGGER.info("Looking for orphaned meta data...");
+        try {
+            for (final String documentPath : documentPaths.split(";")) {
+                sweep.walk(Paths.get(documentPath));
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOGGER.info("Looking for orphaned meta data has been stopped.");
+        } catch (final RuntimeException ex) {
+            LOGGER.error("Looking for orphaned meta data failed.", ex);
+        }
+        sweep.report();
+    }
+
+    /**
+     * The state of one sweep.
+     */
+    private class Sweep {
+
+        private final long startedAt = System.currentTimeMillis();
+
+        private long operations = 0;
+
+        private int directories = 0;
+
+        private int documents = 0;
+
+        private int metaDataFiles = 0;
+
+        private int pageTexts = 0;
+
+        private int thumbnails = 0;
+
+        private int pageImages = 0;
+
+        private long bytes = 0;
+
+        void walk(Path root) throws InterruptedException {
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                        if (!DocumentWalker.isSkipped(dir)) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        if (dir.getFileName().toString().equals(MetaDataService.META_DATA_SUB_DIRECTORY)) {
+                            try {
+                                collect(dir);
+                            } catch (final InterruptedException ex) {
+                                throw new InterruptedIOException(ex);
+                            } catch (final IOException ex) {
+                                LOGGER.warn("Cannot collect the orphaned meta data in " + dir + ": " + ex.getMessage());
+                            }
+                        }
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                        LOGGER.warn("Cannot read " + file + ": " + ex.getMessage());
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+            } catch (final InterruptedIOException ex) {
+                throw ex.interruptedException;
+            } catch (final IOException ex) {
+                LOGGER.error("Looking for orphaned meta data in " + root + " failed.", ex);
+            }
+        }
+
+        private void collect(Path metaDataDirectory) throws IOException, InterruptedException {
+            directories++;
+            final List<Path> entries = new ArrayList<>();
+            throttle();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(metaDataDirectory)) {
+                stream.forEach(entries::add);
+            }
+            // listed after the meta data, so meta data written meanwhile is not taken for an orphan
+            final Path directory = metaDataDirectory.getParent();
+            final Set<String> originals = new HashSet<>();
+            throttle();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                stream.forEach(path -> originals.add(path.getFileName().toString()));
+            }
+
+            for (final Path entry : entries) {
+                final String name = entry.getFileName().toString();
+                if (name.endsWith(MetaDataService.META_DATA_SUFFIX)) {
+                    final String original = name.substring(0, name.length() - MetaDataService.META_DATA_SUFFIX.length());
+                    if (!originals.contains(original)) {
+                        final long size = size(entry);
+                        throttle();
+                        metaDataService.delete(directory.resolve(original));
+                        documents++;
+                        metaDataFiles++;
+                        bytes += size;
+                    }
+                } else if (isOrphaned(name, PAGE_TEXT_PATTERN, originals)) {
+                    pageTexts += delete(entry);
+                } else if (isOrphaned(name, THUMBNAIL_PATTERN, originals)
+                        && isOrphaned(name, PAGE_IMAGE_PATTERN, originals)) {
+                    // "thumb_" may also be the start of an original file name
+                    thumbnails += delete(entry);
+                } else if (!THUMBNAIL_PATTERN.matcher(name).matches()
+                        && isOrphaned(name, PAGE_IMAGE_PATTERN, originals)) {
+                    pageImages += delete(entry);
+                }
+            }
+        }
+
+        private boolean isOrphaned(String name, Pattern pattern, Set<String> originals) {
+            final Matcher matcher = pattern.matcher(name);
+            return matcher.matches() && !originals.contains(matcher.group(1));
+        }
+
+        private int delete(Path file) throws IOException, InterruptedException {
+            final long size = size(file);
+            throttle();
+            if (Files.deleteIfExists(file)) {
+                bytes += size;
+                return 1;
+            }
+            return 0;
+        }
+
+        private long size(Path file) {
+            try {
+                return Files.size(file);
+            } catch (final IOException ex) {
+                return 0;
+            }
+        }
+
+        // waits until the next operation keeps the sweep within its rate
+        private void throttle() throws InterruptedException {
+            operations++;
+            if (maxOperationsPerSecond <= 0) {
+                return;
+            }
+            final long wait = startedAt + operations * 1000 / maxOperationsPerSecond - System.currentTimeMillis();
+            if (wait > 0) {
+                Thread.sleep(wait);
+            }
+        }
+
+        void report() {
+            LOGGER.info("Checked " + directories + " meta data directories in "
+                    + (System.currentTimeMillis() - startedAt) / 1000 + " s. Removed the meta data of " + documents
+                    + " deleted documents (" + metaDataFiles + " meta data files, " + pageTexts + " page texts, "
+                    + thumbnails + " thumbnails, " + pageImages + " page images), freeing " + bytes / 1024
+                    + " KB.");
+        }
+    }
+
+    /**
+     * Carries an interruption through the file visitor.
+     */
+    private static class InterruptedIOException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final InterruptedException interruptedException;
+
+        InterruptedIOException(InterruptedException interruptedException) {
+            super(interruptedException);
+            this.interruptedException = interruptedException;
+        }
+    }
+
+}
@@ -2,11 +2,26 @@ package de.scyv.scarchive.server;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,12 +35,39 @@ import de.scyv.scarchive.server.extraction.PDFTextExtractor;
 
 /**
  * Backend service that scans PDF files and extract them.
+ *
+ * With <code>scarchive.scan.watch</code>, the document paths are watched for
+ * changes (see {@link DocumentWatcher}) and only the changed files are
+ * extracted, right after they have been written. The document paths are then
+ * walked completely only every <code>scarchive.scan.reconciliationInterval</code>
+ * seconds, in case changes have been missed, and whenever the watcher reports
+ * lost events.
+ *
+ * Without watching, or if the document paths cannot be watched, they are walked
+ * completely with each run of the {@link Scheduler}.
+ *
+ * The registered {@link ScanListener}s are informed after each complete walk
+ * and each batch of changes, so the indexes do not need to walk the document
+ * paths on their own more often.
+ *
+ * The document paths are walked in parallel (see {@link DocumentWalker}). The
+ * files to extract are put into a bounded queue and extracted while the walk
+ * goes on, so the first file is extracted right away and the walk waits while
+ * the queue is full.
+ *
+ * Only new files and files that have changed since their extraction are
+ * extracted, see {@link ScanManifest}. A file that is extracted again keeps its
+ * title and tags. Copies of an extracted file, e.g. in another document path,
+ * get a copy of its meta data instead of being extracted (and OCR'd) again.
  */
 @Service
 public class SCArchive {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SCArchive.class);
 
+    // the files found by the walk that wait for their extraction
+    private static final int QUEUE_CAPACITY = 256;
+
     @Value("${scarchive.enablescan}")
     private Boolean enableScan;
 
@@ -38,9 +80,42 @@ public class SCArchive {
     @Autowired
     private HTMLExtractor htmlExtractor;
 
+    @Value("${scarchive.scan.watch}")
+    private Boolean watch;
+
+    @Value("${scarchive.scan.reconciliationInterval}")
+    private long reconciliationInterval;
+
+    @Value("${scarchive.scan.threads}")
+    private int scanThreads;
+
     @Autowired
     private MetaDataService metaDataService;
 
+    @Autowired
+    private ScanManifest scanManifest;
+
+    // extracts the changed files reported by the watcher
+    private final ExecutorService changeExtractor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "scarchive-extract-changes");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // full scans and the extraction of changed files run one at a time
+    private final Object extractionLock = new Object();
+
+    private DocumentWatcher watcher;
+
+    // the time spent on extractions and their number per extractor, to estimate the time saved by duplicates
+    private final Map<String, Long> extractionMillis = new HashMap<>();
+
+    private final Map<String, Long> extractionCounts = new HashMap<>();
+
+    private volatile long lastFullScan = 0;
+
+    private final List<ScanListener> scanListeners = new CopyOnWriteArrayList<>();
+
     /**
      * Create the service.
      *
@@ -50,69 +125,286 @@ public class SCArchive {
     public SCArchive(Scheduler scheduler) {
 
         scheduler.addRunner(() -> {
-            if (enableScan) {
-                final ExtractionCollection collection = new ExtractionCollection();
-                collectFiles(documentPaths, collection);
-                LOGGER.info("Found " + collection.size() + " files in the archive.");
-                runExtraction(collection);
+            if (!enableScan) {
+                scanListeners.forEach(ScanListener::fullScanFinished);
+            } else if (isFullScanDue()) {
+                lastFullScan = System.currentTimeMillis();
+                synchronized (extractionLock) {
+                    scan();
+                    scanListeners.forEach(ScanListener::fullScanFinished);
+                }
             }
         });
 
     }
 
-    private void collectFiles(String documentPaths, final ExtractionCollection collection) {
+    /**
+     * Register a listener that gets informed about the scans.
+     *
+     * @param listener
+     *            the listener to add. Must not be <code>null</code>.
+     */
+    public void addScanListener(ScanListener listener) {
+        scanListeners.add(listener);
+    }
+
+    /**
+     * Start watching the document paths, if enabled.
+     */
+    @PostConstruct
+    public void startWatching() {
+        if (!enableScan || !watch) {
+            return;
+        }
+        watcher = new DocumentWatcher(getRoots(), paths -> changeExtractor.execute(() -> extractChanges(paths)));
+        watcher.start();
+    }
+
+    /**
+     * Stop watching the document paths.
+     */
+    @PreDestroy
+    public void stopWatching() {
+        if (watcher != null) {
+            watcher.stop();
+        }
+        changeExtractor.shutdownNow();
+    }
+
+    private boolean isFullScanDue() {
+        if (watcher == null || !watcher.isWatching()) {
+            return true;
+        }
+        final boolean eventsLost = watcher.takeEventsLost();
+        return eventsLost || System.currentTimeMillis() - lastFullScan >= reconciliationInterval * 1000;
+    }
+
+    // walks the document paths in parallel while the found files are extracted
+    private void scan() {
+        final BlockingQueue<ExtractionJob> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        final AtomicBoolean stopped = new AtomicBoolean();
+        metaDataService.refreshListings();
+        scanManifest.startScan();
+        final DocumentWalker walker = new DocumentWalker(getRoots(), scanThreads, (path, attributes) -> {
+            final Extractor extractor = findExtractor(path, attributes);
+            if (extractor != null) {
+                enqueue(queue, new ExtractionJob(path, extractor), stopped);
+            }
+        });
+        walker.start();
+        final ExtractionRun run = new ExtractionRun();
+        boolean drained = false;
+        try {
+            while (!walker.isDone() || !queue.isEmpty()) {
+                final ExtractionJob job = queue.poll(1, TimeUnit.SECONDS);
+                if (job != null) {
+                    LOGGER.debug(queue.size() + " more files queued for extraction.");
+                    extract(job.path, job.extractor, run);
+                }
+            }
+            drained = true;
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!drained) {
+                // the walk must not wait for a queue that is not taken from anymore
+                stopped.set(true);
+                walker.cancel();
+            }
+        }
+        if (walker.isComplete()) {
+            scanManifest.finishScan(walker.getFailedPaths());
+        }
+        run.log();
+        scanManifest.persist();
+    }
+
+    // blocks the walk while the extraction is behind
+    private void enqueue(BlockingQueue<ExtractionJob> queue, ExtractionJob job, AtomicBoolean stopped) {
+        try {
+            while (!queue.offer(job, 1, TimeUnit.SECONDS)) {
+                if (stopped.get()) {
+                    return;
+                }
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<Path> getRoots() {
+        final List<Path> roots = new ArrayList<>();
         for (final String documentPath : documentPaths.split(";")) {
-            LOGGER.info("Collecting files from " + documentPath + "...");
-            try {
-
-                Files.walk(Paths.get(documentPath)).filter(path -> {
-                    try {
-                        return Files.isRegularFile(path) && !Files.isHidden(path)
-                                && !path.getParent().endsWith(".AppleDouble");
-                    } catch (final IOException ex) {
-                        LOGGER.error("Cannot invode isHidden on file " + path, ex);
-                    }
-                    return false;
-                }).forEach(path -> {
-                    if (pdfTextExtractor.accepts(path)) {
-                        collection.add(pdfTextExtractor, path);
+            roots.add(Paths.get(documentPath));
+        }
+        return roots;
+    }
+
+    // the extractor of a document that has not been extracted in its current version, null for other files
+    private Extractor findExtractor(Path path, BasicFileAttributes attributes) {
+        if (!attributes.isRegularFile() || DocumentWalker.isSkipped(path.getParent())) {
+            return null;
+        }
+        for (final Extractor extractor : Arrays.asList(pdfTextExtractor, htmlExtractor)) {
+            if (extractor.accepts(path) && !isHidden(path)) {
+                return scanManifest.isUpToDate(path, attributes, extractor) ? null : extractor;
+            }
+        }
+        return null;
+    }
+
+    private boolean isHidden(Path path) {
+        try {
+            return Files.isHidden(path);
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot invode isHidden on file " + path, ex);
+        }
+        return true;
+    }
+
+    // created and modified files are extracted, the meta data of deleted files is removed
+    private void extractChanges(Set<Path> paths) {
+        synchronized (extractionLock) {
+            metaDataService.refreshListings();
+            final ExtractionRun run = new ExtractionRun();
+            for (final Path path : paths) {
+                try {
+                    final Extractor extractor = findExtractor(path,
+                            Files.readAttributes(path, BasicFileAttributes.class));
+                    if (extractor != null) {
+                        extract(path, extractor, run);
                     }
-                    if (htmlExtractor.accepts(path)) {
-                        collection.add(htmlExtractor, path);
+                } catch (final NoSuchFileException ex) {
+                    if (metaDataService.isAlreadyExtracted(path)) {
+                        deleteMetaData(path);
                     }
-                });
-
-            } catch (final IOException ex) {
-                LOGGER.error("Walking through " + documentPath + " failed.", ex);
+                } catch (final IOException ex) {
+                    LOGGER.warn("Cannot read " + path + ": " + ex.getMessage());
+                }
+            }
+            if (!run.isEmpty()) {
+                run.log();
             }
+            scanManifest.persist();
+            scanListeners.forEach(listener -> listener.changesScanned(paths));
         }
     }
 
-    private void runExtraction(ExtractionCollection collection) {
-        final AtomicInteger currentIdx = new AtomicInteger(0);
+    private void deleteMetaData(Path path) {
+        try {
+            LOGGER.info("File " + path + " has been deleted. Removing its meta data.");
+            metaDataService.delete(path);
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot delete meta data of " + path, ex);
+        }
+    }
 
-        runExtraction(collection, pdfTextExtractor, currentIdx);
-        runExtraction(collection, htmlExtractor, currentIdx);
+    private byte[] hash(Path path) {
+        try {
+            return ScanManifest.hash(path);
+        } catch (final IOException ex) {
+            LOGGER.warn("Cannot hash " + path + ": " + ex.getMessage());
+            return null;
+        }
     }
 
-    private void runExtraction(ExtractionCollection collection, Extractor extractor, AtomicInteger currentIdx) {
-        final List<Path> toExtract = new ArrayList<>();
-        collection.get(extractor).stream().filter(path -> !metaDataService.isAlreadyExtracted(path)).forEach(path -> {
-            toExtract.add(path);
-        });
-        if (toExtract.size() == 0) {
+    // copies the meta data of an extracted file with the same content
+    private boolean reuseExtraction(Path path, BasicFileAttributes attributes, byte[] hash, Extractor extractor) {
+        final Path duplicate = scanManifest.findDuplicate(path, attributes, hash, extractor);
+        if (duplicate == null) {
+            return false;
+        }
+        try {
+            LOGGER.info("Reusing the extraction of " + duplicate + " for its copy " + path);
+            metaDataService.copyMetaData(duplicate, path);
+            return true;
+        } catch (final IOException ex) {
+            LOGGER.warn("Cannot copy the meta data of " + duplicate + ". Extracting " + path + " instead.", ex);
+            return false;
+        }
+    }
+
+    private void recordExtractionTime(Extractor extractor, long millis) {
+        extractionMillis.merge(extractor.getIdentifier(), millis, Long::sum);
+        extractionCounts.merge(extractor.getIdentifier(), 1L, Long::sum);
+    }
+
+    // of the extractions since the start, null if there has not been any
+    private Long getAverageExtractionMillis(Extractor extractor) {
+        final Long count = extractionCounts.get(extractor.getIdentifier());
+        return count == null ? null : extractionMillis.get(extractor.getIdentifier()) / count;
+    }
+
+    private void extract(Path path, Extractor extractor, ExtractionRun run) {
+        final BasicFileAttributes attributes;
+        try {
+            // read before the extraction, so changes during the extraction are found by the next scan
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (final IOException ex) {
+            LOGGER.warn("Cannot read " + path + ": " + ex.getMessage());
+            run.failed++;
             return;
         }
-        LOGGER.info("Running extraction for " + extractor.getIdentifier() + ": " + toExtract.size() + " items...");
-        final AtomicInteger currentCount = new AtomicInteger(0);
-        toExtract.stream().forEach(path -> {
-            LOGGER.info(extractor.getIdentifier() + ": "
-                    + String.format("%.0f%% (%d/%d)", (double) currentCount.get() * 100 / toExtract.size(),
-                            currentCount.getAndIncrement(), toExtract.size()));
-            extractor.extract(path);
-        });
-        LOGGER.info("Extraction for " + extractor.getIdentifier() + " done.");
+        final byte[] hash = hash(path);
+        if (hash != null && reuseExtraction(path, attributes, hash, extractor)) {
+            run.reused.merge(extractor, 1, Integer::sum);
+            scanManifest.extracted(path, attributes, extractor, hash);
+            return;
+        }
+        LOGGER.info("Extracting file " + (run.extracted + run.failed + 1) + ": " + path);
+        final long start = System.currentTimeMillis();
+        if (extractor.extract(path)) {
+            run.extracted++;
+            recordExtractionTime(extractor, System.currentTimeMillis() - start);
+            scanManifest.extracted(path, attributes, extractor, hash);
+        } else {
+            run.failed++;
+        }
+    }
 
+    /**
+     * A file found by the walk and its extractor.
+     */
+    private static class ExtractionJob {
+
+        private final Path path;
+
+        private final Extractor extractor;
+
+        ExtractionJob(Path path, Extractor extractor) {
+            this.path = path;
+            this.extractor = extractor;
+        }
+    }
+
+    /**
+     * The files handled by a scan or a batch of changes.
+     */
+    private class ExtractionRun {
+
+        private int extracted = 0;
+
+        // files that could not be read or extracted
+        private int failed = 0;
+
+        // the number of files whose duplicate's meta data has been copied, per extractor
+        private final Map<Extractor, Integer> reused = new HashMap<>();
+
+        boolean isEmpty() {
+            return extracted == 0 && failed == 0 && reused.isEmpty();
+        }
+
+        void log() {
+            LOGGER.info("Extracted " + extracted + " new or changed files in the archive, reused the extraction of "
+                    + reused.values().stream().mapToInt(Integer::intValue).sum() + " copies, " + failed
+                    + " files failed.");
+            reused.forEach((extractor, files) -> {
+                final Long average = getAverageExtractionMillis(extractor);
+                LOGGER.info(extractor.getIdentifier() + ": reused the extraction of " + files + " duplicates"
+                        + (average == null ? "."
+                                : ", saving about " + (average * files / 1000) + " s of extraction time."));
+            });
+        }
     }
 
 }
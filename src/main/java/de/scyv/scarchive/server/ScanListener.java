@@ -0,0 +1,30 @@
+package de.scyv.scarchive.server;
+
+import java.nio.file.Path;
+import java.util.Set;
+
+/**
+ * Listener that gets informed about the scans of the {@link SCArchive}, e.g.
+ * to bring an index in line with meta data that has been written by others.
+ */
+public interface ScanListener {
+
+    /**
+     * Called after the document paths have been walked completely. Without
+     * scanning (<code>scarchive.enablescan=false</code>), it is called with
+     * each run of the {@link Scheduler}, as the meta data is written by others
+     * only.
+     */
+    void fullScanFinished();
+
+    /**
+     * Called after the files reported as changed by the {@link DocumentWatcher}
+     * have been extracted or their meta data has been removed.
+     *
+     * @param paths
+     *            the created, modified and deleted paths. Never
+     *            <code>null</code>.
+     */
+    void changesScanned(Set<Path> paths);
+
+}
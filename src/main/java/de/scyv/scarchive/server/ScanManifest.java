@@ -0,0 +1,581 @@
+package de.scyv.scarchive.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import de.scyv.scarchive.server.extraction.Extractor;
+
+/**
+ * Remembers the size and the last modification time of each extracted file,
+ * together with the version of its extractor (see
+ * {@link Extractor#getVersion()}). A scan compares the attributes it has read
+ * anyway with the manifest: unchanged files need no further file system
+ * access, files that have been replaced by a new version or whose extractor
+ * has changed are extracted again.
+ *
+ * Files that are not in the manifest yet, e.g. on the first scan with the
+ * manifest or when the meta data has been synchronized from another machine,
+ * are taken over without extraction, if their meta data is newer than the file
+ * and has been extracted from a file of the same size. A file that has been
+ * replaced with its modification time preserved (e.g. by <code>cp -p</code>)
+ * usually differs in size and is extracted again. Meta data written before the
+ * size has been recorded is taken over by its modification time only.
+ *
+ * The manifest also keeps the SHA-256 hash of the content of the extracted
+ * files, so the extraction of a file can be reused for its copies (see
+ * {@link #findDuplicate(Path, BasicFileAttributes, byte[], Extractor)}). The
+ * files are indexed by their hash, so a duplicate is looked up without going
+ * through the manifest. Files that have been taken over are indexed by their
+ * size and hashed once a file of the same size is extracted.
+ *
+ * There is one manifest per document path, stored in
+ * <code>scarchive.scan.manifestDirectory</code>. The file paths are stored
+ * relative to the document path and front coded, i.e. without the prefix they
+ * share with the previous path.
+ */
+@Service
+public class ScanManifest implements MetaDataListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScanManifest.class);
+
+    private static final int FORMAT_VERSION = 2;
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+
+    @Value("${scarchive.scan.manifestDirectory}")
+    private String manifestDirectory;
+
+    @Value("${scarchive.documentPaths}")
+    private String documentPaths;
+
+    private final MetaDataService metaDataService;
+
+    private final List<RootManifest> manifests = new ArrayList<>();
+
+    // hash of the content -> the files with that content
+    private final Map<ByteBuffer, Set<Path>> filesByHash = new HashMap<>();
+
+    // size -> the files that have not been hashed yet
+    private final Map<Long, Set<Path>> unhashedFilesBySize = new HashMap<>();
+
+    /**
+     * Create the manifest.
+     *
+     * @param metaDataService
+     *            the service that informs the manifest about deleted meta data.
+     */
+    public ScanManifest(MetaDataService metaDataService) {
+        this.metaDataService = metaDataService;
+        metaDataService.addMetaDataListener(this);
+    }
+
+    /**
+     * Load the manifests of all document paths.
+     */
+    @PostConstruct
+    public synchronized void load() {
+        for (final String documentPath : documentPaths.split(";")) {
+            final RootManifest manifest = new RootManifest(Paths.get(documentPath));
+            manifests.add(manifest);
+            final Path manifestFile = manifest.getFile();
+            if (!Files.exists(manifestFile)) {
+                continue;
+            }
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(manifestFile)))) {
+                manifest.read(in);
+                LOGGER.info("Loaded scan manifest of " + documentPath + " with " + manifest.entries.size()
+                        + " files.");
+            } catch (final IOException ex) {
+                LOGGER.error("Cannot read scan manifest " + manifestFile + ". All files are checked again.", ex);
+                manifest.entries.clear();
+            }
+            manifest.entries.forEach((key, entry) -> index(manifest.root.resolve(key), entry));
+        }
+    }
+
+    /**
+     * Check whether a file has been extracted in its current version.
+     *
+     * @param file
+     *            the original file. Must not be <code>null</code>.
+     * @param attributes
+     *            the attributes of the file, as read by the scan. Must not be
+     *            <code>null</code>.
+     * @param extractor
+     *            the extractor of the file. Must not be <code>null</code>.
+     * @return true, if the file does not need to be extracted.
+     */
+    public boolean isUpToDate(Path file, BasicFileAttributes attributes, Extractor extractor) {
+        final RootManifest manifest = getManifest(file);
+        if (manifest == null) {
+            return metaDataService.isAlreadyExtracted(file);
+        }
+        final String key = manifest.getKey(file);
+        synchronized (this) {
+            final Entry entry = manifest.entries.get(key);
+            if (entry != null) {
+                entry.scanned = true;
+                return entry.matches(attributes, extractor.getVersion());
+            }
+        }
+        // the meta data is looked up without the lock, so the other threads of the scan do not wait for it
+        final long metaDataLastModified = metaDataService.getMetaDataLastModified(file);
+        if (metaDataLastModified < attributes.lastModifiedTime().toMillis()) {
+            return false;
+        }
+        final Path metaDataPath = metaDataService.getMetaDataPath(file);
+        try {
+            if (!isExtractedFromSize(metaDataPath, attributes.size())) {
+                return false;
+            }
+        } catch (final IOException ex) {
+            LOGGER.warn("Cannot read meta data " + metaDataPath + ": " + ex.getMessage());
+            return false;
+        }
+        synchronized (this) {
+            if (!manifest.entries.containsKey(key)) {
+                manifest.put(key, new Entry(attributes, extractor.getVersion()));
+            }
+        }
+        return true;
+    }
+
+    private boolean isExtractedFromSize(Path metaDataPath, long size) throws IOException {
+        final Long originalSize = MetaData.createFromFile(metaDataPath).getOriginalSize();
+        return originalSize == null || originalSize == size;
+    }
+
+    /**
+     * Remember that a file has been extracted.
+     *
+     * @param file
+     *            the original file. Must not be <code>null</code>.
+     * @param attributes
+     *            the attributes of the file, read before the extraction. Must
+     *            not be <code>null</code>.
+     * @param extractor
+     *            the extractor of the file. Must not be <code>null</code>.
+     * @param hash
+     *            the hash of the content of the file, <code>null</code> if
+     *            unknown.
+     */
+    public synchronized void extracted(Path file, BasicFileAttributes attributes, Extractor extractor,
+            byte[] hash) {
+        final RootManifest manifest = getManifest(file);
+        if (manifest != null) {
+            final Entry entry = new Entry(attributes, extractor.getVersion());
+            entry.hash = hash;
+            manifest.put(manifest.getKey(file), entry);
+        }
+    }
+
+    /**
+     * Find an extracted file with the same content, whose extraction can be
+     * reused. The files of the same size that have not been hashed yet are
+     * hashed now, without blocking the other methods of the manifest.
+     *
+     * @param file
+     *            the file to extract. Must not be <code>null</code>.
+     * @param attributes
+     *            the attributes of the file. Must not be <code>null</code>.
+     * @param hash
+     *            the hash of the content of the file, see {@link #hash(Path)}.
+     *            Must not be <code>null</code>.
+     * @param extractor
+     *            the extractor of the file. Must not be <code>null</code>.
+     * @return the original file with the same content and meta data,
+     *         <code>null</code> if there is none.
+     */
+    public Path findDuplicate(Path file, BasicFileAttributes attributes, byte[] hash, Extractor extractor) {
+        final Path duplicate = findHashed(file, hash, extractor);
+        if (duplicate != null) {
+            return duplicate;
+        }
+        final List<Path> unhashed;
+        synchronized (this) {
+            unhashed = new ArrayList<>(
+                    unhashedFilesBySize.getOrDefault(attributes.size(), Collections.emptySet()));
+        }
+        for (final Path candidate : unhashed) {
+            if (candidate.equals(file) || !extractor.accepts(candidate)) {
+                continue;
+            }
+            final byte[] candidateHash = hashIfUnchanged(candidate);
+            if (candidateHash != null && Arrays.equals(candidateHash, hash)) {
+                final Path hashedDuplicate = findHashed(file, hash, extractor);
+                if (hashedDuplicate != null) {
+                    return hashedDuplicate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hash the content of a file.
+     *
+     * @param file
+     *            the file. Must not be <code>null</code>.
+     * @return the SHA-256 hash. Never <code>null</code>.
+     * @throws IOException
+     *             when the file cannot be read.
+     */
+    public static byte[] hash(Path file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (final NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(HASH_ALGORITHM + " is not available", ex);
+        }
+        final byte[] buffer = new byte[65536];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return digest.digest();
+    }
+
+    // the candidates are collected with the lock held, their meta data is looked up without it
+    private Path findHashed(Path file, byte[] hash, Extractor extractor) {
+        final List<Path> candidates = new ArrayList<>();
+        synchronized (this) {
+            for (final Path candidate : filesByHash.getOrDefault(ByteBuffer.wrap(hash), Collections.emptySet())) {
+                final Entry entry = getEntry(candidate);
+                if (!candidate.equals(file) && entry != null && entry.version == extractor.getVersion()
+                        && extractor.accepts(candidate)) {
+                    candidates.add(candidate);
+                }
+            }
+        }
+        for (final Path candidate : candidates) {
+            if (metaDataService.isAlreadyExtracted(candidate)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    // hashes a file without holding the lock and records the hash, if the file has not changed since it has been
+    // recorded, null if it has changed or cannot be read
+    private byte[] hashIfUnchanged(Path file) {
+        final BasicFileAttributes attributes;
+        final byte[] hash;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            hash = hash(file);
+        } catch (final IOException ex) {
+            LOGGER.debug("Cannot hash " + file + ": " + ex.getMessage());
+            return null;
+        }
+        synchronized (this) {
+            final Entry entry = getEntry(file);
+            if (entry == null || !entry.matches(attributes, entry.version)) {
+                return null;
+            }
+            if (entry.hash == null) {
+                unindex(file, entry);
+                entry.hash = hash;
+                index(file, entry);
+                getManifest(file).dirty = true;
+            }
+            return entry.hash;
+        }
+    }
+
+    /**
+     * Start a complete scan of the document paths. Files that are not checked
+     * with {@link #isUpToDate(Path, BasicFileAttributes, Extractor)} until
+     * {@link #finishScan(Collection)} are dropped from the manifest.
+     *
+     * The files of a document path that cannot be listed at the start or the
+     * end of the scan are kept, as well as those of a document path that is
+     * empty then, e.g. an unmounted share.
+     */
+    public synchronized void startScan() {
+        for (final RootManifest manifest : manifests) {
+            manifest.available = isAvailable(manifest);
+            manifest.entries.values().forEach(entry -> entry.scanned = false);
+        }
+    }
+
+    /**
+     * Finish a complete scan, see {@link #startScan()}.
+     *
+     * @param failedPaths
+     *            the directories and files that could not be read by the scan.
+     *            The files below them are kept. Must not be <code>null</code>.
+     */
+    public synchronized void finishScan(Collection<Path> failedPaths) {
+        for (final RootManifest manifest : manifests) {
+            if (!manifest.available || !isAvailable(manifest)) {
+                LOGGER.warn("Document path " + manifest.root + " has not been available during the scan. "
+                        + "Keeping its scan manifest.");
+                continue;
+            }
+            final Iterator<Map.Entry<String, Entry>> entries = manifest.entries.entrySet().iterator();
+            while (entries.hasNext()) {
+                final Map.Entry<String, Entry> entry = entries.next();
+                final Path file = manifest.root.resolve(entry.getKey());
+                if (!entry.getValue().scanned && failedPaths.stream().noneMatch(file::startsWith)) {
+                    entries.remove();
+                    unindex(file, entry.getValue());
+                    manifest.dirty = true;
+                }
+            }
+        }
+    }
+
+    // a document path that cannot be listed, or that is empty although files have been extracted from it, e.g. an
+    // unmounted share, is not available
+    private boolean isAvailable(RootManifest manifest) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(manifest.root)) {
+            return stream.iterator().hasNext() || manifest.entries.isEmpty();
+        } catch (final IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Write the changed manifests.
+     */
+    public synchronized void persist() {
+        for (final RootManifest manifest : manifests) {
+            if (!manifest.dirty) {
+                continue;
+            }
+            final Path manifestFile = manifest.getFile();
+            final Path tempFile = Paths.get(manifestFile + ".tmp");
+            try {
+                Files.createDirectories(manifestFile.getParent());
+                try (DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                    manifest.write(out);
+                }
+                Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                manifest.dirty = false;
+            } catch (final IOException ex) {
+                LOGGER.error("Cannot write scan manifest " + manifestFile, ex);
+            }
+        }
+    }
+
+    @Override
+    public void metaDataSaved(MetaData metaData) {
+        // the attributes of the original file are recorded by the scan
+    }
+
+    @Override
+    public synchronized void metaDataDeleted(Path originalFilePath) {
+        final RootManifest manifest = getManifest(originalFilePath);
+        if (manifest != null) {
+            manifest.remove(manifest.getKey(originalFilePath));
+        }
+    }
+
+    // must be called with the lock held
+    private Entry getEntry(Path file) {
+        final RootManifest manifest = getManifest(file);
+        return manifest == null ? null : manifest.entries.get(manifest.getKey(file));
+    }
+
+    // must be called with the lock held, like unindex
+    private void index(Path file, Entry entry) {
+        if (entry.hash != null) {
+            filesByHash.computeIfAbsent(ByteBuffer.wrap(entry.hash), hash -> new HashSet<>()).add(file);
+        } else {
+            unhashedFilesBySize.computeIfAbsent(entry.size, size -> new HashSet<>()).add(file);
+        }
+    }
+
+    private void unindex(Path file, Entry entry) {
+        if (entry.hash != null) {
+            removeFromIndex(filesByHash, ByteBuffer.wrap(entry.hash), file);
+        } else {
+            removeFromIndex(unhashedFilesBySize, entry.size, file);
+        }
+    }
+
+    private <K> void removeFromIndex(Map<K, Set<Path>> index, K key, Path file) {
+        final Set<Path> files = index.get(key);
+        if (files != null && files.remove(file) && files.isEmpty()) {
+            index.remove(key);
+        }
+    }
+
+    // the manifests are not changed after loading, so no lock is needed
+    private RootManifest getManifest(Path file) {
+        for (final RootManifest manifest : manifests) {
+            if (file.startsWith(manifest.root)) {
+                return manifest;
+            }
+        }
+        return null;
+    }
+
+    private class RootManifest {
+
+        private final Path root;
+
+        private final Map<String, Entry> entries = new HashMap<>();
+
+        private boolean dirty = false;
+
+        // whether the document path has been available at the start of the current complete scan
+        private boolean available = true;
+
+        RootManifest(Path root) {
+            this.root = root;
+        }
+
+        Path getFile() {
+            return Paths.get(manifestDirectory,
+                    "scan-" + Integer.toHexString(root.toAbsolutePath().toString().hashCode()) + ".bin");
+        }
+
+        String getKey(Path file) {
+            return root.relativize(file).toString();
+        }
+
+        void put(String key, Entry entry) {
+            entry.scanned = true;
+            final Path file = root.resolve(key);
+            final Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                unindex(file, previous);
+            }
+            index(file, entry);
+            dirty = true;
+        }
+
+        void remove(String key) {
+            final Entry entry = entries.remove(key);
+            if (entry != null) {
+                unindex(root.resolve(key), entry);
+                dirty = true;
+            }
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(root.toAbsolutePath().toString());
+            out.writeInt(entries.size());
+            String previous = "";
+            for (final Map.Entry<String, Entry> entry : new TreeMap<>(entries).entrySet()) {
+                final String key = entry.getKey();
+                final int shared = sharedPrefixLength(previous, key);
+                out.writeShort(shared);
+                out.writeUTF(key.substring(shared));
+                out.writeLong(entry.getValue().size);
+                out.writeLong(entry.getValue().lastModified);
+                out.writeInt(entry.getValue().version);
+                final byte[] hash = entry.getValue().hash;
+                out.writeByte(hash == null ? 0 : hash.length);
+                if (hash != null) {
+                    out.write(hash);
+                }
+                previous = key;
+            }
+        }
+
+        void read(DataInputStream in) throws IOException {
+            final int version = in.readInt();
+            if (version < 1 || version > FORMAT_VERSION) {
+                throw new IOException("Unsupported scan manifest format version " + version);
+            }
+            final String storedRoot = in.readUTF();
+            if (!storedRoot.equals(root.toAbsolutePath().toString())) {
+                throw new IOException("Scan manifest belongs to " + storedRoot);
+            }
+            final int size = in.readInt();
+            String previous = "";
+            for (int i = 0; i < size; i++) {
+                final int shared = in.readUnsignedShort();
+                final String key = previous.substring(0, shared) + in.readUTF();
+                final Entry entry = new Entry(in.readLong(), in.readLong(), in.readInt());
+                // version 1 has no hashes
+                final int hashLength = version >= 2 ? in.readUnsignedByte() : 0;
+                if (hashLength > 0) {
+                    entry.hash = new byte[hashLength];
+                    in.readFully(entry.hash);
+                }
+                entries.put(key, entry);
+                previous = key;
+            }
+        }
+
+        private int sharedPrefixLength(String a, String b) {
+            final int max = Math.min(Math.min(a.length(), b.length()), 0xffff);
+            int length = 0;
+            while (length < max && a.charAt(length) == b.charAt(length)) {
+                length++;
+            }
+            return length;
+        }
+    }
+
+    private static class Entry {
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final int version;
+
+        // the hash of the content, null if not known yet
+        private byte[] hash;
+
+        // whether the file has been seen by the current complete scan
+        private boolean scanned = true;
+
+        Entry(BasicFileAttributes attributes, int version) {
+            this(attributes.size(), attributes.lastModifiedTime().toMillis(), version);
+        }
+
+        Entry(long size, long lastModified, int version) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.version = version;
+        }
+
+        boolean matches(BasicFileAttributes attributes, int currentVersion) {
+            return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis()
+                    && version == currentVersion;
+        }
+    }
+
+}
@@ -14,12 +14,20 @@ public interface Extractor {
     String getIdentifier();
 
     /**
-     * Run extraction with the given path.
+     * Get the version of the extraction. Increase it whenever the extraction
+     * changes, so all files are extracted again.
+     */
+    int getVersion();
+
+    /**
+     * Run extraction with the given path. When the file has been extracted
+     * before, the title and the tags of its meta data are kept.
      *
      * @param path
      *            the path to run the extraction for (must not be <code>null</code>)
+     * @return true, if the meta data has been written.
      */
-    void extract(Path path);
+    boolean extract(Path path);
 
     /**
      * See whether the extractor accepts the path for extraction.
@@ -28,21 +28,27 @@ public class HTMLExtractor implements Extractor {
     }
 
     @Override
-    public void extract(Path path) {
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    public boolean extract(Path path) {
 
         final Path metaDataPath = metaDataService.getMetaDataPath(path);
 
         LOGGER.info("Extracting " + path);
 
-        final MetaData metaData = new MetaData();
-        metaData.setTitle(path.getFileName().toString());
+        final MetaData metaData = metaDataService.createMetaData(path);
         metaDataPath.getParent().toFile().mkdirs();
         try {
             metaData.setText(new String(Files.readAllBytes(path), "UTF-8"));
-            metaData.saveToFile(metaDataPath);
+            metaDataService.save(metaData, metaDataPath);
+            return true;
         } catch (final IOException ex) {
             LOGGER.error("Could not extract " + path, ex);
         }
+        return false;
     }
 
     @Override
@@ -60,6 +60,11 @@ public class PDFTextExtractor implements Extractor {
         return "PDF";
     }
 
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
     @Override
     public boolean accepts(Path path) {
         return path.getFileName().toString().toLowerCase().endsWith(".pdf");
@@ -72,15 +77,16 @@ public class PDFTextExtractor implements Extractor {
      *            the path to the pdf document.
      */
     @Override
-    public void extract(Path path) {
+    public boolean extract(Path path) {
         LOGGER.info("Extracting " + path);
         try {
-            final MetaData metaData = new MetaData();
-            metaData.setTitle(path.getFileName().toString());
+            final MetaData metaData = metaDataService.createMetaData(path);
             metaData.setFilePath(path);
 
             final Path metaDataPath = metaDataService.getMetaDataPathPrefix(path);
             metaDataPath.getParent().toFile().mkdirs();
+            // the page texts of a previous version of the file
+            metaDataService.deletePageTexts(path);
 
             try (PDDocument doc = PDDocument.load(new FileInputStream(path.toFile()))) {
                 final PDFTextStripper stripper = new PDFTextStripper();
@@ -97,10 +103,12 @@ public class PDFTextExtractor implements Extractor {
             }
             final Path metaDataJsonPath = metaDataService.getMetaDataPath(path);
             LOGGER.info("Writing meta data: " + metaDataJsonPath);
-            metaData.saveToFile(metaDataJsonPath);
+            metaDataService.save(metaData, metaDataJsonPath);
+            return true;
         } catch (final Exception ex) {
             LOGGER.error("Could not extract file " + path, ex);
         }
+        return false;
     }
 
     private void iteratePages(PDDocument doc, Path metaDataPath, MetaData metaData) {
@@ -0,0 +1,60 @@
+package de.scyv.scarchive.server.index;
+
+/**
+ * Okapi BM25 relevance scoring.
+ */
+final class Bm25 {
+
+    private static final float K1 = 1.2f;
+
+    private static final float B = 0.75f;
+
+    private Bm25() {
+    }
+
+    /**
+     * Inverse document frequency of a term.
+     *
+     * @param documentCount
+     *            the number of documents in the index.
+     * @param documentFrequency
+     *            the number of documents containing the term.
+     * @return the idf, always positive.
+     */
+    static float idf(int documentCount, int documentFrequency) {
+        return (float) Math.log(1 + (documentCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    /**
+     * Score a term of a length normalized field (the text).
+     *
+     * @param idf
+     *            see {@link #idf(int, int)}.
+     * @param frequency
+     *            occurrences of the term in the field of the document.
+     * @param length
+     *            number of terms in the field of the document.
+     * @param averageLength
+     *            average number of terms in the field over all documents.
+     * @return the score.
+     */
+    static float score(float idf, int frequency, int length, float averageLength) {
+        final float norm = averageLength > 0 ? 1 - B + B * length / averageLength : 1;
+        return idf * frequency * (K1 + 1) / (frequency + K1 * norm);
+    }
+
+    /**
+     * Score a term of a short field (title or tags), without length
+     * normalization.
+     *
+     * @param idf
+     *            see {@link #idf(int, int)}.
+     * @param frequency
+     *            occurrences of the term in the field of the document.
+     * @return the score.
+     */
+    static float score(float idf, int frequency) {
+        return idf * frequency * (K1 + 1) / (frequency + K1);
+    }
+
+}
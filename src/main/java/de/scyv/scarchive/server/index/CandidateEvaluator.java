@@ -0,0 +1,220 @@
+package de.scyv.scarchive.server.index;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import de.scyv.scarchive.server.search.query.BooleanQuery;
+import de.scyv.scarchive.server.search.query.DateRangeQuery;
+import de.scyv.scarchive.server.search.query.FieldQuery;
+import de.scyv.scarchive.server.search.query.FuzzyQuery;
+import de.scyv.scarchive.server.search.query.NotQuery;
+import de.scyv.scarchive.server.search.query.PhraseQuery;
+import de.scyv.scarchive.server.search.query.Query;
+import de.scyv.scarchive.server.search.query.QueryVisitor;
+import de.scyv.scarchive.server.search.query.TermQuery;
+
+/**
+ * Evaluates a query to the set of candidate document ids of a {@link Segment}.
+ *
+ * Tag queries are answered exactly from the {@link TagFacets}, date queries
+ * from the {@link TimeIndex}es and the other field queries from the document
+ * table. Fuzzy terms are matched against the {@link TermDictionary} and
+ * answered exactly from the postings of the matching terms. Terms
+ * and phrases are folded (see {@link TextAnalyzer#foldText(String)}) and looked
+ * up in the {@link TrigramIndex}, which yields a superset of the matching
+ * documents. A result that contains such a superset is
+ * not exact and its documents have to be verified. A negated superset cannot
+ * exclude anything, so it evaluates to all documents.
+ *
+ * Not thread safe, the {@link SearchIndex} takes care of locking.
+ */
+class CandidateEvaluator implements QueryVisitor<CandidateEvaluator.Candidates> {
+
+    /**
+     * Result of the evaluation.
+     */
+    static class Candidates {
+
+        private final BitSet ids;
+
+        private final boolean exact;
+
+        Candidates(BitSet ids, boolean exact) {
+            this.ids = ids;
+            this.exact = exact;
+        }
+
+        BitSet getIds() {
+            return ids;
+        }
+
+        boolean isExact() {
+            return exact;
+        }
+    }
+
+    private final TrigramIndex trigramIndex;
+
+    private final TagFacets tagFacets;
+
+    private final TimeIndex updateTimes;
+
+    private final TimeIndex ingestTimes;
+
+    private final List<IndexedDocument> documents;
+
+    private final Map<String, PostingList> postings;
+
+    private final TermDictionary termDictionary;
+
+    private final TextAnalyzer analyzer;
+
+    private final BitSet allDocuments = new BitSet();
+
+    /**
+     * Create instance.
+     *
+     * @param trigramIndex
+     *            the trigram index. Must not be <code>null</code>.
+     * @param tagFacets
+     *            the tag facets. Must not be <code>null</code>.
+     * @param updateTimes
+     *            the documents by the last update. Must not be <code>null</code>.
+     * @param ingestTimes
+     *            the documents by the time they have been added. Must not be
+     *            <code>null</code>.
+     * @param documents
+     *            the document table, by id. Must not be <code>null</code>.
+     * @param deleted
+     *            the ids of the removed documents. Must not be
+     *            <code>null</code>.
+     * @param postings
+     *            the postings by (prefixed) term. Must not be <code>null</code>.
+     * @param termDictionary
+     *            the dictionary of the terms of the postings. Must not be
+     *            <code>null</code>.
+     * @param analyzer
+     *            the analyzer that folds the texts for substring matching. Must
+     *            not be <code>null</code>.
+     */
+    CandidateEvaluator(TrigramIndex trigramIndex, TagFacets tagFacets, TimeIndex updateTimes, TimeIndex ingestTimes,
+            List<IndexedDocument> documents, BitSet deleted, Map<String, PostingList> postings,
+            TermDictionary termDictionary, TextAnalyzer analyzer) {
+        this.trigramIndex = trigramIndex;
+        this.tagFacets = tagFacets;
+        this.updateTimes = updateTimes;
+        this.ingestTimes = ingestTimes;
+        this.documents = documents;
+        this.postings = postings;
+        this.termDictionary = termDictionary;
+        this.analyzer = analyzer;
+        allDocuments.set(0, documents.size());
+        allDocuments.andNot(deleted);
+    }
+
+    @Override
+    public Candidates visit(TermQuery query) {
+        return new Candidates(trigramCandidates(query.getText()), false);
+    }
+
+    @Override
+    public Candidates visit(PhraseQuery query) {
+        return new Candidates(trigramCandidates(query.getText()), false);
+    }
+
+    @Override
+    public Candidates visit(FuzzyQuery query) {
+        final BitSet ids = new BitSet();
+        for (final String term : termDictionary.match(query).keySet()) {
+            for (final String field : SearchIndex.FIELD_PREFIXES) {
+                final PostingList termPostings = postings.get(field + term);
+                if (termPostings != null) {
+                    termPostings.addDocumentIdsTo(ids);
+                }
+            }
+        }
+        ids.and(allDocuments);
+        return new Candidates(ids, true);
+    }
+
+    @Override
+    public Candidates visit(FieldQuery query) {
+        if (query.getField() == FieldQuery.Field.TAG) {
+            final BitSet ids = tagFacets.documents(query.getValue());
+            ids.and(allDocuments);
+            return new Candidates(ids, true);
+        }
+        final BitSet ids = new BitSet();
+        final String value = analyzer.foldText(query.getValue());
+        for (int id = allDocuments.nextSetBit(0); id >= 0; id = allDocuments.nextSetBit(id + 1)) {
+            if (matches(documents.get(id), query.getField(), value)) {
+                ids.set(id);
+            }
+        }
+        return new Candidates(ids, true);
+    }
+
+    @Override
+    public Candidates visit(DateRangeQuery query) {
+        final TimeIndex times = query.getField() == DateRangeQuery.Field.ADDED ? ingestTimes : updateTimes;
+        final BitSet ids = times.between(query.getFrom(), query.getTo());
+        ids.and(allDocuments);
+        return new Candidates(ids, true);
+    }
+
+    @Override
+    public Candidates visit(BooleanQuery query) {
+        BitSet ids = null;
+        boolean exact = true;
+        for (final Query clause : query.getClauses()) {
+            final Candidates candidates = clause.accept(this);
+            exact &= candidates.isExact();
+            if (ids == null) {
+                ids = candidates.getIds();
+            } else if (query.getOperator() == BooleanQuery.Operator.AND) {
+                ids.and(candidates.getIds());
+            } else {
+                ids.or(candidates.getIds());
+            }
+        }
+        return new Candidates(ids == null ? new BitSet() : ids, exact);
+    }
+
+    @Override
+    public Candidates visit(NotQuery query) {
+        final Candidates candidates = query.getQuery().accept(this);
+        final BitSet ids = (BitSet) allDocuments.clone();
+        if (candidates.isExact()) {
+            ids.andNot(candidates.getIds());
+        }
+        return new Candidates(ids, candidates.isExact());
+    }
+
+    private BitSet trigramCandidates(String text) {
+        final BitSet ids = new BitSet();
+        final String folded = analyzer.foldText(text);
+        if (folded.isEmpty()) {
+            // folded away completely, e.g. a combining mark, like the empty search string found everywhere
+            ids.or(allDocuments);
+            return ids;
+        }
+        for (final int id : trigramIndex.candidates(folded)) {
+            ids.set(id);
+        }
+        ids.and(allDocuments);
+        return ids;
+    }
+
+    private boolean matches(IndexedDocument document, FieldQuery.Field field, String foldedValue) {
+        switch (field) {
+        case TITLE:
+            return analyzer.foldText(document.getTitle()).contains(foldedValue);
+        case PATH:
+            return analyzer.foldText(document.getOriginalFilePath()).contains(foldedValue);
+        default:
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,252 @@
+package de.scyv.scarchive.server.index;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compressed, ascending set of document ids.
+ *
+ * The ids are stored as deltas in a {@link VarIntArray}, in blocks of
+ * {@link #BLOCK_SIZE}. The first id of each block and the position of its
+ * deltas are kept aside, so a {@link Cursor} can skip whole blocks without
+ * decoding them. Intersections and unions work on the compressed ids.
+ *
+ * Not thread safe, the {@link SearchIndex} takes care of locking.
+ */
+class DocumentIds {
+
+    /** The number of ids per block. */
+    static final int BLOCK_SIZE = 128;
+
+    private final VarIntArray deltas = new VarIntArray();
+
+    private int[] blockFirstIds = new int[1];
+
+    private int[] blockPositions = new int[1];
+
+    private int size = 0;
+
+    private int lastId = -1;
+
+    /**
+     * Add an id. Ids must be added in ascending order, an id that equals the
+     * last one is ignored.
+     *
+     * @param id
+     *            the document id.
+     */
+    void add(int id) {
+        if (id <= lastId) {
+            return;
+        }
+        if (size % BLOCK_SIZE == 0) {
+            final int block = size / BLOCK_SIZE;
+            if (block == blockFirstIds.length) {
+                blockFirstIds = Arrays.copyOf(blockFirstIds, block * 2);
+                blockPositions = Arrays.copyOf(blockPositions, block * 2);
+            }
+            blockFirstIds[block] = id;
+            blockPositions[block] = deltas.length();
+        } else {
+            deltas.add(id - lastId);
+        }
+        lastId = id;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Add all ids to a bit set, i.e. build the union.
+     *
+     * @param ids
+     *            the bit set. Must not be <code>null</code>.
+     */
+    void addTo(BitSet ids) {
+        final Cursor cursor = cursor();
+        while (cursor.next()) {
+            ids.set(cursor.id());
+        }
+    }
+
+    /**
+     * Intersect sets of ids. The smallest set is walked, the others are
+     * advanced to its ids block-wise.
+     *
+     * @param sets
+     *            the sets to intersect, at least one. Must not be
+     *            <code>null</code>.
+     * @return the ascending ids that are in all sets. Never <code>null</code>.
+     */
+    static int[] intersect(List<DocumentIds> sets) {
+        final List<DocumentIds> sorted = new ArrayList<>(sets);
+        sorted.sort(Comparator.comparingInt(DocumentIds::size));
+        final Cursor[] cursors = new Cursor[sorted.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = sorted.get(i).cursor();
+        }
+        final int[] result = new int[sorted.get(0).size()];
+        int count = 0;
+        candidates: while (cursors[0].next()) {
+            final int id = cursors[0].id();
+            for (int i = 1; i < cursors.length; i++) {
+                if (!cursors[i].advance(id)) {
+                    break candidates;
+                }
+                if (cursors[i].id() != id) {
+                    continue candidates;
+                }
+            }
+            result[count++] = id;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Add the ids of another set, mapped to new ones. Removed documents are
+     * dropped. The mapping must keep the order of the ids and map them above
+     * the ids of this set.
+     *
+     * @param other
+     *            the set to add. Must not be <code>null</code>.
+     * @param newIds
+     *            the new id by id of the other set, -1 for removed documents.
+     *            Must not be <code>null</code>.
+     */
+    void addAll(DocumentIds other, int[] newIds) {
+        final Cursor cursor = other.cursor();
+        while (cursor.next()) {
+            final int newId = newIds[cursor.id()];
+            if (newId >= 0) {
+                add(newId);
+            }
+        }
+    }
+
+    /**
+     * Release the memory reserved for ids to come.
+     */
+    void trim() {
+        deltas.trim();
+        final int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        blockFirstIds = Arrays.copyOf(blockFirstIds, Math.max(1, blocks));
+        blockPositions = Arrays.copyOf(blockPositions, Math.max(1, blocks));
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(lastId);
+        final int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        for (int block = 0; block < blocks; block++) {
+            out.writeInt(blockFirstIds[block]);
+            out.writeInt(blockPositions[block]);
+        }
+        deltas.write(out);
+    }
+
+    void read(DataInputStream in) throws IOException {
+        size = in.readInt();
+        lastId = in.readInt();
+        final int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        blockFirstIds = new int[Math.max(1, blocks)];
+        blockPositions = new int[Math.max(1, blocks)];
+        for (int block = 0; block < blocks; block++) {
+            blockFirstIds[block] = in.readInt();
+            blockPositions[block] = in.readInt();
+        }
+        deltas.read(in);
+    }
+
+    /**
+     * Walks the ids in ascending order. Initially positioned before the first
+     * id.
+     */
+    class Cursor {
+
+        private int index = -1;
+
+        private int position;
+
+        private int id = -1;
+
+        /**
+         * Move to the next id.
+         *
+         * @return true, if there is one.
+         */
+        boolean next() {
+            if (index + 1 >= size) {
+                index = size;
+                return false;
+            }
+            index++;
+            if (index % BLOCK_SIZE == 0) {
+                id = blockFirstIds[index / BLOCK_SIZE];
+                position = blockPositions[index / BLOCK_SIZE];
+            } else {
+                final int delta = deltas.get(position);
+                position += VarIntArray.size(delta);
+                id += delta;
+            }
+            return true;
+        }
+
+        /**
+         * Move to the first id that is greater than or equal to a target,
+         * skipping the blocks before it.
+         *
+         * @param target
+         *            the target id.
+         * @return true, if there is such an id.
+         */
+        boolean advance(int target) {
+            if (index >= 0 && index < size && id >= target) {
+                return true;
+            }
+            final int block = lastBlockStartingAtOrBefore(target);
+            if (block > (index < 0 ? -1 : index / BLOCK_SIZE)) {
+                // continue with the block that may contain the target
+                index = block * BLOCK_SIZE - 1;
+            }
+            while (next()) {
+                if (id >= target) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int id() {
+            return id;
+        }
+
+        private int lastBlockStartingAtOrBefore(int target) {
+            int low = 0;
+            int high = (size + BLOCK_SIZE - 1) / BLOCK_SIZE - 1;
+            int result = 0;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                if (blockFirstIds[middle] <= target) {
+                    result = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package de.scyv.scarchive.server.index;
+
+/**
+ * Occurrence of a searched term within the text of a page of a document.
+ *
+ * Page 0 stands for the text of the meta data, pages 1..n for the extracted
+ * page texts.
+ */
+public class Hit {
+
+    private final int page;
+
+    private final int offset;
+
+    private final int length;
+
+    /**
+     * Create instance.
+     *
+     * @param page
+     *            the page.
+     * @param offset
+     *            the character offset within the text of the page.
+     * @param length
+     *            the amount of characters.
+     */
+    public Hit(int page, int offset, int length) {
+        this.page = page;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+}
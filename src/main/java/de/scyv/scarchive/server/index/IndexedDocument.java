@@ -0,0 +1,128 @@
+package de.scyv.scarchive.server.index;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * A document known to the {@link SearchIndex}.
+ */
+public class IndexedDocument {
+
+    private final int id;
+
+    // shared by the documents of a directory, see PathTable
+    private final String directory;
+
+    private final String fileName;
+
+    private final long lastModified;
+
+    private final long ingested;
+
+    private final String title;
+
+    private final List<String> tags;
+
+    private final int[] pages;
+
+    private final int length;
+
+    /**
+     * Create instance.
+     *
+     * @param id
+     *            the id of the document within its segment.
+     * @param directory
+     *            the directory of the original file, including the trailing
+     *            separator (see {@link PathTable#directory(String)}). Must not
+     *            be <code>null</code>.
+     * @param fileName
+     *            the file name of the original file. Must not be
+     *            <code>null</code>.
+     * @param lastModified
+     *            modification time (millis) of the meta data file that has been
+     *            indexed.
+     * @param ingested
+     *            time (millis) when the document has been added to the archive.
+     * @param title
+     *            the normalized title (see {@link Normalizer#normalize(String)}).
+     *            Must not be <code>null</code>.
+     * @param tags
+     *            the normalized tags. Must not be <code>null</code>.
+     * @param pages
+     *            the numbers of the pages that have a page text file, ascending.
+     *            Must not be <code>null</code>.
+     * @param length
+     *            the number of terms in the text of the meta data and the page
+     *            texts.
+     */
+    public IndexedDocument(int id, String directory, String fileName, long lastModified, long ingested,
+            String title, List<String> tags, int[] pages, int length) {
+        this.id = id;
+        this.directory = directory;
+        this.fileName = fileName;
+        this.lastModified = lastModified;
+        this.ingested = ingested;
+        this.title = title;
+        this.tags = tags;
+        this.pages = pages;
+        this.length = length;
+    }
+
+    /**
+     * Create a copy of the document with another id.
+     *
+     * @param newId
+     *            the id of the copy.
+     * @return the copy, never <code>null</code>.
+     */
+    public IndexedDocument withId(int newId) {
+        return new IndexedDocument(newId, directory, fileName, lastModified, ingested, title, tags, pages, length);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getOriginalFilePath() {
+        return directory + fileName;
+    }
+
+    public Path getOriginalPath() {
+        return Paths.get(getOriginalFilePath());
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getIngested() {
+        return ingested;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public int[] getPages() {
+        return pages;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+}
@@ -0,0 +1,103 @@
+package de.scyv.scarchive.server.index;
+
+import java.util.Arrays;
+
+/**
+ * Automaton that accepts all strings within a maximum edit (Levenshtein)
+ * distance of a word.
+ *
+ * A state is a row of the edit distance matrix (the distances of the prefixes
+ * of the word to the input read so far), capped at <code>maxEdits + 1</code>.
+ * Since the automaton can tell when a state cannot lead to a match anymore, it
+ * can be run along a sorted term dictionary and skip all terms that share a
+ * hopeless prefix (see {@link TermDictionary}).
+ */
+public class LevenshteinAutomaton {
+
+    private final String word;
+
+    private final int maxEdits;
+
+    /**
+     * Create instance.
+     *
+     * @param word
+     *            the word to match. Must not be <code>null</code>.
+     * @param maxEdits
+     *            the maximum distance.
+     */
+    public LevenshteinAutomaton(String word, int maxEdits) {
+        this.word = word;
+        this.maxEdits = maxEdits;
+    }
+
+    /**
+     * Get the state before any input has been read.
+     *
+     * @return the state, never <code>null</code>.
+     */
+    int[] start() {
+        final int[] state = new int[word.length() + 1];
+        for (int i = 0; i < state.length; i++) {
+            state[i] = Math.min(i, maxEdits + 1);
+        }
+        return state;
+    }
+
+    /**
+     * Read a character.
+     *
+     * @param state
+     *            the current state. Must not be <code>null</code>.
+     * @param c
+     *            the character.
+     * @return the next state, never <code>null</code>.
+     */
+    int[] step(int[] state, char c) {
+        final int[] next = new int[state.length];
+        next[0] = Math.min(state[0] + 1, maxEdits + 1);
+        for (int i = 1; i < state.length; i++) {
+            final int replace = state[i - 1] + (word.charAt(i - 1) == c ? 0 : 1);
+            next[i] = Math.min(Math.min(replace, state[i] + 1), Math.min(next[i - 1] + 1, maxEdits + 1));
+        }
+        return next;
+    }
+
+    /**
+     * Whether the input read so far is within the maximum distance.
+     */
+    boolean isMatch(int[] state) {
+        return state[state.length - 1] <= maxEdits;
+    }
+
+    /**
+     * Whether any continuation of the input read so far can be within the
+     * maximum distance.
+     */
+    boolean canMatch(int[] state) {
+        return Arrays.stream(state).min().getAsInt() <= maxEdits;
+    }
+
+    /**
+     * Get the distance of the input read so far, if it is a match.
+     */
+    int distance(int[] state) {
+        return state[state.length - 1];
+    }
+
+    /**
+     * Get the distance of a term to the word.
+     *
+     * @param term
+     *            the term. Must not be <code>null</code>.
+     * @return the distance or -1, if it is larger than the maximum distance.
+     */
+    public int distance(String term) {
+        int[] state = start();
+        for (int i = 0; i < term.length() && canMatch(state); i++) {
+            state = step(state, term.charAt(i));
+        }
+        return canMatch(state) && isMatch(state) ? distance(state) : -1;
+    }
+
+}
@@ -0,0 +1,36 @@
+package de.scyv.scarchive.server.index;
+
+/**
+ * Normalization of texts and search strings for substring matching.
+ *
+ * Meta data fields are matched case insensitive. Page texts are OCR output,
+ * so whitespace is dropped in addition: "Rech nung" still matches "rechnung".
+ */
+public final class Normalizer {
+
+    private Normalizer() {
+    }
+
+    /**
+     * Normalize a meta data field or a search string.
+     *
+     * @param text
+     *            the text. May be <code>null</code>.
+     * @return the lower case text, an empty string for <code>null</code>.
+     */
+    public static String normalize(String text) {
+        return text == null ? "" : text.toLowerCase();
+    }
+
+    /**
+     * Normalize (a line of) a page text.
+     *
+     * @param text
+     *            the text. Must not be <code>null</code>.
+     * @return the lower case text without any whitespace.
+     */
+    public static String normalizePageText(String text) {
+        return text.replaceAll("\\s", "").toLowerCase();
+    }
+
+}
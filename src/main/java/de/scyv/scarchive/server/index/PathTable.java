@@ -0,0 +1,136 @@
+package de.scyv.scarchive.server.index;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Compact lookup of document ids by the path of the original file.
+ *
+ * The paths are split into the directory and the file name. Each directory is
+ * stored once and shared by its documents (see
+ * {@link IndexedDocument#getDirectory()}), the file names are stored once per
+ * document and shared with the document table.
+ *
+ * Not thread safe, the {@link SearchIndex} takes care of locking.
+ */
+class PathTable {
+
+    private static class Directory {
+        private final String path;
+        private final Map<String, Integer> documentIds = new HashMap<>();
+
+        private Directory(String path) {
+            this.path = path;
+        }
+    }
+
+    private final Map<String, Directory> directories = new HashMap<>();
+
+    private int size = 0;
+
+    /**
+     * Get the directory of a path, including the trailing separator. The same
+     * instance is returned for all paths in a directory that is in the table.
+     *
+     * @param path
+     *            the path. Must not be <code>null</code>.
+     * @return the directory, empty for a bare file name. Never
+     *         <code>null</code>.
+     */
+    String directory(String path) {
+        final String directory = directoryOf(path);
+        final Directory known = directories.get(directory);
+        return known == null ? directory : known.path;
+    }
+
+    /**
+     * Get the file name of a path.
+     *
+     * @param path
+     *            the path. Must not be <code>null</code>.
+     * @return the file name, never <code>null</code>.
+     */
+    static String fileName(String path) {
+        return path.substring(path.lastIndexOf(File.separatorChar) + 1);
+    }
+
+    /**
+     * Get the id of a document.
+     *
+     * @param path
+     *            the path of the original file. Must not be <code>null</code>.
+     * @return the id or <code>null</code>, if the document is not in the table.
+     */
+    Integer get(String path) {
+        final Directory directory = directories.get(directoryOf(path));
+        return directory == null ? null : directory.documentIds.get(fileName(path));
+    }
+
+    /**
+     * Add a document.
+     *
+     * @param document
+     *            the document, created with the directory from
+     *            {@link #directory(String)}. Must not be <code>null</code>.
+     */
+    void put(IndexedDocument document) {
+        final Directory directory = directories.computeIfAbsent(document.getDirectory(), Directory::new);
+        if (directory.documentIds.put(document.getFileName(), document.getId()) == null) {
+            size++;
+        }
+    }
+
+    /**
+     * Remove a document.
+     *
+     * @param path
+     *            the path of the original file. Must not be <code>null</code>.
+     * @return the id of the removed document or <code>null</code>, if it has not
+     *         been in the table.
+     */
+    Integer remove(String path) {
+        final Directory directory = directories.get(directoryOf(path));
+        if (directory == null) {
+            return null;
+        }
+        final Integer id = directory.documentIds.remove(fileName(path));
+        if (id != null) {
+            size--;
+            if (directory.documentIds.isEmpty()) {
+                directories.remove(directory.path);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Call a consumer with the path of each document.
+     *
+     * @param consumer
+     *            the consumer. Must not be <code>null</code>.
+     */
+    void forEachPath(Consumer<String> consumer) {
+        directories.values().forEach(
+                directory -> directory.documentIds.keySet().forEach(file -> consumer.accept(directory.path + file)));
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        directories.clear();
+        size = 0;
+    }
+
+    private static String directoryOf(String path) {
+        return path.substring(0, path.lastIndexOf(File.separatorChar) + 1);
+    }
+
+}
@@ -0,0 +1,321 @@
+package de.scyv.scarchive.server.index;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Compressed postings of a term: the occurrences of the term per document and
+ * page.
+ *
+ * Page 0 stands for the meta data itself (title, tags and text), pages 1..n for
+ * the extracted page texts. The offsets of the occurrences are known for the
+ * text of the meta data and the page texts, not for the title and the tags.
+ *
+ * A posting is encoded in a {@link VarIntArray} as the delta of its document id
+ * to the previous posting, the page, the frequency, the number of occurrences
+ * and per occurrence the delta of its offset and its length. The length of an
+ * occurrence may differ from the length of the (analyzed) term, see
+ * {@link TextAnalyzer}. The postings are grouped in blocks of
+ * {@link #BLOCK_SIZE}, whose first document id and position are kept aside, so
+ * a {@link Cursor} can skip to a document without decoding the blocks before.
+ *
+ * Not thread safe, the {@link SearchIndex} takes care of locking.
+ */
+class PostingList {
+
+    /** The number of postings per block. */
+    static final int BLOCK_SIZE = 64;
+
+    private static final int[] NO_OFFSETS = new int[0];
+
+    private final VarIntArray data = new VarIntArray();
+
+    private int[] blockFirstIds = new int[1];
+
+    private int[] blockPositions = new int[1];
+
+    private int size = 0;
+
+    private int lastDocumentId = 0;
+
+    /**
+     * Add a posting. Postings must be added in ascending order of the document
+     * id, a document may have several postings (one per page).
+     *
+     * @param documentId
+     *            the id of the document within the index.
+     * @param page
+     *            the page the term occurs on.
+     * @param frequency
+     *            how often the term occurs on the page.
+     * @param offsets
+     *            the ascending character offsets of the occurrences within the
+     *            text of the page, empty if not known. Must not be
+     *            <code>null</code>.
+     * @param lengths
+     *            the lengths of the occurrences, one per offset. Must not be
+     *            <code>null</code>.
+     */
+    void add(int documentId, int page, int frequency, int[] offsets, int[] lengths) {
+        if (size % BLOCK_SIZE == 0) {
+            final int block = size / BLOCK_SIZE;
+            if (block == blockFirstIds.length) {
+                blockFirstIds = Arrays.copyOf(blockFirstIds, block * 2);
+                blockPositions = Arrays.copyOf(blockPositions, block * 2);
+            }
+            blockFirstIds[block] = documentId;
+            blockPositions[block] = data.length();
+            // the first posting of a block is relative to the first id of the block
+            lastDocumentId = documentId;
+        }
+        data.add(documentId - lastDocumentId);
+        data.add(page);
+        data.add(frequency);
+        data.add(offsets.length);
+        int lastOffset = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            data.add(offsets[i] - lastOffset);
+            data.add(lengths[i]);
+            lastOffset = offsets[i];
+        }
+        lastDocumentId = documentId;
+        size++;
+    }
+
+    /**
+     * Get the number of postings.
+     *
+     * @return the number of postings, not of documents.
+     */
+    int size() {
+        return size;
+    }
+
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Add the ids of all documents to a bit set, i.e. build the union.
+     *
+     * @param ids
+     *            the bit set. Must not be <code>null</code>.
+     */
+    void addDocumentIdsTo(BitSet ids) {
+        final Cursor cursor = cursor();
+        while (cursor.next()) {
+            ids.set(cursor.getDocumentId());
+        }
+    }
+
+    /**
+     * Add the postings of another list with the document ids mapped to new
+     * ones. The postings of removed documents are dropped. The mapping must
+     * keep the order of the ids and map them to ids greater than or equal to
+     * the last one of this list.
+     *
+     * @param other
+     *            the postings to add. Must not be <code>null</code>.
+     * @param newIds
+     *            the new id by document id of the other list, -1 for removed
+     *            documents. Must not be <code>null</code>.
+     */
+    void addAll(PostingList other, int[] newIds) {
+        final Cursor cursor = other.cursor();
+        while (cursor.next()) {
+            final int newId = newIds[cursor.getDocumentId()];
+            if (newId >= 0) {
+                add(newId, cursor.getPage(), cursor.getFrequency(), cursor.getOffsets(), cursor.getLengths());
+            }
+        }
+    }
+
+    /**
+     * Release the memory reserved for postings to come.
+     */
+    void trim() {
+        data.trim();
+        final int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        blockFirstIds = Arrays.copyOf(blockFirstIds, Math.max(1, blocks));
+        blockPositions = Arrays.copyOf(blockPositions, Math.max(1, blocks));
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(size);
+        out.writeInt(lastDocumentId);
+        final int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        for (int block = 0; block < blocks; block++) {
+            out.writeInt(blockFirstIds[block]);
+            out.writeInt(blockPositions[block]);
+        }
+        data.write(out);
+    }
+
+    void read(DataInputStream in) throws IOException {
+        size = in.readInt();
+        lastDocumentId = in.readInt();
+        final int blocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        blockFirstIds = new int[Math.max(1, blocks)];
+        blockPositions = new int[Math.max(1, blocks)];
+        for (int block = 0; block < blocks; block++) {
+            blockFirstIds[block] = in.readInt();
+            blockPositions[block] = in.readInt();
+        }
+        data.read(in);
+    }
+
+    /**
+     * Walks the postings in the order they have been added. Initially
+     * positioned before the first posting.
+     */
+    class Cursor {
+
+        private int index = -1;
+
+        private int position;
+
+        private int documentId;
+
+        private int page;
+
+        private int frequency;
+
+        private int offsetCount;
+
+        private int offsetsPosition;
+
+        /**
+         * Move to the next posting.
+         *
+         * @return true, if there is one.
+         */
+        boolean next() {
+            if (index + 1 >= size) {
+                index = size;
+                return false;
+            }
+            index++;
+            if (index % BLOCK_SIZE == 0) {
+                documentId = blockFirstIds[index / BLOCK_SIZE];
+                position = blockPositions[index / BLOCK_SIZE];
+            }
+            documentId += read();
+            page = read();
+            frequency = read();
+            offsetCount = read();
+            offsetsPosition = position;
+            for (int i = 0; i < offsetCount; i++) {
+                read();
+                read();
+            }
+            return true;
+        }
+
+        /**
+         * Move to the first posting whose document id is greater than or equal
+         * to a target, skipping the blocks before it.
+         *
+         * @param target
+         *            the target document id.
+         * @return true, if there is such a posting.
+         */
+        boolean advance(int target) {
+            if (index >= 0 && index < size && documentId >= target) {
+                return true;
+            }
+            final int block = lastBlockBefore(target);
+            if (block > (index < 0 ? -1 : index / BLOCK_SIZE)) {
+                // continue with the block that may contain the target
+                index = block * BLOCK_SIZE - 1;
+            }
+            while (next()) {
+                if (documentId >= target) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int getDocumentId() {
+            return documentId;
+        }
+
+        int getPage() {
+            return page;
+        }
+
+        int getFrequency() {
+            return frequency;
+        }
+
+        /**
+         * Decode the character offsets of the occurrences.
+         *
+         * @return the ascending offsets, empty if they are not known. Never
+         *         <code>null</code>.
+         */
+        int[] getOffsets() {
+            if (offsetCount == 0) {
+                return NO_OFFSETS;
+            }
+            final int[] offsets = new int[offsetCount];
+            int offsetPosition = offsetsPosition;
+            int offset = 0;
+            for (int i = 0; i < offsetCount; i++) {
+                final int delta = data.get(offsetPosition);
+                offsetPosition += VarIntArray.size(delta);
+                offset += delta;
+                offsets[i] = offset;
+                offsetPosition += VarIntArray.size(data.get(offsetPosition));
+            }
+            return offsets;
+        }
+
+        /**
+         * Decode the lengths of the occurrences.
+         *
+         * @return the lengths in the order of {@link #getOffsets()}. Never
+         *         <code>null</code>.
+         */
+        int[] getLengths() {
+            if (offsetCount == 0) {
+                return NO_OFFSETS;
+            }
+            final int[] lengths = new int[offsetCount];
+            int offsetPosition = offsetsPosition;
+            for (int i = 0; i < offsetCount; i++) {
+                offsetPosition += VarIntArray.size(data.get(offsetPosition));
+                lengths[i] = data.get(offsetPosition);
+                offsetPosition += VarIntArray.size(lengths[i]);
+            }
+            return lengths;
+        }
+
+        private int read() {
+            final int value = data.get(position);
+            position += VarIntArray.size(value);
+            return value;
+        }
+
+        // postings of the target may start in the block before the first one that starts with it
+        private int lastBlockBefore(int target) {
+            int low = 0;
+            int high = (size + BLOCK_SIZE - 1) / BLOCK_SIZE - 1;
+            int result = 0;
+            while (low <= high) {
+                final int middle = (low + high) >>> 1;
+                if (blockFirstIds[middle] < target) {
+                    result = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package de.scyv.scarchive.server.index;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Candidate documents of a query, handed out by descending relevance.
+ *
+ * Ties are broken by recency (modification time of the meta data) and then by
+ * path, so the order is deterministic. The candidates are kept in a binary
+ * heap that is built in linear time; each call to {@link #next()} costs
+ * O(log n). Callers that only need the best K documents stop iterating early
+ * and never pay for sorting the rest.
+ */
+public class RankedCandidates implements Iterator<ScoredDocument> {
+
+    private final ScoredDocument[] heap;
+
+    private final boolean exact;
+
+    private int size;
+
+    /**
+     * Create instance.
+     *
+     * @param candidates
+     *            the scored candidates in any order. Must not be
+     *            <code>null</code>.
+     * @param exact
+     *            whether all candidates are known to match.
+     */
+    public RankedCandidates(List<ScoredDocument> candidates, boolean exact) {
+        this.exact = exact;
+        heap = candidates.toArray(new ScoredDocument[candidates.size()]);
+        size = heap.length;
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * Whether all candidates are known to match the query. Otherwise each
+     * candidate has to be verified against the text of the document.
+     *
+     * @return true, if the candidates need no verification.
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * The number of candidates that have not been handed out yet.
+     *
+     * @return the number of remaining candidates.
+     */
+    public int remaining() {
+        return size;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return size > 0;
+    }
+
+    @Override
+    public ScoredDocument next() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        final ScoredDocument best = heap[0];
+        heap[0] = heap[--size];
+        heap[size] = null;
+        siftDown(0);
+        return best;
+    }
+
+    private void siftDown(int index) {
+        int i = index;
+        while (true) {
+            final int left = 2 * i + 1;
+            final int right = left + 1;
+            int best = i;
+            if (left < size && isBetter(heap[left], heap[best])) {
+                best = left;
+            }
+            if (right < size && isBetter(heap[right], heap[best])) {
+                best = right;
+            }
+            if (best == i) {
+                return;
+            }
+            final ScoredDocument swap = heap[i];
+            heap[i] = heap[best];
+            heap[best] = swap;
+            i = best;
+        }
+    }
+
+    private static boolean isBetter(ScoredDocument a, ScoredDocument b) {
+        if (a.getScore() != b.getScore()) {
+            return a.getScore() > b.getScore();
+        }
+        if (a.getDocument().getLastModified() != b.getDocument().getLastModified()) {
+            return a.getDocument().getLastModified() > b.getDocument().getLastModified();
+        }
+        return a.getDocument().getOriginalFilePath().compareTo(b.getDocument().getOriginalFilePath()) < 0;
+    }
+
+}
@@ -0,0 +1,34 @@
+package de.scyv.scarchive.server.index;
+
+/**
+ * An indexed document together with its relevance for a query.
+ */
+public class ScoredDocument {
+
+    private final IndexedDocument document;
+
+    private final float score;
+
+    /**
+     * Create instance.
+     *
+     * @param document
+     *            the document. Must not be <code>null</code>.
+     * @param score
+     *            the relevance, 0 if none of the query terms occur as a whole
+     *            term in the document.
+     */
+    public ScoredDocument(IndexedDocument document, float score) {
+        this.document = document;
+        this.score = score;
+    }
+
+    public IndexedDocument getDocument() {
+        return document;
+    }
+
+    public float getScore() {
+        return score;
+    }
+
+}
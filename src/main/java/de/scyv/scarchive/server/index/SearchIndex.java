@@ -0,0 +1,1150 @@
+package de.scyv.scarchive.server.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import de.scyv.scarchive.server.MetaData;
+import de.scyv.scarchive.server.MetaDataListener;
+import de.scyv.scarchive.server.MetaDataService;
+import de.scyv.scarchive.server.SCArchive;
+import de.scyv.scarchive.server.ScanListener;
+import de.scyv.scarchive.server.Scheduler;
+import de.scyv.scarchive.server.search.query.FuzzyQuery;
+import de.scyv.scarchive.server.search.query.Query;
+
+/**
+ * Persistent inverted index (term -&gt; document/page postings) over the
+ * extracted meta data and page texts.
+ *
+ * Terms of the title and the tags are indexed with the prefixes
+ * <code>title:</code> and <code>tag:</code>, the terms of the text of the meta
+ * data and the page texts without prefix. The terms are created by the
+ * {@link TextAnalyzer}, so depending on its configuration stop words are left
+ * out and the terms are folded and stemmed. Changing the configuration
+ * rebuilds the index. Next to the terms, the character
+ * trigrams of the documents are indexed. They narrow down the candidates for
+ * substring searches, which are then ranked by BM25 over the terms (see
+ * {@link #rankCandidates(Query)}). The documents that carry a tag are kept in
+ * {@link TagFacets}, so tag queries and tag counts do not need any posting.
+ * Date queries and the newest documents are answered by {@link TimeIndex}es
+ * over the last update and the time a document has been added. Search as you
+ * type is served by a {@link Suggester} that is rebuilt with the refresh, fuzzy
+ * terms are looked up in a {@link TermDictionary} of all terms.
+ *
+ * To keep the memory small, the postings and the trigram index are compressed
+ * (see {@link PostingList} and {@link DocumentIds}) and evaluated without
+ * unpacking them, and the paths of the documents share their directories (see
+ * {@link PathTable}).
+ *
+ * The index consists of immutable {@link Segment}s, searches span all of them.
+ * New documents are buffered in a segment that is sealed and written as a new
+ * segment file with the next flush, i.e. after each scan. The buffer is
+ * searched as well, so a document is found as soon as its meta data has been
+ * saved (e.g. by an extractor), without rewriting or reloading any segment.
+ * Removed documents are only marked as deleted, the deletions of all segments
+ * are kept in a small manifest. So a flush writes only what has changed.
+ * Segments of about the same size are merged in the background, once there
+ * are <code>scarchive.index.mergeFactor</code> of them, which also purges the
+ * deleted documents.
+ *
+ * The index is kept up to date by listening to the {@link MetaDataService}.
+ * Meta data that is written by others (e.g. synchronized from another machine)
+ * is picked up by listening to the scans of the {@link SCArchive}: the meta data
+ * of the files changed in the document paths is checked right after the
+ * changes, all meta data directories only after a complete scan. The index is
+ * stored in <code>scarchive.index.directory</code> and loaded on startup and
+ * written with the {@link Scheduler}.
+ */
+@Service
+public class SearchIndex implements MetaDataListener, ScanListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchIndex.class);
+
+    private static final String MANIFEST_FILE_NAME = "segments.bin";
+
+    private static final String SEGMENT_FILE_PREFIX = "segment-";
+
+    private static final String SEGMENT_FILE_SUFFIX = ".bin";
+
+    // the whole index in one file, written up to format version 7
+    private static final String LEGACY_INDEX_FILE_NAME = "index.bin";
+
+    private static final int FORMAT_VERSION = 10;
+
+    // documents are buffered until the next flush, but not more than these
+    private static final int MAX_BUFFERED_DOCUMENTS = 1000;
+
+    private static final String TITLE_PREFIX = "title:";
+
+    private static final String TAG_PREFIX = "tag:";
+
+    /** The prefixes of the terms of the text, the title and the tags. */
+    static final String[] FIELD_PREFIXES = { "", TITLE_PREFIX, TAG_PREFIX };
+
+    private static final float TITLE_BOOST = 3f;
+
+    private static final float TAG_BOOST = 2f;
+
+    @Value("${scarchive.index.enabled}")
+    private Boolean enabled;
+
+    @Value("${scarchive.index.directory}")
+    private String indexDirectory;
+
+    @Value("${scarchive.index.mergeFactor}")
+    private int mergeFactor;
+
+    @Value("${scarchive.documentPaths}")
+    private String documentPaths;
+
+    private final MetaDataService metaDataService;
+
+    private final TextAnalyzer analyzer;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // sealed segments, oldest first
+    private final List<Segment> segments = new ArrayList<>();
+
+    private final AtomicInteger nextGeneration = new AtomicInteger();
+
+    // takes the new documents until the next flush
+    private Segment buffer = new Segment(nextGeneration.getAndIncrement());
+
+    // segment files and the manifest are written by one thread at a time
+    private final Object commitLock = new Object();
+
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "scarchive-index-merge");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicBoolean mergeScheduled = new AtomicBoolean();
+
+    private final List<MetaDataListener> externalChangeListeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean ready = false;
+
+    private volatile boolean dirty = false;
+
+    private volatile Suggester suggester;
+
+    private volatile boolean suggesterOutdated = true;
+
+    // built on demand, reset whenever a new term is added
+    private volatile TermDictionary termDictionary;
+
+    /**
+     * Create the index.
+     *
+     * @param scheduler
+     *            the scheduler that persists the index periodically.
+     * @param metaDataService
+     *            the service that informs the index about written meta data.
+     * @param scArchive
+     *            the service that informs the index about its scans.
+     * @param analyzer
+     *            the analyzer of the texts.
+     */
+    public SearchIndex(Scheduler scheduler, MetaDataService metaDataService, SCArchive scArchive,
+            TextAnalyzer analyzer) {
+        this.metaDataService = metaDataService;
+        this.analyzer = analyzer;
+        metaDataService.addMetaDataListener(this);
+        scArchive.addScanListener(this);
+
+        scheduler.addRunner(() -> {
+            if (enabled) {
+                updateSuggester();
+                persist();
+            }
+        });
+    }
+
+    /**
+     * Load the index from disk.
+     */
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        deleteLegacyIndex();
+        final Path manifestFile = Paths.get(indexDirectory, MANIFEST_FILE_NAME);
+        if (!Files.exists(manifestFile)) {
+            LOGGER.info("No search index found at " + manifestFile + ". It will be built with the next scan.");
+            return;
+        }
+        lock.writeLock().lock();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifestFile)))) {
+            readManifest(in);
+            ready = true;
+            suggesterOutdated = true;
+            termDictionary = null;
+            LOGGER.info("Loaded search index with " + size() + " documents in " + segments.size() + " segments.");
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot read search index " + manifestFile + ". It will be rebuilt.", ex);
+            clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        deleteUnusedSegmentFiles();
+        updateSuggester();
+        scheduleMerge();
+    }
+
+    /**
+     * Stop merging segments.
+     */
+    @PreDestroy
+    public void close() {
+        merger.shutdownNow();
+    }
+
+    /**
+     * Register a listener that gets informed about meta data that has been
+     * written or removed by others, i.e. not via the {@link MetaDataService}.
+     * Such changes are found by the refreshes, once the index is ready.
+     *
+     * @param listener
+     *            the listener to add. Must not be <code>null</code>.
+     */
+    public void addExternalChangeListener(MetaDataListener listener) {
+        externalChangeListeners.add(listener);
+    }
+
+    /**
+     * Whether the index can answer queries. This is the case once it has been
+     * loaded from disk or built completely.
+     *
+     * @return true, if the index is enabled and ready.
+     */
+    public boolean isReady() {
+        return enabled && ready;
+    }
+
+    /**
+     * Find all documents that may match a query and rank them.
+     *
+     * Text terms and phrases are looked up as substrings of the normalized meta
+     * data (see {@link Normalizer#normalize(String)}) and page texts (see
+     * {@link Normalizer#normalizePageText(String)}), folded like the search
+     * strings (see {@link TextAnalyzer#foldText(String)}). If the query
+     * contains any of them, the candidates are a superset of the matching
+     * documents and have to be verified by the caller (see
+     * {@link RankedCandidates#isExact()}).
+     *
+     * The candidates are ranked by BM25 over the analyzed terms of the search
+     * strings of the query (see {@link Query#getSearchStrings()}), with matches in the
+     * title and the tags boosted. Candidates that contain a search string only
+     * as part of a longer term have a score of 0. Fuzzy terms (see
+     * {@link Query#getFuzzyQueries()}) add the scores of all terms within their
+     * edit distance, the more distant the less.
+     *
+     * @param query
+     *            the query. Must not be <code>null</code>.
+     * @return the candidate documents. Never <code>null</code>.
+     */
+    public RankedCandidates rankCandidates(Query query) {
+        lock.readLock().lock();
+        try {
+            final List<Segment> allSegments = allSegments();
+            final TermDictionary dictionary = getTermDictionary();
+            final Set<String> terms = new HashSet<>();
+            query.getSearchStrings().forEach(searchString -> terms.addAll(analyzer.analyze(searchString)));
+            final Map<IndexedDocument, Float> scores = new HashMap<>();
+            for (final String term : terms) {
+                addScores(allSegments, term, 1f, scores);
+            }
+            for (final FuzzyQuery fuzzyQuery : query.getFuzzyQueries()) {
+                dictionary.match(fuzzyQuery)
+                        .forEach((term, distance) -> addScores(allSegments, term, 1f / (1 + distance), scores));
+            }
+            final List<ScoredDocument> scoredDocuments = new ArrayList<>();
+            boolean exact = true;
+            for (final Segment segment : allSegments) {
+                final CandidateEvaluator.Candidates candidates = query
+                        .accept(segment.createCandidateEvaluator(dictionary, analyzer));
+                exact &= candidates.isExact();
+                final BitSet ids = candidates.getIds();
+                for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+                    final IndexedDocument document = segment.getDocument(id);
+                    final Float score = scores.get(document);
+                    scoredDocuments.add(new ScoredDocument(document, score == null ? 0f : score));
+                }
+            }
+            return new RankedCandidates(scoredDocuments, exact);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the occurrences of the terms of a query within a document, e.g. to
+     * show them in context.
+     *
+     * The hits are the occurrences of the analyzed terms of the search strings
+     * (see {@link Query#getSearchStrings()}) and of the terms that match the
+     * fuzzy queries within the text of the meta data and the page texts, e.g.
+     * "Rechnungen" for "rechnung" with stemming. Search strings that only occur
+     * as part of a longer term or across whitespace have no hits.
+     *
+     * @param originalFilePath
+     *            the original file of the document. Must not be
+     *            <code>null</code>.
+     * @param query
+     *            the query. Must not be <code>null</code>.
+     * @param limit
+     *            the maximum amount of hits.
+     * @return the first hits, ordered by page and offset. Never
+     *         <code>null</code>.
+     */
+    public List<Hit> findHits(Path originalFilePath, Query query, int limit) {
+        lock.readLock().lock();
+        try {
+            final String path = originalFilePath.toString();
+            for (final Segment segment : allSegments()) {
+                final IndexedDocument document = segment.get(path);
+                if (document == null) {
+                    continue;
+                }
+                final Set<String> terms = new HashSet<>();
+                query.getSearchStrings().forEach(searchString -> terms.addAll(analyzer.analyze(searchString)));
+                for (final FuzzyQuery fuzzyQuery : query.getFuzzyQueries()) {
+                    terms.addAll(getTermDictionary().match(fuzzyQuery).keySet());
+                }
+                final List<Hit> hits = new ArrayList<>();
+                for (final String term : terms) {
+                    segment.addHits(document, term, hits);
+                }
+                hits.sort(Comparator.comparingInt(Hit::getPage).thenComparingInt(Hit::getOffset));
+                return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+            }
+            return Collections.emptyList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Count the documents of the whole archive per tag.
+     *
+     * @return amount of documents by normalized tag, sorted by tag. Never
+     *         <code>null</code>.
+     */
+    public Map<String, Integer> countTags() {
+        lock.readLock().lock();
+        try {
+            final Map<String, Integer> counts = new TreeMap<>();
+            allSegments().forEach(segment -> segment.countTags(null)
+                    .forEach((tag, count) -> counts.merge(tag, count, Integer::sum)));
+            return counts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Count the documents that match a query per tag.
+     *
+     * The candidates of the query (see {@link #rankCandidates(Query)}) are
+     * intersected with the tag facets, no document is read. If the candidates
+     * are not exact, e.g. for text terms, the counts are upper bounds.
+     *
+     * @param query
+     *            the query. Must not be <code>null</code>.
+     * @return amount of documents by normalized tag. Never <code>null</code>.
+     */
+    public TagCounts countTags(Query query) {
+        lock.readLock().lock();
+        try {
+            final TermDictionary dictionary = getTermDictionary();
+            final Map<String, Integer> counts = new TreeMap<>();
+            boolean exact = true;
+            for (final Segment segment : allSegments()) {
+                final CandidateEvaluator.Candidates candidates = query
+                        .accept(segment.createCandidateEvaluator(dictionary, analyzer));
+                exact &= candidates.isExact();
+                segment.countTags(candidates.getIds()).forEach((tag, count) -> counts.merge(tag, count, Integer::sum));
+            }
+            return new TagCounts(counts, exact);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find the most frequent terms, titles and tags that start with a prefix.
+     *
+     * Changes of the index are reflected after the next refresh.
+     *
+     * @param prefix
+     *            the prefix. Must not be <code>null</code>.
+     * @param limit
+     *            the maximum amount of suggestions.
+     * @return the normalized suggestions, most frequent first. Never
+     *         <code>null</code>.
+     */
+    public List<String> suggest(String prefix, int limit) {
+        final Suggester currentSuggester = suggester;
+        if (currentSuggester == null) {
+            return Collections.emptyList();
+        }
+        return currentSuggester.suggest(Normalizer.normalize(prefix), limit);
+    }
+
+    /**
+     * Rebuild the suggestions, if the index has changed since they have been
+     * built.
+     */
+    public void updateSuggester() {
+        if (!enabled || !suggesterOutdated) {
+            return;
+        }
+        suggesterOutdated = false;
+        final Map<String, Integer> weightedSuggestions = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (final Segment segment : allSegments()) {
+                segment.forEachTerm((term, documentCount) -> {
+                    final String suggestion = term.startsWith(TITLE_PREFIX) ? term.substring(TITLE_PREFIX.length())
+                            : term.startsWith(TAG_PREFIX) ? term.substring(TAG_PREFIX.length()) : term;
+                    addSuggestion(suggestion, documentCount, weightedSuggestions);
+                });
+                segment.forEachDocument(document -> addSuggestion(document.getTitle(), 1, weightedSuggestions));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        countTags().forEach((tag, count) -> addSuggestion(tag, count, weightedSuggestions));
+        suggester = new Suggester(weightedSuggestions);
+        LOGGER.debug("Built suggestions with " + weightedSuggestions.size() + " entries.");
+    }
+
+    /**
+     * Get the documents whose meta data has been updated most recently.
+     *
+     * @param from
+     *            the earliest update time (millis), inclusive.
+     * @param limit
+     *            the maximum amount of documents.
+     * @return the documents, most recently updated first. Never
+     *         <code>null</code>.
+     */
+    public List<IndexedDocument> findNewest(long from, int limit) {
+        lock.readLock().lock();
+        try {
+            final List<IndexedDocument> newest = new ArrayList<>();
+            allSegments().forEach(segment -> newest.addAll(segment.findNewest(from, limit)));
+            newest.sort(Comparator.comparingLong(IndexedDocument::getLastModified).reversed());
+            return newest.size() > limit ? new ArrayList<>(newest.subList(0, limit)) : newest;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add a document to the index or replace it.
+     *
+     * @param originalFilePath
+     *            the original file of the document. Must not be
+     *            <code>null</code>.
+     * @param metaData
+     *            the meta data of the document. Must not be <code>null</code>.
+     * @param pageTextPaths
+     *            the page text files of the document by page number. Must not be
+     *            <code>null</code>.
+     * @param lastModified
+     *            modification time (millis) of the meta data file.
+     */
+    public void update(Path originalFilePath, MetaData metaData, Map<Integer, Path> pageTextPaths,
+            long lastModified) {
+        final Map<Integer, Map<String, Integer>> pageTerms = new HashMap<>();
+        final Map<Integer, Map<String, List<int[]>>> pageOccurrences = new HashMap<>();
+        final Map<String, String> surfaceForms = new HashMap<>();
+        final Set<Long> trigrams = new HashSet<>();
+        final Map<String, List<int[]>> metaDataOccurrences = analyze("",
+                metaData.getText() == null ? "" : metaData.getText(), surfaceForms);
+        final Map<String, Integer> metaDataTerms = new HashMap<>();
+        metaDataOccurrences.forEach((term, occurrences) -> metaDataTerms.put(term, occurrences.size()));
+        pageOccurrences.put(0, metaDataOccurrences);
+        int length = metaDataTerms.values().stream().mapToInt(Integer::intValue).sum();
+        addPrefixedTerms(TITLE_PREFIX, Normalizer.normalize(metaData.getTitle()), metaDataTerms, surfaceForms);
+        if (metaData.getTags() != null) {
+            addPrefixedTerms(TAG_PREFIX, Normalizer.normalize(String.join(" ", metaData.getTags())), metaDataTerms,
+                    surfaceForms);
+        }
+        pageTerms.put(0, metaDataTerms);
+        final String title = Normalizer.normalize(metaData.getTitle());
+        final List<String> tags = new ArrayList<>();
+        if (metaData.getTags() != null) {
+            metaData.getTags().stream().map(Normalizer::normalize).forEach(tags::add);
+        }
+        for (final String field : new String[] { title, String.join(",", tags), Normalizer.normalize(metaData.getText()) }) {
+            // phrases are matched with whitespace removed
+            TrigramIndex.collectTrigrams(analyzer.foldText(field), trigrams);
+            TrigramIndex.collectTrigrams(analyzer.foldText(Normalizer.normalizePageText(field)), trigrams);
+        }
+        TrigramIndex.collectTrigrams(analyzer.foldText(metaDataService.getMetaDataPath(originalFilePath).toString()),
+                trigrams);
+        for (final Map.Entry<Integer, Path> pageTextPath : pageTextPaths.entrySet()) {
+            try {
+                final String text = new String(Files.readAllBytes(pageTextPath.getValue()), "UTF-8");
+                final Map<String, List<int[]>> occurrences = analyze("", text, surfaceForms);
+                final Map<String, Integer> terms = new HashMap<>();
+                occurrences.forEach((term, termOccurrences) -> terms.put(term, termOccurrences.size()));
+                length += terms.values().stream().mapToInt(Integer::intValue).sum();
+                pageTerms.put(pageTextPath.getKey(), terms);
+                pageOccurrences.put(pageTextPath.getKey(), occurrences);
+                TrigramIndex.collectTrigrams(analyzer.foldText(Normalizer.normalizePageText(text)), trigrams);
+            } catch (final IOException ex) {
+                LOGGER.error("Cannot read page text " + pageTextPath.getValue(), ex);
+            }
+        }
+        final int[] pages = pageTerms.keySet().stream().mapToInt(Integer::intValue).filter(page -> page > 0)
+                .sorted().toArray();
+        // read before locking, so searches do not wait for the file system
+        final long created = creationTime(originalFilePath, lastModified);
+
+        lock.writeLock().lock();
+        try {
+            final String path = originalFilePath.toString();
+            final IndexedDocument previous = find(path);
+            // a replaced document keeps the time it has been added
+            final long ingested = previous == null ? created : previous.getIngested();
+            removeDocument(path);
+            if (buffer.documentCount() >= MAX_BUFFERED_DOCUMENTS) {
+                flush();
+            }
+            final int id = buffer.add(path, lastModified, ingested, title, tags, pages, length).getId();
+            buffer.addTrigrams(id, trigrams);
+            suggesterOutdated = true;
+            pageTerms.forEach((page, terms) -> terms.forEach((term, frequency) -> {
+                // the title and the tags have no occurrences
+                final List<int[]> occurrences = pageOccurrences.get(page).containsKey(term)
+                        ? pageOccurrences.get(page).get(term)
+                        : Collections.emptyList();
+                final int[] offsets = occurrences.stream().mapToInt(occurrence -> occurrence[0]).toArray();
+                final int[] lengths = occurrences.stream().mapToInt(occurrence -> occurrence[1]).toArray();
+                if (buffer.addPosting(term, id, page, frequency, offsets, lengths)
+                        && segments.stream().noneMatch(segment -> segment.containsTerm(term))) {
+                    termDictionary = null;
+                }
+            }));
+            surfaceForms.forEach(buffer::addSurfaceForm);
+            dirty = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a document from the index.
+     *
+     * @param originalFilePath
+     *            the original file of the document. Must not be
+     *            <code>null</code>.
+     */
+    public void remove(Path originalFilePath) {
+        lock.writeLock().lock();
+        try {
+            if (removeDocument(originalFilePath.toString())) {
+                dirty = true;
+                suggesterOutdated = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void metaDataSaved(MetaData metaData) {
+        if (!enabled) {
+            return;
+        }
+        final Path metaDataPath = metaData.getFilePath();
+        final Path originalFilePath = metaDataService.getOriginalFilePath(metaDataPath);
+        try {
+            final Map<Integer, Path> pageTextPaths = metaDataService.getPageTextPaths(metaDataPath.getParent())
+                    .get(originalFilePath.getFileName().toString());
+            update(originalFilePath, metaData, pageTextPaths == null ? Collections.emptyMap() : pageTextPaths,
+                    Files.getLastModifiedTime(metaDataPath).toMillis());
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot index " + originalFilePath, ex);
+        }
+    }
+
+    @Override
+    public void metaDataDeleted(Path originalFilePath) {
+        if (enabled) {
+            remove(originalFilePath);
+        }
+    }
+
+    @Override
+    public void fullScanFinished() {
+        if (enabled) {
+            refresh();
+        }
+    }
+
+    @Override
+    public void changesScanned(Set<Path> paths) {
+        if (enabled && ready) {
+            refresh(paths);
+        }
+    }
+
+    /**
+     * Bring the index in line with the meta data files in all document paths.
+     *
+     * Only meta data files that are new or have been modified since they were
+     * indexed are read. Documents whose meta data file is gone are removed,
+     * unless a document path could not be walked completely. The index is
+     * ready after the first refresh, even if some document paths have not been
+     * available.
+     */
+    public void refresh() {
+        final Set<String> seen = new HashSet<>();
+        boolean complete = true;
+        for (final String documentPath : documentPaths.split(";")) {
+            LOGGER.debug("Refreshing search index for " + documentPath + "...");
+            try {
+                metaDataService.forEachMetaDataDirectory(Paths.get(documentPath),
+                        path -> refreshDirectory(path, seen));
+            } catch (final IOException ex) {
+                LOGGER.error("Cannot walk the path: " + documentPath, ex);
+                complete = false;
+            }
+        }
+        final List<String> removed = new ArrayList<>();
+        // do not drop documents of paths that are temporarily unavailable
+        if (complete) {
+            lock.readLock().lock();
+            try {
+                allSegments().forEach(segment -> segment.forEachPath(path -> {
+                    if (!seen.contains(path)) {
+                        removed.add(path);
+                    }
+                }));
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        removed.forEach(path -> {
+            remove(Paths.get(path));
+            if (ready) {
+                externalChangeListeners.forEach(listener -> listener.metaDataDeleted(Paths.get(path)));
+            }
+        });
+        if (!ready && complete) {
+            LOGGER.info("Search index built with " + seen.size() + " documents.");
+        } else if (!ready) {
+            LOGGER.warn("Search index built with " + seen.size()
+                    + " documents. Some document paths could not be read, they are indexed with the next scan.");
+        }
+        ready = true;
+    }
+
+    /**
+     * Bring the index in line with the meta data files of some original files,
+     * without walking the document paths.
+     *
+     * @param originalFilePaths
+     *            the original files, e.g. the files changed in the document
+     *            paths. Must not be <code>null</code>.
+     */
+    public void refresh(Collection<Path> originalFilePaths) {
+        for (final Path originalFilePath : originalFilePaths) {
+            if (originalFilePath.getParent() == null) {
+                continue;
+            }
+            final Path metaDataPath = metaDataService.getMetaDataPath(originalFilePath);
+            try {
+                if (Files.exists(metaDataPath)) {
+                    refreshMetaData(metaDataPath, null);
+                } else if (isIndexed(originalFilePath)) {
+                    remove(originalFilePath);
+                    externalChangeListeners.forEach(listener -> listener.metaDataDeleted(originalFilePath));
+                }
+            } catch (final IOException ex) {
+                LOGGER.error("Cannot index meta data file " + metaDataPath, ex);
+            }
+        }
+    }
+
+    /**
+     * Write the changes of the index to disk, if there are any.
+     *
+     * The buffered documents are flushed to a new segment, the existing
+     * segments are not written again. Afterwards the segments are merged in
+     * the background, if necessary.
+     */
+    public void persist() {
+        if (!dirty) {
+            return;
+        }
+        final List<Segment> unsaved = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            flush();
+            dirty = false;
+            segments.stream().filter(segment -> !segment.isSaved()).forEach(unsaved::add);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        synchronized (commitLock) {
+            try {
+                // the sealed segments do not change anymore, so searches go on while writing
+                for (final Segment segment : unsaved) {
+                    if (!segment.isSaved()) {
+                        writeSegment(segment);
+                    }
+                }
+                writeManifest();
+            } catch (final IOException ex) {
+                LOGGER.error("Cannot write search index to " + indexDirectory, ex);
+                dirty = true;
+                return;
+            }
+        }
+        scheduleMerge();
+    }
+
+    private void refreshDirectory(Path metaDataDirectory, Set<String> seen) {
+        final List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(metaDataDirectory)) {
+            stream.forEach(entries::add);
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot list meta data directory " + metaDataDirectory, ex);
+            return;
+        }
+        final Map<String, Map<Integer, Path>> pageTextPaths = metaDataService.getPageTextPaths(entries);
+        entries.stream().filter(path -> path.getFileName().toString().endsWith(MetaDataService.META_DATA_SUFFIX))
+                .forEach(metaDataPath -> {
+                    seen.add(metaDataService.getOriginalFilePath(metaDataPath).toString());
+                    try {
+                        refreshMetaData(metaDataPath, pageTextPaths);
+                    } catch (final IOException ex) {
+                        LOGGER.error("Cannot index meta data file " + metaDataPath, ex);
+                    }
+                });
+    }
+
+    // indexes a meta data file that is new or has been modified since it was indexed, the page texts are listed if null
+    private void refreshMetaData(Path metaDataPath, Map<String, Map<Integer, Path>> pageTextPaths)
+            throws IOException {
+        final Path originalFilePath = metaDataService.getOriginalFilePath(metaDataPath);
+        final long lastModified = Files.getLastModifiedTime(metaDataPath).toMillis();
+        if (isIndexed(originalFilePath, lastModified)) {
+            return;
+        }
+        final Map<Integer, Path> pages = (pageTextPaths != null ? pageTextPaths
+                : metaDataService.getPageTextPaths(metaDataPath.getParent()))
+                        .get(originalFilePath.getFileName().toString());
+        final MetaData metaData = MetaData.createFromFile(metaDataPath);
+        update(originalFilePath, metaData, pages == null ? Collections.emptyMap() : pages, lastModified);
+        if (ready) {
+            externalChangeListeners.forEach(listener -> listener.metaDataSaved(metaData));
+        }
+    }
+
+    private boolean isIndexed(Path originalFilePath) {
+        lock.readLock().lock();
+        try {
+            return find(originalFilePath.toString()) != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean isIndexed(Path originalFilePath, long lastModified) {
+        lock.readLock().lock();
+        try {
+            final IndexedDocument document = find(originalFilePath.toString());
+            return document != null && document.getLastModified() == lastModified;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void addPrefixedTerms(String prefix, String text, Map<String, Integer> terms,
+            Map<String, String> surfaceForms) {
+        analyze(prefix, text, surfaceForms).forEach((term, occurrences) -> terms.put(term, occurrences.size()));
+    }
+
+    // the occurrences {offset, length} by prefixed term, collecting the first surface form of each term
+    private Map<String, List<int[]>> analyze(String prefix, String text, Map<String, String> surfaceForms) {
+        final Map<String, List<int[]>> occurrences = new HashMap<>();
+        analyzer.analyze(text, (term, offset, length) -> {
+            occurrences.computeIfAbsent(prefix + term, key -> new ArrayList<>()).add(new int[] { offset, length });
+            surfaceForms.putIfAbsent(prefix + term, prefix + text.substring(offset, offset + length).toLowerCase());
+        });
+        return occurrences;
+    }
+
+    // must be called with a lock held
+    private void addScores(List<Segment> allSegments, String term, float boost, Map<IndexedDocument, Float> scores) {
+        addScores(allSegments, term, boost, true, scores);
+        addScores(allSegments, TITLE_PREFIX + term, boost * TITLE_BOOST, false, scores);
+        addScores(allSegments, TAG_PREFIX + term, boost * TAG_BOOST, false, scores);
+    }
+
+    // must be called with a lock held
+    private void addScores(List<Segment> allSegments, String term, float boost, boolean lengthNormalized,
+            Map<IndexedDocument, Float> scores) {
+        final Map<IndexedDocument, Integer> frequencies = new HashMap<>();
+        int documentCount = 0;
+        long totalLength = 0;
+        for (final Segment segment : allSegments) {
+            segment.addFrequencies(term, frequencies);
+            documentCount += segment.size();
+            totalLength += segment.getTotalLength();
+        }
+        final float idf = Bm25.idf(documentCount, frequencies.size());
+        final float averageLength = documentCount == 0 ? 0 : (float) totalLength / documentCount;
+        frequencies.forEach((document, frequency) -> {
+            final float score = lengthNormalized
+                    ? Bm25.score(idf, frequency, document.getLength(), averageLength)
+                    : Bm25.score(idf, frequency);
+            scores.merge(document, boost * score, Float::sum);
+        });
+    }
+
+    // must be called with a lock held
+    private List<Segment> allSegments() {
+        final List<Segment> allSegments = new ArrayList<>(segments);
+        allSegments.add(buffer);
+        return allSegments;
+    }
+
+    // must be called with a lock held
+    private IndexedDocument find(String originalFilePath) {
+        for (final Segment segment : allSegments()) {
+            final IndexedDocument document = segment.get(originalFilePath);
+            if (document != null) {
+                return document;
+            }
+        }
+        return null;
+    }
+
+    // must be called with a lock held
+    private int size() {
+        return allSegments().stream().mapToInt(Segment::size).sum();
+    }
+
+    // must be called with the write lock held
+    private boolean removeDocument(String originalFilePath) {
+        // the postings of the document are purged when its segment is merged
+        for (final Segment segment : allSegments()) {
+            if (segment.remove(originalFilePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // must be called with the write lock held
+    private void flush() {
+        if (buffer.documentCount() == 0) {
+            return;
+        }
+        buffer.seal();
+        segments.add(buffer);
+        buffer = new Segment(nextGeneration.getAndIncrement());
+    }
+
+    // must be called with the write lock held
+    private void clear() {
+        segments.clear();
+        buffer = new Segment(nextGeneration.getAndIncrement());
+        termDictionary = null;
+        ready = false;
+    }
+
+    private void scheduleMerge() {
+        if (!mergeScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        merger.execute(() -> {
+            try {
+                while (merge()) {
+                    // merged segments may complete the next tier
+                }
+            } catch (final RuntimeException ex) {
+                LOGGER.error("Cannot merge search index segments.", ex);
+            } finally {
+                mergeScheduled.set(false);
+            }
+        });
+    }
+
+    /**
+     * Merge the segments of one size tier or a segment that consists mostly of
+     * deleted documents.
+     *
+     * @return true, if segments have been merged.
+     */
+    private boolean merge() {
+        final List<Segment> sources;
+        final List<BitSet> deleted = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            sources = selectMerge();
+            sources.forEach(source -> deleted.add(source.getDeleted()));
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (sources.isEmpty()) {
+            return false;
+        }
+        final Segment merged = Segment.merge(nextGeneration.getAndIncrement(), sources, deleted);
+        synchronized (commitLock) {
+            try {
+                if (merged.documentCount() > 0) {
+                    writeSegment(merged);
+                }
+            } catch (final IOException ex) {
+                LOGGER.error("Cannot write merged search index segment.", ex);
+                return false;
+            }
+            lock.writeLock().lock();
+            try {
+                // documents that have been removed while merging
+                for (int i = 0; i < sources.size(); i++) {
+                    final Segment source = sources.get(i);
+                    final BitSet removed = source.getDeleted();
+                    removed.andNot(deleted.get(i));
+                    for (int id = removed.nextSetBit(0); id >= 0; id = removed.nextSetBit(id + 1)) {
+                        merged.remove(source.getDocument(id).getOriginalFilePath());
+                    }
+                }
+                final int position = segments.indexOf(sources.get(0));
+                segments.removeAll(sources);
+                if (merged.documentCount() > 0) {
+                    segments.add(position, merged);
+                }
+                termDictionary = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            try {
+                writeManifest();
+                for (final Segment source : sources) {
+                    Files.deleteIfExists(segmentFile(source.getGeneration()));
+                }
+            } catch (final IOException ex) {
+                LOGGER.error("Cannot write search index to " + indexDirectory, ex);
+                dirty = true;
+            }
+        }
+        LOGGER.debug("Merged " + sources.size() + " search index segments into one with " + merged.size()
+                + " documents.");
+        return true;
+    }
+
+    // must be called with a lock held
+    private List<Segment> selectMerge() {
+        final int factor = Math.max(2, mergeFactor);
+        final Map<Integer, List<Segment>> tiers = new TreeMap<>();
+        for (final Segment segment : segments) {
+            if (!segment.isSaved()) {
+                continue;
+            }
+            if (segment.size() * 2 < segment.documentCount()) {
+                return Collections.singletonList(segment);
+            }
+            int tier = 0;
+            for (long tierSize = factor; tierSize <= segment.size(); tierSize *= factor) {
+                tier++;
+            }
+            tiers.computeIfAbsent(tier, key -> new ArrayList<>()).add(segment);
+        }
+        for (final List<Segment> tier : tiers.values()) {
+            if (tier.size() >= factor) {
+                return new ArrayList<>(tier.subList(0, factor));
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    // must be called with the commit lock held
+    private void writeSegment(Segment segment) throws IOException {
+        final Path segmentFile = segmentFile(segment.getGeneration());
+        Files.createDirectories(segmentFile.getParent());
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(segmentFile)))) {
+            out.writeInt(FORMAT_VERSION);
+            segment.write(out);
+        }
+        segment.setSaved();
+    }
+
+    // must be called with the commit lock held
+    private void writeManifest() throws IOException {
+        final Path manifestFile = Paths.get(indexDirectory, MANIFEST_FILE_NAME);
+        final Path tempFile = Paths.get(indexDirectory, MANIFEST_FILE_NAME + ".tmp");
+        final ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        lock.readLock().lock();
+        try (DataOutputStream out = new DataOutputStream(manifest)) {
+            final List<Segment> savedSegments = new ArrayList<>();
+            segments.stream().filter(Segment::isSaved).forEach(savedSegments::add);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(analyzer.getConfiguration());
+            out.writeInt(nextGeneration.get());
+            out.writeInt(savedSegments.size());
+            for (final Segment segment : savedSegments) {
+                out.writeInt(segment.getGeneration());
+                segment.writeDeleted(out);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Files.createDirectories(tempFile.getParent());
+        Files.write(tempFile, manifest.toByteArray());
+        Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.debug("Search index written to " + indexDirectory);
+    }
+
+    // must be called with the write lock held
+    private void readManifest(DataInputStream in) throws IOException {
+        clear();
+        final int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported index format version " + version);
+        }
+        final String analysis = in.readUTF();
+        if (!analysis.equals(analyzer.getConfiguration())) {
+            throw new IOException("The index has been built with the analysis steps '" + analysis + "'");
+        }
+        nextGeneration.set(in.readInt());
+        final int segmentCount = in.readInt();
+        for (int i = 0; i < segmentCount; i++) {
+            final int generation = in.readInt();
+            final Path segmentFile = segmentFile(generation);
+            try (DataInputStream segmentIn = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(segmentFile)))) {
+                final int segmentVersion = segmentIn.readInt();
+                if (segmentVersion != FORMAT_VERSION) {
+                    throw new IOException("Unsupported index format version " + segmentVersion + " of "
+                            + segmentFile);
+                }
+                final Segment segment = Segment.read(generation, segmentIn);
+                segment.readDeleted(in);
+                segments.add(segment);
+            }
+        }
+        buffer = new Segment(nextGeneration.getAndIncrement());
+    }
+
+    private void deleteLegacyIndex() {
+        final Path legacyIndexFile = Paths.get(indexDirectory, LEGACY_INDEX_FILE_NAME);
+        try {
+            if (Files.deleteIfExists(legacyIndexFile)) {
+                LOGGER.info("Removed search index of an older version. It will be rebuilt with the next scan.");
+            }
+        } catch (final IOException ex) {
+            LOGGER.warn("Cannot remove old search index " + legacyIndexFile, ex);
+        }
+    }
+
+    // segment files that are not in the manifest, e.g. of an interrupted merge
+    private void deleteUnusedSegmentFiles() {
+        final Set<Path> used = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            segments.forEach(segment -> used.add(segmentFile(segment.getGeneration())));
+        } finally {
+            lock.readLock().unlock();
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(indexDirectory),
+                SEGMENT_FILE_PREFIX + "*" + SEGMENT_FILE_SUFFIX)) {
+            for (final Path file : files) {
+                if (!used.contains(file)) {
+                    Files.delete(file);
+                }
+            }
+        } catch (final IOException ex) {
+            LOGGER.warn("Cannot remove unused search index segments in " + indexDirectory, ex);
+        }
+    }
+
+    private Path segmentFile(int generation) {
+        return Paths.get(indexDirectory, SEGMENT_FILE_PREFIX + generation + SEGMENT_FILE_SUFFIX);
+    }
+
+    private void addSuggestion(String suggestion, int weight, Map<String, Integer> weightedSuggestions) {
+        final String trimmed = suggestion.trim();
+        if (trimmed.length() >= 2 && weight > 0) {
+            weightedSuggestions.merge(trimmed, weight, Integer::sum);
+        }
+    }
+
+    // must be called with a lock held
+    private TermDictionary getTermDictionary() {
+        TermDictionary currentTermDictionary = termDictionary;
+        if (currentTermDictionary == null) {
+            final Set<String> terms = new HashSet<>();
+            allSegments().forEach(segment -> terms.addAll(segment.getTerms()));
+            currentTermDictionary = new TermDictionary(terms, analyzer);
+            termDictionary = currentTermDictionary;
+            LOGGER.debug("Built term dictionary with " + currentTermDictionary.size() + " terms.");
+        }
+        return currentTermDictionary;
+    }
+
+    /**
+     * The time the meta data file has been created, i.e. the document has been
+     * extracted. Falls back to the given time, if the file system does not
+     * know.
+     */
+    private long creationTime(Path originalFilePath, long fallback) {
+        try {
+            final long creationTime = Files
+                    .readAttributes(metaDataService.getMetaDataPath(originalFilePath), BasicFileAttributes.class)
+                    .creationTime().toMillis();
+            return creationTime > 0 ? creationTime : fallback;
+        } catch (final IOException ex) {
+            return fallback;
+        }
+    }
+
+}
@@ -0,0 +1,544 @@
+package de.scyv.scarchive.server.index;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Part of the {@link SearchIndex}: the documents of one flush or of merged
+ * segments, with their own postings, trigrams, facets and time indexes. The
+ * document ids are local to the segment.
+ *
+ * New documents are only added to the segment that buffers the changes until
+ * the next flush. Once sealed (see {@link #seal()}), the documents, postings
+ * and trigrams of a segment do not change anymore, so it can be written and
+ * merged without blocking searches. Removed or replaced documents are only
+ * marked as deleted; they are purged when the segment is merged (see
+ * {@link #merge(int, List, List)}).
+ *
+ * Not thread safe, the {@link SearchIndex} takes care of locking.
+ */
+class Segment {
+
+    private final int generation;
+
+    // document id -> document, including the deleted ones
+    private final List<IndexedDocument> documents = new ArrayList<>();
+
+    private final BitSet deleted = new BitSet();
+
+    private final PathTable documentIds = new PathTable();
+
+    private final Map<String, PostingList> postings = new HashMap<>();
+
+    // (prefixed) term -> how it occurs in the text, if that differs from the analyzed term
+    private final Map<String, String> surfaceForms = new HashMap<>();
+
+    private final TrigramIndex trigramIndex = new TrigramIndex();
+
+    private final TagFacets tagFacets = new TagFacets();
+
+    private final TimeIndex updateTimes = new TimeIndex();
+
+    private final TimeIndex ingestTimes = new TimeIndex();
+
+    // sum of the lengths of all live documents
+    private long totalLength = 0;
+
+    private volatile boolean saved = false;
+
+    /**
+     * Create an empty segment.
+     *
+     * @param generation
+     *            the generation that names the segment on disk, unique within
+     *            the index.
+     */
+    Segment(int generation) {
+        this.generation = generation;
+    }
+
+    /**
+     * Merge segments and purge their deleted documents.
+     *
+     * The segments are only read, so they must be sealed.
+     *
+     * @param generation
+     *            the generation of the merged segment.
+     * @param segments
+     *            the segments to merge. Must not be <code>null</code>.
+     * @param deleted
+     *            the deleted documents of each segment (see
+     *            {@link #getDeleted()}). Must not be <code>null</code>.
+     * @return the sealed, merged segment. Never <code>null</code>.
+     */
+    static Segment merge(int generation, List<Segment> segments, List<BitSet> deleted) {
+        final Segment merged = new Segment(generation);
+        for (int i = 0; i < segments.size(); i++) {
+            final Segment segment = segments.get(i);
+            final int[] newIds = new int[segment.documents.size()];
+            for (int id = 0; id < newIds.length; id++) {
+                if (deleted.get(i).get(id)) {
+                    newIds[id] = -1;
+                } else {
+                    newIds[id] = merged.documents.size();
+                    merged.addDocument(segment.documents.get(id).withId(newIds[id]));
+                }
+            }
+            segment.postings.forEach((term, termPostings) -> {
+                PostingList mergedPostings = merged.postings.get(term);
+                if (mergedPostings == null) {
+                    mergedPostings = new PostingList();
+                    merged.postings.put(term, mergedPostings);
+                }
+                mergedPostings.addAll(termPostings, newIds);
+            });
+            segment.surfaceForms.forEach(merged.surfaceForms::putIfAbsent);
+            merged.trigramIndex.addAll(segment.trigramIndex, newIds);
+        }
+        merged.postings.values().removeIf(termPostings -> termPostings.size() == 0);
+        merged.surfaceForms.keySet().retainAll(merged.postings.keySet());
+        merged.seal();
+        return merged;
+    }
+
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Add a document. Its terms and trigrams are added afterwards.
+     *
+     * @param path
+     *            the path of the original file. Must not be <code>null</code>.
+     * @param lastModified
+     *            modification time (millis) of the meta data file.
+     * @param ingested
+     *            time (millis) when the document has been added to the archive.
+     * @param title
+     *            the normalized title. Must not be <code>null</code>.
+     * @param tags
+     *            the normalized tags. Must not be <code>null</code>.
+     * @param pages
+     *            the numbers of the pages that have a page text file, ascending.
+     *            Must not be <code>null</code>.
+     * @param length
+     *            the number of terms in the text of the meta data and the page
+     *            texts.
+     * @return the added document, never <code>null</code>.
+     */
+    IndexedDocument add(String path, long lastModified, long ingested, String title, List<String> tags, int[] pages,
+            int length) {
+        final IndexedDocument document = new IndexedDocument(documents.size(), documentIds.directory(path),
+                PathTable.fileName(path), lastModified, ingested, title, tags, pages, length);
+        addDocument(document);
+        return document;
+    }
+
+    /**
+     * Add a posting of the last added document.
+     *
+     * @param term
+     *            the (prefixed) term. Must not be <code>null</code>.
+     * @param documentId
+     *            the id of the document.
+     * @param page
+     *            the page the term occurs on.
+     * @param frequency
+     *            how often the term occurs on the page.
+     * @param offsets
+     *            the ascending offsets of the occurrences, empty if not known.
+     *            Must not be <code>null</code>.
+     * @param lengths
+     *            the lengths of the occurrences, one per offset. Must not be
+     *            <code>null</code>.
+     * @return true, if the term is new to the segment.
+     */
+    boolean addPosting(String term, int documentId, int page, int frequency, int[] offsets, int[] lengths) {
+        PostingList termPostings = postings.get(term);
+        final boolean newTerm = termPostings == null;
+        if (newTerm) {
+            termPostings = new PostingList();
+            postings.put(term, termPostings);
+        }
+        termPostings.add(documentId, page, frequency, offsets, lengths);
+        return newTerm;
+    }
+
+    /**
+     * Remember how a term occurs in the text, e.g. to suggest it. Only the
+     * first surface form of a term is kept.
+     *
+     * @param term
+     *            the (prefixed) analyzed term. Must not be <code>null</code>.
+     * @param surfaceForm
+     *            the (prefixed) lower case occurrence. Must not be
+     *            <code>null</code>.
+     */
+    void addSurfaceForm(String term, String surfaceForm) {
+        if (!term.equals(surfaceForm)) {
+            surfaceForms.putIfAbsent(term, surfaceForm);
+        }
+    }
+
+    /**
+     * Add the trigrams of the last added document.
+     *
+     * @param documentId
+     *            the id of the document.
+     * @param trigrams
+     *            the trigrams. Must not be <code>null</code>.
+     */
+    void addTrigrams(int documentId, Set<Long> trigrams) {
+        trigramIndex.add(documentId, trigrams);
+    }
+
+    /**
+     * Release the memory reserved for documents to come. No documents may be
+     * added afterwards.
+     */
+    void seal() {
+        postings.values().forEach(PostingList::trim);
+        trigramIndex.trim();
+    }
+
+    /**
+     * Get the live document of a path.
+     *
+     * @param path
+     *            the path of the original file. Must not be <code>null</code>.
+     * @return the document or <code>null</code>, if it is not in the segment or
+     *         has been deleted.
+     */
+    IndexedDocument get(String path) {
+        final Integer id = documentIds.get(path);
+        return id == null ? null : documents.get(id);
+    }
+
+    IndexedDocument getDocument(int id) {
+        return documents.get(id);
+    }
+
+    /**
+     * Mark the document of a path as deleted.
+     *
+     * @param path
+     *            the path of the original file. Must not be <code>null</code>.
+     * @return true, if the document has been live in this segment.
+     */
+    boolean remove(String path) {
+        final Integer id = documentIds.remove(path);
+        if (id == null) {
+            return false;
+        }
+        delete(id);
+        return true;
+    }
+
+    /**
+     * Get the deleted documents.
+     *
+     * @return a copy of the ids, never <code>null</code>.
+     */
+    BitSet getDeleted() {
+        return (BitSet) deleted.clone();
+    }
+
+    /**
+     * Get the number of live documents.
+     *
+     * @return the number of documents that have not been deleted.
+     */
+    int size() {
+        return documentIds.size();
+    }
+
+    /**
+     * Get the number of documents, including the deleted ones.
+     *
+     * @return the number of documents.
+     */
+    int documentCount() {
+        return documents.size();
+    }
+
+    long getTotalLength() {
+        return totalLength;
+    }
+
+    boolean isSaved() {
+        return saved;
+    }
+
+    void setSaved() {
+        saved = true;
+    }
+
+    boolean containsTerm(String term) {
+        return postings.containsKey(term);
+    }
+
+    Set<String> getTerms() {
+        return Collections.unmodifiableSet(postings.keySet());
+    }
+
+    CandidateEvaluator createCandidateEvaluator(TermDictionary termDictionary, TextAnalyzer analyzer) {
+        return new CandidateEvaluator(trigramIndex, tagFacets, updateTimes, ingestTimes, documents, deleted, postings,
+                termDictionary, analyzer);
+    }
+
+    /**
+     * Add up the frequencies of a term in the live documents.
+     *
+     * @param term
+     *            the (prefixed) term. Must not be <code>null</code>.
+     * @param frequencies
+     *            the frequencies by document to add to. Must not be
+     *            <code>null</code>.
+     */
+    void addFrequencies(String term, Map<IndexedDocument, Integer> frequencies) {
+        final PostingList termPostings = postings.get(term);
+        if (termPostings == null) {
+            return;
+        }
+        final PostingList.Cursor cursor = termPostings.cursor();
+        while (cursor.next()) {
+            if (!deleted.get(cursor.getDocumentId())) {
+                frequencies.merge(documents.get(cursor.getDocumentId()), cursor.getFrequency(), Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Add the occurrences of a term within a document.
+     *
+     * @param document
+     *            a document of this segment. Must not be <code>null</code>.
+     * @param term
+     *            the analyzed term. Must not be <code>null</code>.
+     * @param hits
+     *            the hits to add to. Must not be <code>null</code>.
+     */
+    void addHits(IndexedDocument document, String term, List<Hit> hits) {
+        final PostingList termPostings = postings.get(term);
+        if (termPostings == null) {
+            return;
+        }
+        final int id = document.getId();
+        final PostingList.Cursor cursor = termPostings.cursor();
+        if (!cursor.advance(id) || cursor.getDocumentId() != id) {
+            return;
+        }
+        do {
+            final int[] offsets = cursor.getOffsets();
+            final int[] lengths = cursor.getLengths();
+            for (int i = 0; i < offsets.length; i++) {
+                hits.add(new Hit(cursor.getPage(), offsets[i], lengths[i]));
+            }
+        } while (cursor.next() && cursor.getDocumentId() == id);
+    }
+
+    /**
+     * Count the live documents per tag.
+     *
+     * @param ids
+     *            the documents to count, <code>null</code> for all.
+     * @return amount of documents by tag, sorted by tag. Never
+     *         <code>null</code>.
+     */
+    Map<String, Integer> countTags(BitSet ids) {
+        return tagFacets.count(ids);
+    }
+
+    /**
+     * Get the live documents whose meta data has been updated most recently.
+     *
+     * @param from
+     *            the earliest update time (millis), inclusive.
+     * @param limit
+     *            the maximum amount of documents.
+     * @return the documents, most recently updated first. Never
+     *         <code>null</code>.
+     */
+    List<IndexedDocument> findNewest(long from, int limit) {
+        final List<IndexedDocument> newest = new ArrayList<>();
+        updateTimes.newest(from, limit).forEach(id -> newest.add(documents.get(id)));
+        return newest;
+    }
+
+    /**
+     * Call a consumer with each term, as it occurs in the text, and the number
+     * of live documents that contain it.
+     *
+     * @param consumer
+     *            the consumer. Must not be <code>null</code>.
+     */
+    void forEachTerm(BiConsumer<String, Integer> consumer) {
+        postings.forEach((term, termPostings) -> {
+            final BitSet ids = new BitSet();
+            termPostings.addDocumentIdsTo(ids);
+            ids.andNot(deleted);
+            consumer.accept(surfaceForms.getOrDefault(term, term), ids.cardinality());
+        });
+    }
+
+    void forEachDocument(Consumer<IndexedDocument> consumer) {
+        for (int id = deleted.nextClearBit(0); id < documents.size(); id = deleted.nextClearBit(id + 1)) {
+            consumer.accept(documents.get(id));
+        }
+    }
+
+    void forEachPath(Consumer<String> consumer) {
+        documentIds.forEachPath(consumer);
+    }
+
+    /**
+     * Write the documents, postings and trigrams. The deleted documents are
+     * written separately (see {@link #writeDeleted(DataOutputStream)}), so a
+     * segment is written only once.
+     *
+     * @param out
+     *            the stream. Must not be <code>null</code>.
+     * @throws IOException
+     *             if the segment cannot be written.
+     */
+    void write(DataOutputStream out) throws IOException {
+        // each directory is written once, the documents refer to it by its position
+        final Map<String, Integer> directories = new HashMap<>();
+        documents.forEach(document -> directories.putIfAbsent(document.getDirectory(), directories.size()));
+        final String[] directoryTable = new String[directories.size()];
+        directories.forEach((directory, index) -> directoryTable[index] = directory);
+        out.writeInt(directoryTable.length);
+        for (final String directory : directoryTable) {
+            out.writeUTF(directory);
+        }
+        out.writeInt(documents.size());
+        for (final IndexedDocument document : documents) {
+            out.writeInt(directories.get(document.getDirectory()));
+            out.writeUTF(document.getFileName());
+            out.writeLong(document.getLastModified());
+            out.writeLong(document.getIngested());
+            out.writeUTF(document.getTitle());
+            out.writeInt(document.getTags().size());
+            for (final String tag : document.getTags()) {
+                out.writeUTF(tag);
+            }
+            out.writeInt(document.getPages().length);
+            for (final int page : document.getPages()) {
+                out.writeInt(page);
+            }
+            out.writeInt(document.getLength());
+        }
+        out.writeInt(postings.size());
+        for (final Map.Entry<String, PostingList> termPostings : postings.entrySet()) {
+            out.writeUTF(termPostings.getKey());
+            termPostings.getValue().write(out);
+        }
+        out.writeInt(surfaceForms.size());
+        for (final Map.Entry<String, String> surfaceForm : surfaceForms.entrySet()) {
+            out.writeUTF(surfaceForm.getKey());
+            out.writeUTF(surfaceForm.getValue());
+        }
+        trigramIndex.write(out);
+    }
+
+    /**
+     * Read a segment written by {@link #write(DataOutputStream)}.
+     *
+     * @param generation
+     *            the generation of the segment.
+     * @param in
+     *            the stream. Must not be <code>null</code>.
+     * @return the sealed segment, never <code>null</code>.
+     * @throws IOException
+     *             if the segment cannot be read.
+     */
+    static Segment read(int generation, DataInputStream in) throws IOException {
+        final Segment segment = new Segment(generation);
+        final String[] directories = new String[in.readInt()];
+        for (int i = 0; i < directories.length; i++) {
+            directories[i] = in.readUTF();
+        }
+        final int documentCount = in.readInt();
+        for (int id = 0; id < documentCount; id++) {
+            final String directory = directories[in.readInt()];
+            final String fileName = in.readUTF();
+            final long lastModified = in.readLong();
+            final long ingested = in.readLong();
+            final String title = in.readUTF();
+            final List<String> tags = new ArrayList<>();
+            final int tagCount = in.readInt();
+            for (int i = 0; i < tagCount; i++) {
+                tags.add(in.readUTF());
+            }
+            final int[] pages = new int[in.readInt()];
+            for (int i = 0; i < pages.length; i++) {
+                pages[i] = in.readInt();
+            }
+            segment.addDocument(new IndexedDocument(id, directory, fileName, lastModified, ingested, title, tags,
+                    pages, in.readInt()));
+        }
+        final int termCount = in.readInt();
+        for (int i = 0; i < termCount; i++) {
+            final String term = in.readUTF();
+            final PostingList termPostings = new PostingList();
+            termPostings.read(in);
+            segment.postings.put(term, termPostings);
+        }
+        final int surfaceFormCount = in.readInt();
+        for (int i = 0; i < surfaceFormCount; i++) {
+            segment.surfaceForms.put(in.readUTF(), in.readUTF());
+        }
+        segment.trigramIndex.read(in);
+        segment.saved = true;
+        return segment;
+    }
+
+    void writeDeleted(DataOutputStream out) throws IOException {
+        out.writeInt(deleted.cardinality());
+        for (int id = deleted.nextSetBit(0); id >= 0; id = deleted.nextSetBit(id + 1)) {
+            out.writeInt(id);
+        }
+    }
+
+    void readDeleted(DataInputStream in) throws IOException {
+        final int deletedCount = in.readInt();
+        for (int i = 0; i < deletedCount; i++) {
+            final int id = in.readInt();
+            // a replaced document shares the path with its replacement
+            final String path = documents.get(id).getOriginalFilePath();
+            if (Integer.valueOf(id).equals(documentIds.get(path))) {
+                documentIds.remove(path);
+            }
+            delete(id);
+        }
+    }
+
+    private void delete(int id) {
+        final IndexedDocument document = documents.get(id);
+        deleted.set(id);
+        totalLength -= document.getLength();
+        tagFacets.remove(id, document.getTags());
+        updateTimes.remove(id, document.getLastModified());
+        ingestTimes.remove(id, document.getIngested());
+    }
+
+    private void addDocument(IndexedDocument document) {
+        documents.add(document);
+        documentIds.put(document);
+        totalLength += document.getLength();
+        tagFacets.add(document.getId(), document.getTags());
+        updateTimes.add(document.getId(), document.getLastModified());
+        ingestTimes.add(document.getId(), document.getIngested());
+    }
+
+}
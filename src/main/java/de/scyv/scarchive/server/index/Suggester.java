@@ -0,0 +1,135 @@
+package de.scyv.scarchive.server.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Immutable dictionary of suggestions (terms, titles, tags) with weights, that
+ * finds the heaviest suggestions for a prefix.
+ *
+ * The suggestions are kept sorted, so the suggestions with a prefix form a
+ * range that is found by binary search. A segment tree over the weights yields
+ * the heaviest suggestion of any range in O(log n). The top k suggestions are
+ * found by splitting the range at the heaviest one and continuing with the
+ * heaviest of the parts, which takes O(log n + k log n) in total.
+ */
+class Suggester {
+
+    private final String[] suggestions;
+
+    private final int[] weights;
+
+    // segment tree of the index of the heaviest suggestion, leaves start at size
+    private final int[] heaviest;
+
+    private final int size;
+
+    /**
+     * Create instance.
+     *
+     * @param weightedSuggestions
+     *            weight by (normalized) suggestion. Must not be <code>null</code>.
+     */
+    Suggester(Map<String, Integer> weightedSuggestions) {
+        suggestions = weightedSuggestions.keySet().toArray(new String[weightedSuggestions.size()]);
+        Arrays.sort(suggestions);
+        weights = new int[suggestions.length];
+        for (int i = 0; i < suggestions.length; i++) {
+            weights[i] = weightedSuggestions.get(suggestions[i]);
+        }
+        size = Math.max(1, suggestions.length);
+        heaviest = new int[2 * size];
+        for (int i = 0; i < size; i++) {
+            heaviest[size + i] = i < suggestions.length ? i : -1;
+        }
+        for (int node = size - 1; node > 0; node--) {
+            heaviest[node] = heavier(heaviest[2 * node], heaviest[2 * node + 1]);
+        }
+    }
+
+    /**
+     * Find the heaviest suggestions that start with a prefix.
+     *
+     * @param prefix
+     *            the normalized prefix. Must not be <code>null</code>.
+     * @param limit
+     *            the maximum amount of suggestions.
+     * @return the suggestions, heaviest first. Never <code>null</code>.
+     */
+    List<String> suggest(String prefix, int limit) {
+        final int from = lowerBound(prefix);
+        final int to = lowerBound(prefix + Character.MAX_VALUE);
+        if (from >= to || limit <= 0) {
+            return Collections.emptyList();
+        }
+        final List<String> result = new ArrayList<>();
+        // ranges [from, to) by the weight of their heaviest suggestion
+        final PriorityQueue<int[]> ranges = new PriorityQueue<>((range1, range2) -> {
+            final int compared = Integer.compare(weights[range2[2]], weights[range1[2]]);
+            return compared != 0 ? compared : Integer.compare(range1[2], range2[2]);
+        });
+        ranges.add(new int[] { from, to, heaviest(from, to) });
+        while (!ranges.isEmpty() && result.size() < limit) {
+            final int[] range = ranges.poll();
+            final int index = range[2];
+            result.add(suggestions[index]);
+            if (range[0] < index) {
+                ranges.add(new int[] { range[0], index, heaviest(range[0], index) });
+            }
+            if (index + 1 < range[1]) {
+                ranges.add(new int[] { index + 1, range[1], heaviest(index + 1, range[1]) });
+            }
+        }
+        return result;
+    }
+
+    int size() {
+        return suggestions.length;
+    }
+
+    private int heaviest(int from, int to) {
+        int result = -1;
+        for (int left = from + size, right = to + size; left < right; left >>= 1, right >>= 1) {
+            if ((left & 1) == 1) {
+                result = heavier(result, heaviest[left++]);
+            }
+            if ((right & 1) == 1) {
+                result = heavier(result, heaviest[--right]);
+            }
+        }
+        return result;
+    }
+
+    private int heavier(int index1, int index2) {
+        if (index1 < 0) {
+            return index2;
+        }
+        if (index2 < 0) {
+            return index1;
+        }
+        // on equal weight, the shorter (i.e. first) suggestion wins
+        if (weights[index1] != weights[index2]) {
+            return weights[index1] > weights[index2] ? index1 : index2;
+        }
+        return Math.min(index1, index2);
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = suggestions.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (suggestions[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+}
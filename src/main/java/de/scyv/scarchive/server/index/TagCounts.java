@@ -0,0 +1,53 @@
+package de.scyv.scarchive.server.index;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The amount of documents per tag that match a query.
+ *
+ * The counts are exact, if the matching documents are known without reading
+ * them. Otherwise they are counted over the candidates of the query, a superset
+ * of the matching documents, and are upper bounds (see
+ * {@link RankedCandidates#isExact()}).
+ */
+public class TagCounts {
+
+    private final Map<String, Integer> counts;
+
+    private final boolean exact;
+
+    /**
+     * Create instance.
+     *
+     * @param counts
+     *            amount of documents by normalized tag, sorted by tag. Must not
+     *            be <code>null</code>.
+     * @param exact
+     *            whether the counts are exact.
+     */
+    public TagCounts(Map<String, Integer> counts, boolean exact) {
+        this.counts = Collections.unmodifiableMap(counts);
+        this.exact = exact;
+    }
+
+    /**
+     * Get the counts.
+     *
+     * @return amount of documents by normalized tag, sorted by tag. Never
+     *         <code>null</code>.
+     */
+    public Map<String, Integer> getCounts() {
+        return counts;
+    }
+
+    /**
+     * Whether the counts are exact, or upper bounds.
+     *
+     * @return true, if the counts are exact.
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+}
@@ -0,0 +1,100 @@
+package de.scyv.scarchive.server.index;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Facet index of the tags: tag -&gt; ids of the documents that carry it.
+ *
+ * Not thread safe, the {@link SearchIndex} takes care of locking.
+ */
+class TagFacets {
+
+    private final Map<String, BitSet> documentsByTag = new HashMap<>();
+
+    /**
+     * Add the tags of a document.
+     *
+     * @param documentId
+     *            the id of the document.
+     * @param tags
+     *            the normalized tags. Must not be <code>null</code>.
+     */
+    void add(int documentId, List<String> tags) {
+        for (final String tag : tags) {
+            BitSet ids = documentsByTag.get(tag);
+            if (ids == null) {
+                ids = new BitSet();
+                documentsByTag.put(tag, ids);
+            }
+            ids.set(documentId);
+        }
+    }
+
+    /**
+     * Remove the tags of a document.
+     *
+     * @param documentId
+     *            the id of the document.
+     * @param tags
+     *            the normalized tags the document has been added with. Must not
+     *            be <code>null</code>.
+     */
+    void remove(int documentId, List<String> tags) {
+        for (final String tag : tags) {
+            final BitSet ids = documentsByTag.get(tag);
+            if (ids != null) {
+                ids.clear(documentId);
+                if (ids.isEmpty()) {
+                    documentsByTag.remove(tag);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the documents that carry a tag.
+     *
+     * @param tag
+     *            the normalized tag. Must not be <code>null</code>.
+     * @return a copy of the ids, never <code>null</code>.
+     */
+    BitSet documents(String tag) {
+        final BitSet ids = documentsByTag.get(tag);
+        return ids == null ? new BitSet() : (BitSet) ids.clone();
+    }
+
+    /**
+     * Count the documents per tag.
+     *
+     * @param documentIds
+     *            the documents to count, <code>null</code> for all.
+     * @return amount of documents by tag, sorted by tag. Tags without documents
+     *         are left out. Never <code>null</code>.
+     */
+    Map<String, Integer> count(BitSet documentIds) {
+        final Map<String, Integer> counts = new TreeMap<>();
+        documentsByTag.forEach((tag, ids) -> {
+            final int count;
+            if (documentIds == null) {
+                count = ids.cardinality();
+            } else {
+                final BitSet intersection = (BitSet) ids.clone();
+                intersection.and(documentIds);
+                count = intersection.cardinality();
+            }
+            if (count > 0) {
+                counts.put(tag, count);
+            }
+        });
+        return counts;
+    }
+
+    void clear() {
+        documentsByTag.clear();
+    }
+
+}
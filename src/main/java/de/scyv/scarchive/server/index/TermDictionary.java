@@ -0,0 +1,125 @@
+package de.scyv.scarchive.server.index;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import de.scyv.scarchive.server.search.query.FuzzyQuery;
+
+/**
+ * Immutable, sorted dictionary of the indexed terms (without the field
+ * prefixes, see {@link SearchIndex#FIELD_PREFIXES}).
+ *
+ * Fuzzy lookups run a {@link LevenshteinAutomaton} along the sorted terms:
+ * terms that share a prefix with the previous term reuse its states, and all
+ * terms with a prefix from which no match is possible are skipped by binary
+ * search. Only a small part of the dictionary is visited this way.
+ */
+class TermDictionary {
+
+    private final String[] terms;
+
+    private final TextAnalyzer analyzer;
+
+    /**
+     * Create instance.
+     *
+     * @param prefixedTerms
+     *            the terms of the postings, with their field prefixes. Must not
+     *            be <code>null</code>.
+     * @param analyzer
+     *            the analyzer that has created the terms, the terms of the
+     *            fuzzy queries are analyzed the same way. Must not be
+     *            <code>null</code>.
+     */
+    TermDictionary(Collection<String> prefixedTerms, TextAnalyzer analyzer) {
+        this.analyzer = analyzer;
+        final TreeSet<String> sortedTerms = new TreeSet<>();
+        for (final String prefixedTerm : prefixedTerms) {
+            sortedTerms.add(prefixedTerm.substring(prefixedTerm.indexOf(':') + 1));
+        }
+        terms = sortedTerms.toArray(new String[sortedTerms.size()]);
+    }
+
+    /**
+     * Find all terms that match a fuzzy query.
+     *
+     * @param query
+     *            the query. Must not be <code>null</code>.
+     * @return the edit distance by matching term. Never <code>null</code>.
+     */
+    Map<String, Integer> match(FuzzyQuery query) {
+        return match(new LevenshteinAutomaton(analyzer.analyzeTerm(query.getTerm()), query.getMaxEdits()));
+    }
+
+    /**
+     * Find all terms accepted by an automaton.
+     *
+     * @param automaton
+     *            the automaton. Must not be <code>null</code>.
+     * @return the distance by accepted term. Never <code>null</code>.
+     */
+    Map<String, Integer> match(LevenshteinAutomaton automaton) {
+        final Map<String, Integer> matches = new HashMap<>();
+        // states.get(k) is the state after reading the first k chars of current
+        final List<int[]> states = new ArrayList<>();
+        states.add(automaton.start());
+        String current = "";
+        int index = 0;
+        while (index < terms.length) {
+            final String term = terms[index];
+            final int common = commonPrefixLength(current, term, states.size() - 1);
+            while (states.size() > common + 1) {
+                states.remove(states.size() - 1);
+            }
+            current = term;
+            int length = common;
+            while (length < term.length() && automaton.canMatch(states.get(length))) {
+                states.add(automaton.step(states.get(length), term.charAt(length)));
+                length++;
+            }
+            final int[] state = states.get(length);
+            if (!automaton.canMatch(state)) {
+                // no term with this prefix can match
+                index = firstIndexAfterPrefix(term.substring(0, length), index + 1);
+                continue;
+            }
+            if (automaton.isMatch(state)) {
+                matches.put(term, automaton.distance(state));
+            }
+            index++;
+        }
+        return matches;
+    }
+
+    int size() {
+        return terms.length;
+    }
+
+    private static int commonPrefixLength(String string1, String string2, int max) {
+        final int limit = Math.min(max, Math.min(string1.length(), string2.length()));
+        int length = 0;
+        while (length < limit && string1.charAt(length) == string2.charAt(length)) {
+            length++;
+        }
+        return length;
+    }
+
+    private int firstIndexAfterPrefix(String prefix, int from) {
+        int low = from;
+        int high = terms.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (terms[middle].startsWith(prefix) || terms[middle].compareTo(prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+}
@@ -0,0 +1,489 @@
+package de.scyv.scarchive.server.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Analysis of texts into the terms of the {@link SearchIndex}: the terms that
+ * are ranked, highlighted and matched by fuzzy queries. Substring matching
+ * applies the steps that work on characters (<code>unicode</code> and
+ * <code>folding</code>) to both the texts and the search strings, see
+ * {@link #foldText(String)}.
+ *
+ * A text is split into lower case terms like by the {@link Tokenizer}, which
+ * then pass the steps configured with <code>scarchive.index.analysis</code>, a
+ * comma separated list of:
+ * <ul>
+ * <li><code>unicode</code>: NFKC normalization, so composed and decomposed
+ * umlauts, ligatures etc. yield the same term.</li>
+ * <li><code>stopwords</code>: German stop words ("und", "der", "die", ...) are
+ * dropped.</li>
+ * <li><code>folding</code>: umlauts and ß are folded (ä and ae to a, ß to ss),
+ * other diacritics are removed, so "Mueller" matches "Müller".</li>
+ * <li><code>stemming</code>: light German stemming of plural and inflection
+ * endings, so "Rechnungen" matches "Rechnung".</li>
+ * </ul>
+ * Without any step, the terms are those of the {@link Tokenizer}.
+ *
+ * Each term knows the offset and the length of its occurrence in the text,
+ * which may differ from the length of the term itself, so occurrences can be
+ * highlighted.
+ */
+@Service
+public class TextAnalyzer {
+
+    /**
+     * The steps of the analysis, in the order they are applied.
+     */
+    public enum Step {
+        UNICODE, STOPWORDS, FOLDING, STEMMING
+    }
+
+    /**
+     * Receives the terms of a text.
+     */
+    @FunctionalInterface
+    public interface TermConsumer {
+
+        /**
+         * Accept a term.
+         *
+         * @param term
+         *            the analyzed term, never <code>null</code> or empty.
+         * @param offset
+         *            the character offset of the occurrence within the text.
+         * @param length
+         *            the length of the occurrence within the text.
+         */
+        void accept(String term, int offset, int length);
+    }
+
+    /**
+     * Receives the characters of a folded text.
+     */
+    @FunctionalInterface
+    public interface CharConsumer {
+
+        /**
+         * Accept a character.
+         *
+         * @param c
+         *            the folded character.
+         */
+        void accept(char c);
+    }
+
+    /**
+     * Folds a text one character after the other, e.g. while a file is read.
+     * The result is the same as with {@link TextAnalyzer#foldText(String)}.
+     *
+     * Not thread safe.
+     */
+    public final class CharFolder {
+
+        private final CharConsumer consumer;
+
+        private final boolean decompose = steps.contains(Step.UNICODE) || steps.contains(Step.FOLDING);
+
+        private final boolean folding = steps.contains(Step.FOLDING);
+
+        // whether an e after the last character is the transcription of an umlaut
+        private boolean umlaut = false;
+
+        private boolean afterVowel = false;
+
+        private CharFolder(CharConsumer consumer) {
+            this.consumer = consumer;
+        }
+
+        /**
+         * Fold the next character of the text.
+         *
+         * @param c
+         *            the character.
+         */
+        public void accept(char c) {
+            final char lowerCase = Character.toLowerCase(c);
+            if (!decompose || lowerCase < 0x80) {
+                fold(lowerCase);
+                return;
+            }
+            final String decomposed = DECOMPOSITIONS.computeIfAbsent(lowerCase, key -> java.text.Normalizer
+                    .normalize(String.valueOf(key), java.text.Normalizer.Form.NFKD).toLowerCase());
+            for (int i = 0; i < decomposed.length(); i++) {
+                fold(decomposed.charAt(i));
+            }
+        }
+
+        /**
+         * Start the next text.
+         */
+        public void reset() {
+            umlaut = false;
+            afterVowel = false;
+        }
+
+        // like fold(String), one character after the other
+        private void fold(char c) {
+            if (!folding) {
+                consumer.accept(c);
+                return;
+            }
+            final int type = Character.getType(c);
+            if (type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK) {
+                umlaut = false;
+                return;
+            }
+            switch (c) {
+            case 'a':
+            case 'o':
+                umlaut = true;
+                afterVowel = true;
+                consumer.accept(c);
+                break;
+            case 'u':
+                // not in "au", "eu" or "qu"
+                umlaut = !afterVowel;
+                afterVowel = true;
+                consumer.accept(c);
+                break;
+            case 'e':
+                if (!umlaut) {
+                    consumer.accept(c);
+                }
+                umlaut = false;
+                afterVowel = true;
+                break;
+            case 'i':
+            case 'q':
+            case 'y':
+                umlaut = false;
+                afterVowel = true;
+                consumer.accept(c);
+                break;
+            case 'ß':
+                umlaut = false;
+                afterVowel = false;
+                consumer.accept('s');
+                consumer.accept('s');
+                break;
+            default:
+                umlaut = false;
+                afterVowel = false;
+                consumer.accept(c);
+            }
+        }
+    }
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TextAnalyzer.class);
+
+    // compatibility decomposition of the characters that are not ASCII
+    private static final Map<Character, String> DECOMPOSITIONS = new ConcurrentHashMap<>();
+
+    private static final Set<String> GERMAN_STOP_WORDS = new HashSet<>(Arrays.asList("aber", "alle", "allem",
+            "allen", "aller", "alles", "als", "also", "am", "an", "ander", "andere", "anderem", "anderen", "anderer",
+            "anderes", "anderm", "andern", "anders", "auch", "auf", "aus", "bei", "bin", "bis", "bist", "da", "damit",
+            "dann", "das", "dass", "daß", "dein", "deine", "deinem", "deinen", "deiner", "deines", "dem", "den",
+            "denn", "der", "derer", "des", "dessen", "dich", "die", "dies", "diese", "diesem", "diesen", "dieser",
+            "dieses", "dir", "doch", "dort", "du", "durch", "ein", "eine", "einem", "einen", "einer", "eines", "einig",
+            "einige", "einigem", "einigen", "einiger", "einiges", "einmal", "er", "es", "etwas", "euch", "euer",
+            "eure", "eurem", "euren", "eurer", "eures", "für", "gegen", "gewesen", "hab", "habe", "haben", "hat",
+            "hatte", "hatten", "hier", "hin", "hinter", "ich", "ihm", "ihn", "ihnen", "ihr", "ihre", "ihrem", "ihren",
+            "ihrer", "ihres", "im", "in", "indem", "ins", "ist", "jede", "jedem", "jeden", "jeder", "jedes", "jene",
+            "jenem", "jenen", "jener", "jenes", "jetzt", "kann", "kein", "keine", "keinem", "keinen", "keiner",
+            "keines", "können", "könnte", "machen", "man", "manche", "manchem", "manchen", "mancher", "manches",
+            "mein", "meine", "meinem", "meinen", "meiner", "meines", "mich", "mir", "mit", "muss", "musste", "nach",
+            "nicht", "nichts", "noch", "nun", "nur", "ob", "oder", "ohne", "sehr", "sein", "seine", "seinem", "seinen",
+            "seiner", "seines", "selbst", "sich", "sie", "sind", "so", "solche", "solchem", "solchen", "solcher",
+            "solches", "soll", "sollte", "sondern", "sonst", "über", "um", "und", "uns", "unser", "unsere", "unserem",
+            "unseren", "unserer", "unseres", "unter", "viel", "vom", "von", "vor", "während", "war", "waren", "warst",
+            "was", "weg", "weil", "weiter", "welche", "welchem", "welchen", "welcher", "welches", "wenn", "werde",
+            "werden", "wie", "wieder", "will", "wir", "wird", "wirst", "wo", "wollen", "wollte", "würde", "würden",
+            "zu", "zum", "zur", "zwar", "zwischen"));
+
+    @Value("${scarchive.index.analysis}")
+    private String analysis;
+
+    private Set<Step> steps = EnumSet.noneOf(Step.class);
+
+    /**
+     * Read the configured steps. Unknown steps are ignored.
+     */
+    @PostConstruct
+    public void configure() {
+        final Set<Step> configuredSteps = EnumSet.noneOf(Step.class);
+        for (final String step : analysis.split(",")) {
+            if (step.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                configuredSteps.add(Step.valueOf(step.trim().toUpperCase(Locale.ROOT)));
+            } catch (final IllegalArgumentException ex) {
+                LOGGER.warn("Unknown analysis step " + step.trim() + ". It is ignored.");
+            }
+        }
+        steps = configuredSteps;
+    }
+
+    /**
+     * Get the configured steps, e.g. to detect that an index has been built with
+     * other steps.
+     *
+     * @return the steps, comma separated in the order they are applied. Never
+     *         <code>null</code>.
+     */
+    public String getConfiguration() {
+        return steps.stream().map(step -> step.name().toLowerCase(Locale.ROOT)).collect(Collectors.joining(","));
+    }
+
+    /**
+     * Split a text into analyzed terms.
+     *
+     * @param text
+     *            the text. Must not be <code>null</code>.
+     * @param consumer
+     *            receives the terms in order of their occurrence. Must not be
+     *            <code>null</code>.
+     */
+    public void analyze(String text, TermConsumer consumer) {
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i < text.length() && isTermCharacter(text.charAt(i), start >= 0)) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                final String term = analyzeWord(text.substring(start, i), true);
+                if (!term.isEmpty()) {
+                    consumer.accept(term, start, i - start);
+                }
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     * Split a text into analyzed terms.
+     *
+     * @param text
+     *            the text. Must not be <code>null</code>.
+     * @return the terms in order of their occurrence. Never <code>null</code>.
+     */
+    public List<String> analyze(String text) {
+        final List<String> terms = new ArrayList<>();
+        analyze(text, (term, offset, length) -> terms.add(term));
+        return terms;
+    }
+
+    /**
+     * Analyze a single term of a query, e.g. of a fuzzy query. Stop words are
+     * kept.
+     *
+     * @param term
+     *            the term as split by the {@link Tokenizer}. Must not be
+     *            <code>null</code>.
+     * @return the analyzed term, never <code>null</code>.
+     */
+    public String analyzeTerm(String term) {
+        final String analyzed = analyzeWord(term, false);
+        return analyzed.isEmpty() ? term : analyzed;
+    }
+
+    /**
+     * Fold a text or a search string for substring matching: it is lower cased
+     * and, if configured, decomposed (<code>unicode</code>) and folded
+     * (<code>folding</code>), so "strasse" is found in "Straße" and "mueller"
+     * in "Müller". Stop words and stemming do not apply.
+     *
+     * @param text
+     *            the text. Must not be <code>null</code>.
+     * @return the folded text. Never <code>null</code>.
+     */
+    public String foldText(String text) {
+        final StringBuilder folded = new StringBuilder(text.length());
+        final CharFolder folder = createCharFolder(folded::append);
+        for (int i = 0; i < text.length(); i++) {
+            folder.accept(text.charAt(i));
+        }
+        return folded.toString();
+    }
+
+    /**
+     * Create a folder that works like {@link #foldText(String)} on a text that
+     * is read one character after the other.
+     *
+     * @param consumer
+     *            receives the folded characters. Must not be <code>null</code>.
+     * @return the folder. Never <code>null</code>.
+     */
+    public CharFolder createCharFolder(CharConsumer consumer) {
+        return new CharFolder(consumer);
+    }
+
+    /**
+     * Split a text into folded words (see {@link #foldText(String)}), e.g. for
+     * substring matching within words. Unlike {@link #analyze(String)}, stop
+     * words are kept and the words are not stemmed.
+     *
+     * @param text
+     *            the text. Must not be <code>null</code>.
+     * @return the words in order of their occurrence. Never <code>null</code>.
+     */
+    public List<String> foldWords(String text) {
+        final String folded = foldText(text);
+        final List<String> words = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            if (i < folded.length() && isTermCharacter(folded.charAt(i), start >= 0)) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                words.add(folded.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    private boolean isTermCharacter(char c, boolean inTerm) {
+        if (Character.isLetterOrDigit(c)) {
+            return true;
+        }
+        // decomposed umlauts and accents
+        final int type = Character.getType(c);
+        return inTerm && steps.contains(Step.UNICODE)
+                && (type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK);
+    }
+
+    private String analyzeWord(String word, boolean dropStopWords) {
+        String term = word;
+        if (steps.contains(Step.UNICODE)) {
+            term = java.text.Normalizer.normalize(term, java.text.Normalizer.Form.NFKC);
+        }
+        term = term.toLowerCase();
+        if (dropStopWords && steps.contains(Step.STOPWORDS) && GERMAN_STOP_WORDS.contains(term)) {
+            return "";
+        }
+        if (steps.contains(Step.FOLDING)) {
+            term = fold(term);
+        }
+        if (steps.contains(Step.STEMMING)) {
+            term = stem(term);
+        }
+        return term;
+    }
+
+    // ß to ss, umlauts and their transcriptions (ae, oe, ue) to the plain vowel, diacritics removed
+    private static String fold(String term) {
+        final String decomposed = java.text.Normalizer.normalize(term, java.text.Normalizer.Form.NFD);
+        final StringBuilder folded = new StringBuilder(decomposed.length());
+        // whether an e after the last character is the transcription of an umlaut
+        boolean umlaut = false;
+        boolean afterVowel = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            final char c = decomposed.charAt(i);
+            final int type = Character.getType(c);
+            if (type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK) {
+                umlaut = false;
+                continue;
+            }
+            switch (c) {
+            case 'a':
+            case 'o':
+                umlaut = true;
+                afterVowel = true;
+                folded.append(c);
+                break;
+            case 'u':
+                // not in "au", "eu" or "qu"
+                umlaut = !afterVowel;
+                afterVowel = true;
+                folded.append(c);
+                break;
+            case 'e':
+                if (!umlaut) {
+                    folded.append(c);
+                }
+                umlaut = false;
+                afterVowel = true;
+                break;
+            case 'i':
+            case 'q':
+            case 'y':
+                umlaut = false;
+                afterVowel = true;
+                folded.append(c);
+                break;
+            case 'ß':
+                umlaut = false;
+                afterVowel = false;
+                folded.append("ss");
+                break;
+            default:
+                umlaut = false;
+                afterVowel = false;
+                folded.append(c);
+            }
+        }
+        return folded.toString();
+    }
+
+    // light stemming of German endings (Savoy), keeping at least three characters
+    private static String stem(String term) {
+        int length = term.length();
+        if (length > 5 && term.endsWith("ern")) {
+            length -= 3;
+        } else if (length > 4 && (term.endsWith("em") || term.endsWith("en") || term.endsWith("er")
+                || term.endsWith("es"))) {
+            length -= 2;
+        } else if (length > 3 && term.endsWith("e")) {
+            length -= 1;
+        } else if (length > 3 && term.endsWith("s") && isStEnding(term.charAt(length - 2))) {
+            length -= 1;
+        }
+        if (length > 5 && term.startsWith("est", length - 3)) {
+            length -= 3;
+        } else if (length > 4 && (term.startsWith("er", length - 2) || term.startsWith("en", length - 2))) {
+            length -= 2;
+        } else if (length > 4 && term.startsWith("st", length - 2) && isStEnding(term.charAt(length - 3))) {
+            length -= 2;
+        }
+        return term.substring(0, length);
+    }
+
+    // letters that may precede a stripped s or st ending
+    private static boolean isStEnding(char c) {
+        switch (c) {
+        case 'b':
+        case 'd':
+        case 'f':
+        case 'g':
+        case 'h':
+        case 'k':
+        case 'l':
+        case 'm':
+        case 'n':
+        case 't':
+            return true;
+        default:
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package de.scyv.scarchive.server.index;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Documents ordered by a point in time (e.g. the last update).
+ *
+ * The newest documents and the documents within a time range are found in
+ * O(log n + k).
+ *
+ * Not thread safe, the {@link SearchIndex} takes care of locking.
+ */
+class TimeIndex {
+
+    private static class Entry {
+        private final long time;
+        private final int documentId;
+
+        private Entry(long time, int documentId) {
+            this.time = time;
+            this.documentId = documentId;
+        }
+    }
+
+    private final TreeSet<Entry> entries = new TreeSet<>(
+            Comparator.<Entry>comparingLong(entry -> entry.time).thenComparingInt(entry -> entry.documentId));
+
+    void add(int documentId, long time) {
+        entries.add(new Entry(time, documentId));
+    }
+
+    void remove(int documentId, long time) {
+        entries.remove(new Entry(time, documentId));
+    }
+
+    /**
+     * Get the newest documents, newest first.
+     *
+     * @param from
+     *            the earliest time (millis) of the documents, inclusive.
+     * @param limit
+     *            the maximum amount of documents.
+     * @return the document ids, never <code>null</code>.
+     */
+    List<Integer> newest(long from, int limit) {
+        final List<Integer> ids = new ArrayList<>();
+        for (final Entry entry : entries.tailSet(new Entry(from, Integer.MIN_VALUE), true).descendingSet()) {
+            if (ids.size() >= limit) {
+                break;
+            }
+            ids.add(entry.documentId);
+        }
+        return ids;
+    }
+
+    /**
+     * Get the documents within a time range.
+     *
+     * @param from
+     *            start of the range (millis), inclusive.
+     * @param to
+     *            end of the range (millis), exclusive.
+     * @return the document ids, never <code>null</code>.
+     */
+    BitSet between(long from, long to) {
+        final BitSet ids = new BitSet();
+        if (from >= to) {
+            return ids;
+        }
+        entries.subSet(new Entry(from, Integer.MIN_VALUE), true, new Entry(to, Integer.MIN_VALUE), false)
+                .forEach(entry -> ids.set(entry.documentId));
+        return ids;
+    }
+
+    void clear() {
+        entries.clear();
+    }
+
+}
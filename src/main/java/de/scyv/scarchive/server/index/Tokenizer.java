@@ -0,0 +1,39 @@
+package de.scyv.scarchive.server.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits text into lower case terms (sequences of letters and digits).
+ */
+public final class Tokenizer {
+
+    private Tokenizer() {
+    }
+
+    /**
+     * Split the given text into terms.
+     *
+     * @param text
+     *            the text to split. Must not be <code>null</code>.
+     * @return the terms in order of their occurrence. Never <code>null</code>.
+     */
+    public static List<String> tokenize(String text) {
+        final List<String> terms = new ArrayList<>();
+        final StringBuilder term = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                term.append(Character.toLowerCase(c));
+            } else if (term.length() > 0) {
+                terms.add(term.toString());
+                term.setLength(0);
+            }
+        }
+        if (term.length() > 0) {
+            terms.add(term.toString());
+        }
+        return terms;
+    }
+
+}
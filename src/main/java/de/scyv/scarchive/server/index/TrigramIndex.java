@@ -0,0 +1,162 @@
+package de.scyv.scarchive.server.index;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the character trigrams that occur in the documents.
+ *
+ * The index does not answer whether a document contains a string, it only
+ * narrows down the candidates: every document that contains the string is
+ * returned, but not every returned document contains it. Candidates have to be
+ * verified against the actual text afterwards. The ids are kept compressed
+ * (see {@link DocumentIds}).
+ *
+ * Not thread safe, the {@link SearchIndex} takes care of locking.
+ */
+class TrigramIndex {
+
+    private final Map<Long, DocumentIds> postings = new HashMap<>();
+
+    /**
+     * Collect the trigrams of a text.
+     *
+     * @param text
+     *            the (already normalized) text. Must not be <code>null</code>.
+     * @param trigrams
+     *            the set to add the trigrams to. Must not be <code>null</code>.
+     */
+    static void collectTrigrams(String text, Set<Long> trigrams) {
+        for (int i = 0; i + 3 <= text.length(); i++) {
+            trigrams.add(trigram(text.charAt(i), text.charAt(i + 1), text.charAt(i + 2)));
+        }
+    }
+
+    /**
+     * Add a document. Documents must be added in ascending id order.
+     *
+     * @param documentId
+     *            the id of the document.
+     * @param trigrams
+     *            the trigrams of the document (see
+     *            {@link #collectTrigrams(String, Set)}).
+     */
+    void add(int documentId, Set<Long> trigrams) {
+        for (final Long trigram : trigrams) {
+            DocumentIds ids = postings.get(trigram);
+            if (ids == null) {
+                ids = new DocumentIds();
+                postings.put(trigram, ids);
+            }
+            ids.add(documentId);
+        }
+    }
+
+    /**
+     * Get the ids of all documents that may contain the given string.
+     *
+     * Strings with less than three characters are looked up by all trigrams
+     * that contain them.
+     *
+     * @param string
+     *            the (already normalized) string. Must not be <code>null</code>
+     *            or empty.
+     * @return sorted document ids. Never <code>null</code>.
+     */
+    int[] candidates(String string) {
+        if (string.length() < 3) {
+            return shortStringCandidates(string);
+        }
+        final Set<Long> trigrams = new HashSet<>();
+        collectTrigrams(string, trigrams);
+        final List<DocumentIds> sets = new ArrayList<>();
+        for (final Long trigram : trigrams) {
+            final DocumentIds ids = postings.get(trigram);
+            if (ids == null) {
+                return new int[0];
+            }
+            sets.add(ids);
+        }
+        return DocumentIds.intersect(sets);
+    }
+
+    /**
+     * Add the documents of another index with new ids. Removed documents are
+     * dropped. The mapping must keep the order of the ids and map them above
+     * the ids of this index.
+     *
+     * @param other
+     *            the index to add. Must not be <code>null</code>.
+     * @param newIds
+     *            the new id by id of the other index, -1 for removed documents.
+     *            Must not be <code>null</code>.
+     */
+    void addAll(TrigramIndex other, int[] newIds) {
+        other.postings.forEach((trigram, ids) -> {
+            DocumentIds mergedIds = postings.get(trigram);
+            if (mergedIds == null) {
+                mergedIds = new DocumentIds();
+                postings.put(trigram, mergedIds);
+            }
+            mergedIds.addAll(ids, newIds);
+        });
+        postings.values().removeIf(ids -> ids.size() == 0);
+    }
+
+    /**
+     * Release the memory reserved for documents to come.
+     */
+    void trim() {
+        postings.values().forEach(DocumentIds::trim);
+    }
+
+    void clear() {
+        postings.clear();
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(postings.size());
+        for (final Map.Entry<Long, DocumentIds> entry : postings.entrySet()) {
+            out.writeLong(entry.getKey());
+            entry.getValue().write(out);
+        }
+    }
+
+    void read(DataInputStream in) throws IOException {
+        clear();
+        final int trigramCount = in.readInt();
+        for (int i = 0; i < trigramCount; i++) {
+            final long trigram = in.readLong();
+            final DocumentIds ids = new DocumentIds();
+            ids.read(in);
+            postings.put(trigram, ids);
+        }
+    }
+
+    private int[] shortStringCandidates(String string) {
+        final BitSet ids = new BitSet();
+        postings.forEach((trigram, trigramIds) -> {
+            if (toString(trigram).contains(string)) {
+                trigramIds.addTo(ids);
+            }
+        });
+        return ids.stream().toArray();
+    }
+
+    private static long trigram(char c1, char c2, char c3) {
+        return ((long) c1 << 32) | ((long) c2 << 16) | c3;
+    }
+
+    private static String toString(long trigram) {
+        return new String(new char[] { (char) (trigram >>> 32), (char) (trigram >>> 16), (char) trigram });
+    }
+
+}
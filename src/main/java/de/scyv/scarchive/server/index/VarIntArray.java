@@ -0,0 +1,104 @@
+package de.scyv.scarchive.server.index;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Growable array of variable length encoded, non-negative ints: seven bits per
+ * byte, the high bit marks that more bytes follow. Small values (e.g. the
+ * deltas of ascending ids) take a single byte.
+ *
+ * Not thread safe, the {@link SearchIndex} takes care of locking.
+ */
+final class VarIntArray {
+
+    private byte[] bytes = new byte[8];
+
+    private int length = 0;
+
+    /**
+     * Append a value.
+     *
+     * @param value
+     *            the value, must not be negative.
+     */
+    void add(int value) {
+        if (length + 5 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(length + 5, bytes.length * 3 / 2));
+        }
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            bytes[length++] = (byte) ((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        bytes[length++] = (byte) remaining;
+    }
+
+    /**
+     * Read the value that starts at a position. The next value starts at
+     * <code>position + size(value)</code>.
+     *
+     * @param position
+     *            the position of the first byte of the value.
+     * @return the value.
+     */
+    int get(int position) {
+        int value = 0;
+        int shift = 0;
+        int current = position;
+        byte b;
+        do {
+            b = bytes[current++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Get the number of bytes of an encoded value.
+     *
+     * @param value
+     *            the value, must not be negative.
+     * @return the number of bytes, 1 to 5.
+     */
+    static int size(int value) {
+        int size = 1;
+        for (int remaining = value >>> 7; remaining != 0; remaining >>>= 7) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Get the number of bytes in use, i.e. the position of the next value.
+     *
+     * @return the length in bytes.
+     */
+    int length() {
+        return length;
+    }
+
+    /**
+     * Release the memory reserved for values to come.
+     */
+    void trim() {
+        if (bytes.length > length) {
+            bytes = Arrays.copyOf(bytes, length);
+        }
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(length);
+        out.write(bytes, 0, length);
+    }
+
+    void read(DataInputStream in) throws IOException {
+        length = in.readInt();
+        bytes = new byte[length];
+        in.readFully(bytes);
+    }
+
+}
@@ -0,0 +1,108 @@
+package de.scyv.scarchive.server.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+
+import de.scyv.scarchive.server.index.TextAnalyzer;
+
+/**
+ * Splits a text into the terms of the {@link TextAnalyzer}, so the Lucene index
+ * is built with the steps of <code>scarchive.index.analysis</code> like the
+ * {@link de.scyv.scarchive.server.index.SearchIndex}.
+ *
+ * The text of a field is read completely before its first term is returned.
+ */
+final class AnalyzingTokenizer extends Tokenizer {
+
+    private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+
+    private final OffsetAttribute offsetAttribute = addAttribute(OffsetAttribute.class);
+
+    private final TextAnalyzer analyzer;
+
+    private final List<String> terms = new ArrayList<>();
+
+    private final List<int[]> occurrences = new ArrayList<>();
+
+    private int next;
+
+    private int textLength;
+
+    /**
+     * Create instance.
+     *
+     * @param analyzer
+     *            the analyzer of the terms. Must not be <code>null</code>.
+     */
+    AnalyzingTokenizer(TextAnalyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Create a Lucene analyzer that uses this tokenizer for all fields.
+     *
+     * @param analyzer
+     *            the analyzer of the terms. Must not be <code>null</code>.
+     * @return the Lucene analyzer. Never <code>null</code>.
+     */
+    static Analyzer createAnalyzer(TextAnalyzer analyzer) {
+        return new Analyzer() {
+
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                return new TokenStreamComponents(new AnalyzingTokenizer(analyzer));
+            }
+        };
+    }
+
+    @Override
+    public boolean incrementToken() {
+        if (next >= terms.size()) {
+            return false;
+        }
+        clearAttributes();
+        final int[] occurrence = occurrences.get(next);
+        termAttribute.setEmpty().append(terms.get(next));
+        offsetAttribute.setOffset(correctOffset(occurrence[0]), correctOffset(occurrence[0] + occurrence[1]));
+        next++;
+        return true;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        final StringBuilder text = new StringBuilder();
+        final char[] buffer = new char[8192];
+        for (int read = input.read(buffer); read >= 0; read = input.read(buffer)) {
+            text.append(buffer, 0, read);
+        }
+        terms.clear();
+        occurrences.clear();
+        analyzer.analyze(text.toString(), (term, offset, length) -> {
+            terms.add(term);
+            occurrences.add(new int[] { offset, length });
+        });
+        next = 0;
+        textLength = text.length();
+    }
+
+    @Override
+    public void end() throws IOException {
+        super.end();
+        offsetAttribute.setOffset(correctOffset(textLength), correctOffset(textLength));
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        terms.clear();
+        occurrences.clear();
+    }
+
+}
@@ -1,18 +1,21 @@
 package de.scyv.scarchive.server.search;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,6 +24,10 @@ import org.springframework.stereotype.Service;
 
 import de.scyv.scarchive.server.MetaData;
 import de.scyv.scarchive.server.MetaDataService;
+import de.scyv.scarchive.server.index.Normalizer;
+import de.scyv.scarchive.server.index.TagCounts;
+import de.scyv.scarchive.server.search.query.Query;
+import de.scyv.scarchive.server.search.query.QueryParser;
 
 /**
  * Service for finding documents by query.
@@ -33,205 +40,282 @@ public class DocumentFinder {
     @Value("${scarchive.maxSearchResults}")
     private Integer maxSearchResults;
 
-    @Value("${scarchive.documentPaths}")
-    private String documentPaths;
+    @Value("${scarchive.search.backend}")
+    private String backendName;
+
+    @Value("${scarchive.newest.days}")
+    private Integer newestDays;
+
+    @Value("${scarchive.newest.limit}")
+    private Integer newestLimit;
+
+    private final List<SearchBackend> backends;
+
+    private final SearchResultCache searchResultCache;
 
     private final MetaDataService metaDataService;
 
-    public DocumentFinder(MetaDataService metaDataService) {
+    /**
+     * Create the finder.
+     *
+     * @param backends
+     *            all available backends, one of them is selected by
+     *            <code>scarchive.search.backend</code>.
+     * @param searchResultCache
+     *            the cache of the findings of recent searches.
+     * @param metaDataService
+     *            the service that locates the page texts.
+     */
+    public DocumentFinder(List<SearchBackend> backends, SearchResultCache searchResultCache,
+            MetaDataService metaDataService) {
+        this.backends = backends;
+        this.searchResultCache = searchResultCache;
         this.metaDataService = metaDataService;
     }
 
+    /**
+     * Check that the selected backend exists.
+     */
+    @PostConstruct
+    public void checkBackend() {
+        if (backends.stream().noneMatch(backend -> backend.getName().equals(backendName))) {
+            LOGGER.warn("Unknown search backend " + backendName + ". Searching the document paths instead.");
+        }
+    }
+
     /**
      * Find documents by a search string.
      *
-     * When containing blank, the string is splitted and an OR search is done.
+     * The search string is parsed by the {@link QueryParser}: words separated by
+     * blanks must all match, <code>OR</code>, <code>NOT</code>/<code>-</code>,
+     * quoted phrases, parentheses and the fields <code>title:</code>,
+     * <code>tag:</code>, <code>path:</code> and <code>date:</code> are supported.
+     *
+     * The search is answered by the {@link SearchBackend} selected with
+     * <code>scarchive.search.backend</code> once it is ready, until then by the
+     * {@link FileSystemSearchBackend}. The findings are ordered as defined by
+     * the backend (see {@link SearchBackend#getOrder()}). The findings of recent
+     * queries are served from the {@link SearchResultCache}.
      *
      * @param searchString
      *            the search string.
      * @return list of findins. Empty list, if nothing could be found.
      */
     public Set<Finding> find(String searchString) {
-        final List<String> searchStrings = Arrays.asList(searchString.toLowerCase().split(" "));
-        final Map<String, Finding> findings = new HashMap<>();
-        Arrays.asList(documentPaths.split(";")).parallelStream().forEach(documentPath -> {
-            LOGGER.info("Searching " + documentPath + "...");
-            try {
-                Files.walk(Paths.get(documentPath)).filter(this::isMetaDataDir).forEach(path -> {
-                    findBySearchStrings(path, searchStrings, findings);
-                });
-            } catch (final IOException ex) {
-                LOGGER.error("Cannot walk the path: " + documentPath, ex);
-            }
-        });
-        final TreeSet<Finding> sortedFindings = new TreeSet<>(new Finding.LatestUpdateComparator());
-        sortedFindings.addAll(findings.values());
-        return Collections.unmodifiableSortedSet(sortedFindings);
+        final Query query = QueryParser.parse(searchString);
+        if (query == null) {
+            return Collections.emptySortedSet();
+        }
+        final SearchBackend backend = getBackend();
+        final Set<Finding> cachedFindings = searchResultCache.get(SearchResultCache.key(query, backend.getName()));
+        if (cachedFindings != null) {
+            LOGGER.debug("Found cached findings for " + query);
+            return cachedFindings;
+        }
+        final SearchCursor cursor = search(query, backend);
+        final List<Finding> findings = new ArrayList<>();
+        while (cursor.hasMore()) {
+            findings.addAll(cursor.next(maxSearchResults));
+        }
+        return sort(findings, backend);
     }
 
     /**
-     * Find the newest entries.
+     * Find a page of the documents that match a search string.
      *
-     * @return list of findins. Empty list, if nothing could be found.
+     * Same as {@link #find(String)}, but only the requested findings are
+     * computed, unless the findings of the query are cached.
+     *
+     * @param searchString
+     *            the search string. Must not be <code>null</code>.
+     * @param offset
+     *            the amount of findings to skip.
+     * @param limit
+     *            the maximum amount of findings to return.
+     * @return the findings, never <code>null</code>.
      */
-    public Set<Finding> findNewest() {
-
-        final Map<String, Finding> findings = new HashMap<>();
-        final Calendar cal = Calendar.getInstance();
-        cal.add(Calendar.DAY_OF_MONTH, -2);
-        Arrays.asList(documentPaths.split(";")).parallelStream().forEach(documentPath -> {
-            LOGGER.info("Searching " + documentPath + "...");
-            try {
-                Files.walk(Paths.get(documentPath)).filter(this::isMetaDataDir).forEach(path -> {
-                    findByCalendar(path, cal, findings);
-                });
-            } catch (final IOException ex) {
-                LOGGER.error("Cannot walk the path: " + documentPath, ex);
-            }
-        });
-        final TreeSet<Finding> sortedFindings = new TreeSet<>(new Finding.LatestUpdateComparator());
-        sortedFindings.addAll(findings.values());
-        return Collections.unmodifiableSortedSet(sortedFindings);
+    public List<Finding> find(String searchString, int offset, int limit) {
+        final SearchCursor cursor = search(searchString);
+        cursor.next(offset);
+        return cursor.next(limit);
     }
 
-    private void findByCalendar(Path path, Calendar cal, Map<String, Finding> findings) {
-        try {
-            Files.walk(path).filter(metaDataPath -> {
-                try {
-                    if (metaDataPath.toString().endsWith(".json")) {
-                        return Files.getLastModifiedTime(metaDataPath).toMillis() > cal.getTimeInMillis();
-                    }
-                } catch (final IOException ex) {
-                    LOGGER.error("Cannot get last modified time of: " + metaDataPath, ex);
-                }
-                return false;
-            }).forEach(metaDataPath -> {
-                if (findings.size() >= maxSearchResults) {
-                    return;
-                }
-                final MetaData metaData = createMetaData(metaDataPath);
-                if (!Files.exists(metaDataService.getOriginalFilePath(metaData))) {
-                    try {
-                        Files.delete(metaDataPath);
-                        return;
-                    } catch (final IOException ioe) {
-                        LOGGER.error("Cannot delete meta data file: " + metaDataPath, ioe);
-                    }
-                }
-
-                final Finding finding = new Finding();
-                finding.setMetaData(metaData);
-                finding.setContext(metaData.getText());
-
-                findings.put(metaDataPath.toString(), finding);
-            });
-        } catch (final IOException ex) {
-            LOGGER.error("Cannot walk the path: " + path, ex);
+    /**
+     * Search for documents by a search string and fetch the findings page by
+     * page from the returned cursor.
+     *
+     * The findings come in the order of {@link #find(String)} when they are
+     * answered by the cache or a backend that finds them in order. The
+     * {@link FileSystemSearchBackend} returns them in the order they are found.
+     * Once all findings have been fetched, they are cached.
+     *
+     * @param searchString
+     *            the search string (see {@link #find(String)}). Must not be
+     *            <code>null</code>.
+     * @return the cursor, never <code>null</code>.
+     */
+    public SearchCursor search(String searchString) {
+        final Query query = QueryParser.parse(searchString);
+        if (query == null) {
+            return SearchCursor.of(Collections.emptyList());
         }
+        final SearchBackend backend = getBackend();
+        final Set<Finding> cachedFindings = searchResultCache.get(SearchResultCache.key(query, backend.getName()));
+        if (cachedFindings != null) {
+            LOGGER.debug("Found cached findings for " + query);
+            return SearchCursor.of(cachedFindings);
+        }
+        return search(query, backend);
     }
 
-    private void findBySearchStrings(Path path, List<String> searchStrings, Map<String, Finding> findings) {
-        searchStrings.parallelStream().forEach(searchString -> {
-            try {
-                Files.walk(path).filter(Files::isRegularFile).forEach(metaDataPath -> {
-                    if (findings.size() >= maxSearchResults) {
-                        return;
-                    }
-                    if (metaDataPath.toString().endsWith(".txt")) {
-                        findInTextDataFile(metaDataPath, searchString, findings);
-                    } else if (metaDataPath.toString().endsWith(".json")) {
-                        findInMetaData(metaDataPath, searchString, findings);
-                    }
-                });
-            } catch (final IOException ex) {
-                LOGGER.error("Cannot walk the path: " + path, ex);
-            }
-        });
+    /**
+     * Count the documents that match a search string per tag, by the backend
+     * (see {@link SearchBackend#countTags(Query)}). Without a search string,
+     * all documents of the archive are counted. No documents are searched for
+     * the counts, so they may be upper bounds (see {@link TagCounts#isExact()}).
+     *
+     * @param searchString
+     *            the search string, may be empty. Must not be <code>null</code>.
+     * @return amount of documents by normalized tag, <code>null</code> if the
+     *         backend cannot count them, e.g. while the index is not ready. Use
+     *         {@link #countTags(Collection)} with the findings fetched so far
+     *         then.
+     */
+    public TagCounts countTags(String searchString) {
+        return getBackend().countTags(QueryParser.parse(searchString));
     }
 
-    private void findInMetaData(Path metaDataPath, String searchString, Map<String, Finding> findings) {
-        if (findings.size() >= maxSearchResults) {
-            return;
-        }
-
-        try {
-            final MetaData metaData = createMetaData(metaDataPath);
-            final Path originalFilePath = metaDataService.getOriginalFilePath(metaData);
-            if (!Files.exists(originalFilePath)) {
-                Files.delete(metaDataPath);
-                return;
-            }
-
-            String context = "";
-            if (metaData.getText().toLowerCase().contains(searchString)
-                    || String.join(",", metaData.getTags()).toLowerCase().contains(searchString)
-                    || metaData.getTitle().toLowerCase().contains(searchString)
-                    || metaDataPath.toString().contains(searchString)) {
-                context = metaData.getText();
-            }
-
-            if (!context.isEmpty() && findings.get(originalFilePath.toString()) == null) {
-                final Finding finding = new Finding();
-                finding.setMetaData(metaData);
-                finding.setContext(context);
-                findings.put(originalFilePath.toString(), finding);
-            }
+    /**
+     * Count the documents per tag among some findings, e.g. those that have
+     * been fetched so far.
+     *
+     * @param findings
+     *            the findings. Must not be <code>null</code>.
+     * @return amount of findings by normalized tag, sorted by tag. Never
+     *         <code>null</code>.
+     */
+    public Map<String, Integer> countTags(Collection<Finding> findings) {
+        final Map<String, Integer> counts = new TreeMap<>();
+        findings.forEach(finding -> finding.getMetaData().getTags().stream().map(Normalizer::normalize).distinct()
+                .forEach(tag -> counts.merge(tag, 1, Integer::sum)));
+        return counts;
+    }
 
-        } catch (final IOException ex) {
-            LOGGER.error("Cannot read meta data file: " + metaDataPath, ex);
+    /**
+     * Suggest completions of the last word of a search string, by the terms,
+     * titles and tags known to the backend (see
+     * {@link SearchBackend#suggest(String, int)}).
+     *
+     * @param searchString
+     *            the search string as typed so far. Must not be
+     *            <code>null</code>.
+     * @param limit
+     *            the maximum amount of suggestions.
+     * @return the completed search strings, most frequent completion first.
+     *         Never <code>null</code>.
+     */
+    public List<String> suggest(String searchString, int limit) {
+        if (searchString.isEmpty()
+                || Character.isWhitespace(searchString.charAt(searchString.length() - 1))) {
+            return Collections.emptyList();
         }
+        int start = searchString.length();
+        while (start > 0 && !Character.isWhitespace(searchString.charAt(start - 1))) {
+            start--;
+        }
+        if (searchString.charAt(start) == '-') {
+            start++;
+        }
+        final String word = searchString.substring(start);
+        if (word.length() < 2 || !word.matches("[\\p{L}\\p{N}]+")) {
+            // operators, fields and phrases are not completed
+            return Collections.emptyList();
+        }
+        final String head = searchString.substring(0, start);
+        final List<String> suggestions = new ArrayList<>();
+        for (final String suggestion : getBackend().suggest(word, limit)) {
+            suggestions.add(head + (suggestion.matches("[\\p{L}\\p{N}]+") ? suggestion
+                    : "\"" + suggestion.replace("\"", "") + "\""));
+        }
+        return suggestions;
     }
 
-    private void findInTextDataFile(Path textDataPath, String searchString, Map<String, Finding> findings) {
+    /**
+     * Create the context of a finding within one of its pages (see
+     * {@link Finding#getPages()}), e.g. to jump to that page. Only the text of
+     * the page is read.
+     *
+     * @param finding
+     *            the finding. Must not be <code>null</code>.
+     * @param page
+     *            the page, 0 for the text of the meta data.
+     * @return the HTML of the snippet around the hits on the page, empty if the
+     *         page cannot be read. Never <code>null</code>.
+     */
+    public String createContext(Finding finding, int page) {
+        final Path metaDataPath = finding.getMetaData().getFilePath();
         try {
-            Files.readAllLines(textDataPath).parallelStream().forEach(line -> {
-                if (line.replaceAll("\\s", "").toLowerCase().contains(searchString)) {
-                    LOGGER.debug("Found something in " + textDataPath + ": " + line);
-                    Finding finding = findings.get(textDataPath.toString());
-                    if (finding == null) {
-                        finding = new Finding();
-                        finding.setMetaData(createMetaData(textDataPath));
-                        finding.setContext(line);
-                    } else {
-                        finding.setContext(finding.getContext() + "<br><br>...<br><br>" + line);
-                    }
-                    findings.put(textDataPath.toString(), finding);
-                }
-            });
+            final String text;
+            if (page == 0) {
+                text = MetaData.createFromFile(metaDataPath).getText();
+            } else {
+                text = new String(Files.readAllBytes(
+                        metaDataService.getPageTextPath(metaDataService.getOriginalFilePath(metaDataPath), page)),
+                        StandardCharsets.UTF_8);
+            }
+            return Findings.createContext(text == null ? "" : text, finding.getHits(), page);
         } catch (final IOException ex) {
-            LOGGER.error("Cannot walk the path: " + textDataPath, ex);
+            LOGGER.warn("Cannot read page " + page + " of " + metaDataPath, ex);
+            return "";
         }
     }
 
-    private MetaData createMetaData(Path path) {
-
-        MetaData metaData;
+    private SearchCursor search(Query query, SearchBackend backend) {
+        LOGGER.debug("Searching for " + query + " with the " + backend.getName() + " backend");
+        final String key = SearchResultCache.key(query, backend.getName());
+        final long generation = searchResultCache.getGeneration();
+        final Supplier<Finding> findings = backend.find(query);
+        return new SearchCursor(findings, maxSearchResults,
+                allFindings -> searchResultCache.put(key, query, sort(allFindings, backend), generation));
+    }
 
-        final Path metaDataFile = Paths.get(path.toString().replaceAll("_\\d+\\.png\\.txt$", ".meta.json"));
+    private Set<Finding> sort(List<Finding> findings, SearchBackend backend) {
+        final TreeSet<Finding> sortedFindings = new TreeSet<>(backend.getOrder());
+        sortedFindings.addAll(findings);
+        return Collections.unmodifiableSortedSet(sortedFindings);
+    }
 
-        try {
-            metaData = MetaData.createFromFile(metaDataFile);
-            if (metaData.getLastUpdateMetaData() == null) {
-                metaData.setLastUpdateMetaData(new Date(Files.getLastModifiedTime(metaDataFile).toMillis()));
+    /**
+     * Get the selected backend, or the {@link FileSystemSearchBackend} while it
+     * is not ready.
+     */
+    private SearchBackend getBackend() {
+        SearchBackend fallback = null;
+        for (final SearchBackend backend : backends) {
+            if (backend.getName().equals(backendName) && backend.isReady()) {
+                return backend;
             }
-        } catch (final IOException e) {
-            LOGGER.warn("Cannot open metaDataFile " + metaDataFile + ". Creating one for you...");
-            final String originFileName = Paths.get(path.toString().replaceAll("_\\d+\\.png\\.txt$", "")).getFileName()
-                    .toString();
-            metaData = new MetaData();
-            metaData.setTitle(originFileName);
-            metaData.getThumbnailPaths()
-                    .add(Paths.get(("thumb_" + path.getFileName()).replaceAll("\\.txt$", "")).toString());
-            try {
-                metaData.saveToFile(metaDataFile);
-            } catch (final IOException ioe) {
-                ioe.printStackTrace();
+            if (backend.getName().equals(FileSystemSearchBackend.NAME)) {
+                fallback = backend;
             }
         }
-        return metaData;
+        return fallback;
     }
 
-    private boolean isMetaDataDir(Path path) {
-        return Files.isDirectory(path) && path.endsWith(".scarchive");
+    /**
+     * Find the newest entries.
+     *
+     * These are the <code>scarchive.newest.limit</code> documents whose meta
+     * data has been updated most recently, within the last
+     * <code>scarchive.newest.days</code> days.
+     *
+     * @return list of findins. Empty list, if nothing could be found.
+     */
+    public Set<Finding> findNewest() {
+
+        final Calendar cal = Calendar.getInstance();
+        cal.add(Calendar.DAY_OF_MONTH, -newestDays);
+        return getBackend().findNewest(cal.getTimeInMillis(), newestLimit);
     }
+
 }
@@ -0,0 +1,277 @@
+package de.scyv.scarchive.server.search;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import de.scyv.scarchive.server.MetaData;
+import de.scyv.scarchive.server.MetaDataService;
+import de.scyv.scarchive.server.index.TagCounts;
+import de.scyv.scarchive.server.index.TextAnalyzer;
+import de.scyv.scarchive.server.search.query.Query;
+
+/**
+ * Answers queries by walking all document paths and checking every document
+ * (see {@link QueryMatcher}). Needs no index and is always ready, so it is the
+ * fallback of all other backends.
+ *
+ * The findings come in the order they are found and are sorted by
+ * {@link Finding.LatestUpdateComparator} once complete.
+ */
+@Service
+public class FileSystemSearchBackend implements SearchBackend {
+
+    public static final String NAME = "filesystem";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileSystemSearchBackend.class);
+
+    @Value("${scarchive.documentPaths}")
+    private String documentPaths;
+
+    private final MetaDataService metaDataService;
+
+    private final SearchExecutor searchExecutor;
+
+    private final TextAnalyzer analyzer;
+
+    public FileSystemSearchBackend(MetaDataService metaDataService, SearchExecutor searchExecutor,
+            TextAnalyzer analyzer) {
+        this.metaDataService = metaDataService;
+        this.searchExecutor = searchExecutor;
+        this.analyzer = analyzer;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public Supplier<Finding> find(Query query) {
+        return new DocumentPathWalk(query);
+    }
+
+    @Override
+    public Comparator<Finding> getOrder() {
+        return new Finding.LatestUpdateComparator();
+    }
+
+    @Override
+    public TagCounts countTags(Query query) {
+        return null;
+    }
+
+    @Override
+    public List<String> suggest(String prefix, int limit) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Set<Finding> findNewest(long from, int limit) {
+        // each document path is walked by its own task into its own buffer
+        final List<Map<String, Finding>> buffers = searchExecutor.map(Arrays.asList(documentPaths.split(";")),
+                documentPath -> {
+                    LOGGER.info("Searching " + documentPath + "...");
+                    final Map<String, Finding> findings = new HashMap<>();
+                    try {
+                        Files.walk(Paths.get(documentPath)).filter(this::isMetaDataDir).forEach(path -> {
+                            findByTime(path, from, limit, findings);
+                        });
+                    } catch (final IOException ex) {
+                        LOGGER.error("Cannot walk the path: " + documentPath, ex);
+                    }
+                    return findings;
+                });
+        final TreeSet<Finding> sortedFindings = new TreeSet<>(new Finding.LatestUpdateComparator());
+        buffers.forEach(findings -> sortedFindings.addAll(findings.values()));
+        while (sortedFindings.size() > limit) {
+            sortedFindings.pollLast();
+        }
+        return Collections.unmodifiableSortedSet(sortedFindings);
+    }
+
+    private void findByTime(Path path, long from, int limit, Map<String, Finding> findings) {
+        try {
+            Files.walk(path).filter(metaDataPath -> {
+                try {
+                    if (metaDataPath.toString().endsWith(".json")) {
+                        return Files.getLastModifiedTime(metaDataPath).toMillis() > from;
+                    }
+                } catch (final IOException ex) {
+                    LOGGER.error("Cannot get last modified time of: " + metaDataPath, ex);
+                }
+                return false;
+            }).forEach(metaDataPath -> {
+                if (findings.size() >= limit) {
+                    return;
+                }
+                final MetaData metaData = createMetaData(metaDataPath);
+                if (!Files.exists(metaDataService.getOriginalFilePath(metaData))) {
+                    // orphaned, removed by the OrphanCollector
+                    return;
+                }
+
+                findings.put(metaDataPath.toString(), Findings.preview(metaData));
+            });
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot walk the path: " + path, ex);
+        }
+    }
+
+    private Finding findInDocument(Path metaDataPath, Map<Integer, Path> pageTextPaths, Query query) {
+        final Path originalFilePath = metaDataService.getOriginalFilePath(metaDataPath);
+        try {
+            if (!Files.exists(originalFilePath)) {
+                // orphaned, removed by the OrphanCollector
+                return null;
+            }
+            final QueryMatcher matcher = QueryMatcher.forFile(createMetaData(metaDataPath), metaDataPath,
+                    originalFilePath, pageTextPaths, analyzer);
+            final Finding finding = Findings.create(matcher, query, false, Collections.emptyList());
+            if (finding != null) {
+                LOGGER.debug("Found something in " + metaDataPath);
+            }
+            return finding;
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot read meta data file: " + metaDataPath, ex);
+            return null;
+        }
+    }
+
+    private MetaData createMetaData(Path path) {
+
+        MetaData metaData;
+
+        final Path metaDataFile = Paths.get(path.toString().replaceAll("_\\d+\\.png\\.txt$", ".meta.json"));
+
+        try {
+            metaData = MetaData.createFromFile(metaDataFile);
+            if (metaData.getLastUpdateMetaData() == null) {
+                metaData.setLastUpdateMetaData(new Date(Files.getLastModifiedTime(metaDataFile).toMillis()));
+            }
+        } catch (final IOException e) {
+            LOGGER.warn("Cannot open metaDataFile " + metaDataFile + ". Using the file name as title.");
+            final String originFileName = Paths.get(path.toString().replaceAll("_\\d+\\.png\\.txt$", "")).getFileName()
+                    .toString();
+            metaData = new MetaData();
+            metaData.setTitle(originFileName);
+            metaData.setFilePath(metaDataFile);
+            metaData.getThumbnailPaths()
+                    .add(Paths.get(("thumb_" + path.getFileName()).replaceAll("\\.txt$", "")).toString());
+        }
+        return metaData;
+    }
+
+    private boolean isMetaDataDir(Path path) {
+        return Files.isDirectory(path) && path.endsWith(".scarchive");
+    }
+
+    /**
+     * Walks the document paths lazily and checks the documents in batches on the
+     * {@link SearchExecutor}. The meta data files of the listed directories form
+     * a queue, a batch may span several directories. Directories are listed one
+     * at a time and only when the queue runs empty, so an abandoned walk does not
+     * keep any directory open.
+     */
+    private class DocumentPathWalk implements Supplier<Finding> {
+
+        private final Query query;
+
+        private final Deque<Path> directories = new ArrayDeque<>();
+
+        private final Deque<Path> metaDataPaths = new ArrayDeque<>();
+
+        private final Map<Path, Map<Integer, Path>> pageTextPaths = new HashMap<>();
+
+        private final Deque<Finding> found = new ArrayDeque<>();
+
+        DocumentPathWalk(Query query) {
+            this.query = query;
+            for (final String documentPath : documentPaths.split(";")) {
+                directories.add(Paths.get(documentPath));
+            }
+        }
+
+        @Override
+        public Finding get() {
+            while (found.isEmpty()) {
+                final List<Path> batch = new ArrayList<>();
+                while (batch.size() < searchExecutor.getParallelism()
+                        && (!metaDataPaths.isEmpty() || !directories.isEmpty())) {
+                    if (metaDataPaths.isEmpty()) {
+                        listDirectory(directories.pop());
+                    } else {
+                        batch.add(metaDataPaths.poll());
+                    }
+                }
+                if (batch.isEmpty()) {
+                    return null;
+                }
+                // the findings keep the order of the paths
+                final List<Map<Integer, Path>> batchPageTextPaths = new ArrayList<>();
+                batch.forEach(path -> batchPageTextPaths.add(pageTextPaths.remove(path)));
+                final List<Integer> indexes = new ArrayList<>();
+                for (int i = 0; i < batch.size(); i++) {
+                    indexes.add(i);
+                }
+                searchExecutor
+                        .map(indexes, i -> findInDocument(batch.get(i), batchPageTextPaths.get(i), query))
+                        .stream().filter(Objects::nonNull).forEach(found::add);
+            }
+            return found.poll();
+        }
+
+        private void listDirectory(Path directory) {
+            final List<Path> entries = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                stream.forEach(entries::add);
+            } catch (final IOException ex) {
+                LOGGER.error("Cannot walk the path: " + directory, ex);
+                return;
+            }
+            if (isMetaDataDir(directory)) {
+                final Map<String, Map<Integer, Path>> directoryPageTextPaths = metaDataService
+                        .getPageTextPaths(entries);
+                entries.stream()
+                        .filter(path -> path.getFileName().toString().endsWith(MetaDataService.META_DATA_SUFFIX))
+                        .sorted().forEach(metaDataPath -> {
+                            final Map<Integer, Path> pages = directoryPageTextPaths
+                                    .get(metaDataService.getOriginalFilePath(metaDataPath).getFileName().toString());
+                            pageTextPaths.put(metaDataPath, pages == null ? Collections.emptyMap() : pages);
+                            metaDataPaths.add(metaDataPath);
+                        });
+            }
+            final List<Path> subDirectories = new ArrayList<>();
+            entries.stream().filter(Files::isDirectory).forEach(subDirectories::add);
+            // depth first, in name order
+            subDirectories.sort(Collections.reverseOrder());
+            subDirectories.forEach(directories::push);
+        }
+    }
+}
@@ -1,11 +1,20 @@
 package de.scyv.scarchive.server.search;
 
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import de.scyv.scarchive.server.MetaData;
+import de.scyv.scarchive.server.index.Hit;
 
 /**
  * Represents a finding of a document/note.
+ *
+ * To keep findings small, their meta data comes without the text (see
+ * {@link MetaData#getText()}) and only the first hits are kept. The text of a
+ * page is read when its context is requested (see
+ * {@link DocumentFinder#createContext(Finding, int)}).
  */
 public class Finding {
 
@@ -32,10 +41,32 @@ public class Finding {
 
     }
 
+    /**
+     * Orders by descending relevance score, findings with equal scores by
+     * {@link LatestUpdateComparator}.
+     */
+    public static class RelevanceComparator implements Comparator<Finding> {
+
+        private final LatestUpdateComparator latestUpdateComparator = new LatestUpdateComparator();
+
+        @Override
+        public int compare(Finding o1, Finding o2) {
+            if (o1 != null && o2 != null && o1.getScore() != o2.getScore()) {
+                return Float.compare(o2.getScore(), o1.getScore());
+            }
+            return latestUpdateComparator.compare(o1, o2);
+        }
+
+    }
+
     private MetaData metaData;
 
     private String context;
 
+    private List<Hit> hits = Collections.emptyList();
+
+    private float score;
+
     public MetaData getMetaData() {
         return metaData;
     }
@@ -52,6 +83,37 @@ public class Finding {
         this.context = context;
     }
 
+    /**
+     * Get the first hits of the search within the document.
+     *
+     * @return the hits, ordered by page and offset. Never <code>null</code>.
+     */
+    public List<Hit> getHits() {
+        return hits;
+    }
+
+    public void setHits(List<Hit> hits) {
+        this.hits = hits;
+    }
+
+    /**
+     * Get the pages with hits, e.g. to jump to them.
+     *
+     * @return the ascending page numbers, 0 for the text of the meta data. Never
+     *         <code>null</code>.
+     */
+    public List<Integer> getPages() {
+        return hits.stream().map(Hit::getPage).distinct().sorted().collect(Collectors.toList());
+    }
+
+    public float getScore() {
+        return score;
+    }
+
+    public void setScore(float score) {
+        this.score = score;
+    }
+
     @Override
     public int hashCode() {
         return this.getMetaData().getFilePath().hashCode();
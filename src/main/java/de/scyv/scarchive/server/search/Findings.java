@@ -0,0 +1,164 @@
+package de.scyv.scarchive.server.search;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import de.scyv.scarchive.server.MetaData;
+import de.scyv.scarchive.server.index.Hit;
+import de.scyv.scarchive.server.index.LevenshteinAutomaton;
+import de.scyv.scarchive.server.index.TextAnalyzer;
+import de.scyv.scarchive.server.search.query.Query;
+
+/**
+ * Creates the findings of the {@link SearchBackend}s.
+ */
+final class Findings {
+
+    /** The maximum amount of hits that are considered for a snippet. */
+    static final int MAX_HITS = 100;
+
+    private static final int MAX_WINDOWS = 3;
+
+    private Findings() {
+    }
+
+    /**
+     * Create the finding of a document, if it matches the query.
+     *
+     * The context is a snippet (see {@link Snippets}) around the first hits of
+     * the search strings and fuzzy terms of the query, in the text of the meta
+     * data or the page texts. The hits are taken from the backend, if it knows
+     * them, otherwise the texts are searched one after the other until enough
+     * hits are found. Only the page texts needed for the snippet are read.
+     * Without any hits, the context is the beginning of the text of the meta
+     * data.
+     *
+     * The finding keeps the hits (see {@link Finding#getHits()}) and the meta
+     * data without its text, so its size does not depend on the size of the
+     * document.
+     *
+     * @param matcher
+     *            the matcher of the document. Must not be <code>null</code>.
+     * @param query
+     *            the query. Must not be <code>null</code>.
+     * @param verified
+     *            whether the document is known to match.
+     * @param indexedHits
+     *            the hits known to the backend, may be empty. Must not be
+     *            <code>null</code>.
+     * @return the finding or <code>null</code>, if the document does not match.
+     */
+    static Finding create(QueryMatcher matcher, Query query, boolean verified, List<Hit> indexedHits)
+            throws IOException {
+        if (!verified && !matcher.matches(query)) {
+            return null;
+        }
+        final Finding finding = new Finding();
+        finding.setMetaData(withoutText(matcher.getMetaData()));
+        final String metaDataText = matcher.getMetaData().getText() == null ? "" : matcher.getMetaData().getText();
+        final List<String> windows = new ArrayList<>();
+        final List<Hit> hits = new ArrayList<>();
+        if (!indexedHits.isEmpty()) {
+            hits.addAll(indexedHits);
+            for (final Map.Entry<Integer, List<int[]>> pageHits : groupByPage(indexedHits).entrySet()) {
+                if (windows.size() >= MAX_WINDOWS) {
+                    break;
+                }
+                final String text = pageHits.getKey() == 0 ? metaDataText : matcher.getPageText(pageHits.getKey());
+                windows.addAll(Snippets.create(text, pageHits.getValue(), MAX_WINDOWS - windows.size()));
+            }
+        } else if (!query.getSearchStrings().isEmpty() || !query.getFuzzyQueries().isEmpty()) {
+            final List<String> searchStrings = query.getSearchStrings();
+            final TextAnalyzer analyzer = matcher.getAnalyzer();
+            final List<LevenshteinAutomaton> automata = query.getFuzzyQueries().stream()
+                    .map(fuzzyQuery -> new LevenshteinAutomaton(analyzer.analyzeTerm(fuzzyQuery.getTerm()),
+                            fuzzyQuery.getMaxEdits()))
+                    .collect(Collectors.toList());
+            final List<int[]> metaDataHits = Snippets.find(metaDataText, searchStrings, automata, analyzer,
+                    MAX_HITS);
+            addHits(0, metaDataHits, hits);
+            windows.addAll(Snippets.create(metaDataText, metaDataHits, MAX_WINDOWS));
+            for (final Iterator<Integer> pages = matcher.getPages().iterator(); pages.hasNext()
+                    && windows.size() < MAX_WINDOWS;) {
+                final int page = pages.next();
+                final String text = matcher.getPageText(page);
+                final List<int[]> pageHits = Snippets.find(text, searchStrings, automata, analyzer,
+                        MAX_HITS - hits.size());
+                if (!pageHits.isEmpty()) {
+                    addHits(page, pageHits, hits);
+                    windows.addAll(Snippets.create(text, pageHits, MAX_WINDOWS - windows.size()));
+                }
+            }
+        }
+        if (windows.isEmpty()) {
+            windows.addAll(Snippets.create(metaDataText, Collections.emptyList(), 1));
+        }
+        finding.setContext(String.join(Snippets.SEPARATOR, windows));
+        finding.setHits(hits);
+        return finding;
+    }
+
+    /**
+     * Create the context of a finding within the text of one page.
+     *
+     * @param text
+     *            the text of the page. Must not be <code>null</code>.
+     * @param hits
+     *            the hits of the finding, the ones on other pages are ignored.
+     *            Must not be <code>null</code>.
+     * @param page
+     *            the page.
+     * @return the HTML of the snippet, never <code>null</code>.
+     */
+    static String createContext(String text, List<Hit> hits, int page) {
+        final List<int[]> pageHits = groupByPage(hits).get(page);
+        return String.join(Snippets.SEPARATOR,
+                Snippets.create(text, pageHits == null ? Collections.emptyList() : pageHits, MAX_WINDOWS));
+    }
+
+    /**
+     * Create a finding without a query, e.g. for the newest documents. The
+     * context is the beginning of the text of the meta data.
+     *
+     * @param metaData
+     *            the meta data. Must not be <code>null</code>.
+     * @return the finding, never <code>null</code>.
+     */
+    static Finding preview(MetaData metaData) {
+        final Finding finding = new Finding();
+        finding.setMetaData(withoutText(metaData));
+        finding.setContext(String.join(Snippets.SEPARATOR,
+                Snippets.create(metaData.getText() == null ? "" : metaData.getText(), Collections.emptyList(), 1)));
+        return finding;
+    }
+
+    // {offset, length} of the hits by page
+    private static Map<Integer, List<int[]>> groupByPage(List<Hit> hits) {
+        final Map<Integer, List<int[]>> hitsByPage = new TreeMap<>();
+        hits.forEach(hit -> hitsByPage.computeIfAbsent(hit.getPage(), page -> new ArrayList<>())
+                .add(new int[] { hit.getOffset(), hit.getLength() }));
+        return hitsByPage;
+    }
+
+    private static void addHits(int page, List<int[]> pageHits, List<Hit> hits) {
+        pageHits.forEach(hit -> hits.add(new Hit(page, hit[0], hit[1])));
+    }
+
+    private static MetaData withoutText(MetaData metaData) {
+        final MetaData copy = new MetaData();
+        copy.setTitle(metaData.getTitle());
+        copy.setTags(metaData.getTags());
+        copy.setThumbnailPaths(metaData.getThumbnailPaths());
+        copy.setLastUpdateMetaData(metaData.getLastUpdateMetaData());
+        copy.setFilePath(metaData.getFilePath());
+        copy.setText(null);
+        return copy;
+    }
+
+}
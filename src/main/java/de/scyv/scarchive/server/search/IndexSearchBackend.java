@@ -0,0 +1,153 @@
+package de.scyv.scarchive.server.search;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import de.scyv.scarchive.server.MetaData;
+import de.scyv.scarchive.server.MetaDataService;
+import de.scyv.scarchive.server.index.IndexedDocument;
+import de.scyv.scarchive.server.index.RankedCandidates;
+import de.scyv.scarchive.server.index.ScoredDocument;
+import de.scyv.scarchive.server.index.SearchIndex;
+import de.scyv.scarchive.server.index.TagCounts;
+import de.scyv.scarchive.server.index.TextAnalyzer;
+import de.scyv.scarchive.server.search.query.Query;
+
+/**
+ * Answers queries with the {@link SearchIndex}: the candidates of a query are
+ * ranked by relevance and verified one batch after the other, so the findings
+ * come ordered by {@link Finding.RelevanceComparator}. Ready as soon as the
+ * index is.
+ */
+@Service
+public class IndexSearchBackend implements SearchBackend {
+
+    public static final String NAME = "index";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IndexSearchBackend.class);
+
+    private final SearchIndex searchIndex;
+
+    private final MetaDataService metaDataService;
+
+    private final SearchExecutor searchExecutor;
+
+    private final TextAnalyzer analyzer;
+
+    public IndexSearchBackend(SearchIndex searchIndex, MetaDataService metaDataService,
+            SearchExecutor searchExecutor, TextAnalyzer analyzer) {
+        this.searchIndex = searchIndex;
+        this.metaDataService = metaDataService;
+        this.searchExecutor = searchExecutor;
+        this.analyzer = analyzer;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isReady() {
+        return searchIndex.isReady();
+    }
+
+    @Override
+    public Supplier<Finding> find(Query query) {
+        // candidates come by descending relevance, so the first verified ones are the best
+        final RankedCandidates candidates = searchIndex.rankCandidates(query);
+        final Deque<Finding> verified = new ArrayDeque<>();
+        return () -> {
+            while (verified.isEmpty() && candidates.hasNext()) {
+                // verify a batch in parallel, the findings keep the order of the candidates
+                final List<ScoredDocument> batch = new ArrayList<>();
+                while (batch.size() < searchExecutor.getParallelism() && candidates.hasNext()) {
+                    batch.add(candidates.next());
+                }
+                searchExecutor.map(batch, candidate -> verifyCandidate(candidate, query, candidates.isExact()))
+                        .stream().filter(Objects::nonNull).forEach(verified::add);
+            }
+            return verified.poll();
+        };
+    }
+
+    @Override
+    public Comparator<Finding> getOrder() {
+        return new Finding.RelevanceComparator();
+    }
+
+    @Override
+    public TagCounts countTags(Query query) {
+        return query == null ? new TagCounts(searchIndex.countTags(), true) : searchIndex.countTags(query);
+    }
+
+    @Override
+    public List<String> suggest(String prefix, int limit) {
+        return searchIndex.suggest(prefix, limit);
+    }
+
+    @Override
+    public Set<Finding> findNewest(long from, int limit) {
+        final TreeSet<Finding> sortedFindings = new TreeSet<>(new Finding.LatestUpdateComparator());
+        for (final IndexedDocument document : searchIndex.findNewest(from, limit)) {
+            final Path originalFilePath = document.getOriginalPath();
+            try {
+                if (!Files.exists(originalFilePath)) {
+                    // orphaned, removed by the OrphanCollector
+                    continue;
+                }
+                sortedFindings.add(
+                        Findings.preview(MetaData.createFromFile(metaDataService.getMetaDataPath(originalFilePath))));
+            } catch (final IOException ex) {
+                LOGGER.error("Cannot read meta data of " + originalFilePath, ex);
+            }
+        }
+        return Collections.unmodifiableSortedSet(sortedFindings);
+    }
+
+    private Finding verifyCandidate(ScoredDocument candidate, Query query, boolean exact) {
+        final IndexedDocument document = candidate.getDocument();
+        final Path originalFilePath = document.getOriginalPath();
+        try {
+            if (!Files.exists(originalFilePath)) {
+                // orphaned, removed by the OrphanCollector
+                return null;
+            }
+            final Path metaDataPath = metaDataService.getMetaDataPath(originalFilePath);
+            final Map<Integer, Path> pageTextPaths = new HashMap<>();
+            for (final int page : document.getPages()) {
+                pageTextPaths.put(page, metaDataService.getPageTextPath(originalFilePath, page));
+            }
+            final QueryMatcher matcher = new QueryMatcher(MetaData.createFromFile(metaDataPath), metaDataPath,
+                    originalFilePath, document.getLastModified(), document.getIngested(), pageTextPaths, analyzer);
+            // exact candidates match by definition, the others have to be verified
+            final Finding finding = Findings.create(matcher, query, exact,
+                    searchIndex.findHits(originalFilePath, query, Findings.MAX_HITS));
+            if (finding != null) {
+                finding.setScore(candidate.getScore());
+            }
+            return finding;
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot read meta data of " + originalFilePath, ex);
+            return null;
+        }
+    }
+
+}
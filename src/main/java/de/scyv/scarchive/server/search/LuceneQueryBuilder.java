@@ -0,0 +1,205 @@
+package de.scyv.scarchive.server.search;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery.Builder;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+
+import de.scyv.scarchive.server.index.TextAnalyzer;
+import de.scyv.scarchive.server.search.query.BooleanQuery;
+import de.scyv.scarchive.server.search.query.DateRangeQuery;
+import de.scyv.scarchive.server.search.query.FieldQuery;
+import de.scyv.scarchive.server.search.query.FuzzyQuery;
+import de.scyv.scarchive.server.search.query.NotQuery;
+import de.scyv.scarchive.server.search.query.PhraseQuery;
+import de.scyv.scarchive.server.search.query.Query;
+import de.scyv.scarchive.server.search.query.QueryVisitor;
+import de.scyv.scarchive.server.search.query.TermQuery;
+
+/**
+ * Translates a {@link Query} into a Lucene query over the fields of the
+ * {@link LuceneSearchBackend}.
+ *
+ * Like with the other backends, a term also matches words that contain it and
+ * the path of the original file. Matches of the whole word are scored by
+ * Lucene, with matches in the title and the tags boosted. Substrings are looked
+ * up in the n-gram fields (see {@link NGramTokenStream}), so no query has to go
+ * through the term dictionary. They are folded, but not stemmed (see
+ * {@link TextAnalyzer#foldWords(String)}).
+ */
+class LuceneQueryBuilder implements QueryVisitor<org.apache.lucene.search.Query> {
+
+    private static final float TITLE_BOOST = 3f;
+
+    private static final float TAG_BOOST = 2f;
+
+    private final Analyzer analyzer;
+
+    private final TextAnalyzer textAnalyzer;
+
+    /**
+     * Create instance.
+     *
+     * @param analyzer
+     *            the analyzer the documents have been indexed with. Must not be
+     *            <code>null</code>.
+     * @param textAnalyzer
+     *            the analyzer that folds the substrings. Must not be
+     *            <code>null</code>.
+     */
+    LuceneQueryBuilder(Analyzer analyzer, TextAnalyzer textAnalyzer) {
+        this.analyzer = analyzer;
+        this.textAnalyzer = textAnalyzer;
+    }
+
+    @Override
+    public org.apache.lucene.search.Query visit(TermQuery query) {
+        return textQuery(query.getText(), query.getText());
+    }
+
+    @Override
+    public org.apache.lucene.search.Query visit(PhraseQuery query) {
+        return textQuery(String.join(" ", query.getWords()), query.getText());
+    }
+
+    @Override
+    public org.apache.lucene.search.Query visit(FuzzyQuery query) {
+        final Builder builder = new Builder();
+        builder.add(fuzzy(LuceneSearchBackend.TEXT, query), Occur.SHOULD);
+        builder.add(new BoostQuery(fuzzy(LuceneSearchBackend.TITLE, query), TITLE_BOOST), Occur.SHOULD);
+        builder.add(new BoostQuery(fuzzy(LuceneSearchBackend.TAG_TEXT, query), TAG_BOOST), Occur.SHOULD);
+        return builder.build();
+    }
+
+    @Override
+    public org.apache.lucene.search.Query visit(FieldQuery query) {
+        switch (query.getField()) {
+        case TITLE:
+            return contains(LuceneSearchBackend.TITLE_GRAMS, textAnalyzer.foldText(query.getValue()));
+        case TAG:
+            return new org.apache.lucene.search.TermQuery(new Term(LuceneSearchBackend.TAG, query.getValue()));
+        case PATH:
+            return contains(LuceneSearchBackend.PATH_GRAMS, textAnalyzer.foldText(query.getValue()));
+        default:
+            return new MatchNoDocsQuery();
+        }
+    }
+
+    @Override
+    public org.apache.lucene.search.Query visit(DateRangeQuery query) {
+        if (query.getFrom() >= query.getTo()) {
+            return new MatchNoDocsQuery();
+        }
+        return LongPoint.newRangeQuery(
+                query.getField() == DateRangeQuery.Field.ADDED ? LuceneSearchBackend.ADDED
+                        : LuceneSearchBackend.UPDATED,
+                query.getFrom(), query.getTo() - 1);
+    }
+
+    @Override
+    public org.apache.lucene.search.Query visit(BooleanQuery query) {
+        final Builder builder = new Builder();
+        final Occur occur = query.getOperator() == BooleanQuery.Operator.AND ? Occur.MUST : Occur.SHOULD;
+        query.getClauses().forEach(clause -> builder.add(clause.accept(this), occur));
+        return builder.build();
+    }
+
+    @Override
+    public org.apache.lucene.search.Query visit(NotQuery query) {
+        final Builder builder = new Builder();
+        builder.add(new MatchAllDocsQuery(), Occur.MUST);
+        builder.add(query.getQuery().accept(this), Occur.MUST_NOT);
+        return builder.build();
+    }
+
+    /**
+     * Split a text into the terms of a field, the way the field has been
+     * indexed.
+     *
+     * @param field
+     *            the field. Must not be <code>null</code>.
+     * @param text
+     *            the text. Must not be <code>null</code>.
+     * @return the terms in order. Never <code>null</code>.
+     */
+    List<String> analyze(String field, String text) {
+        final List<String> terms = new ArrayList<>();
+        try (TokenStream stream = analyzer.tokenStream(field, text)) {
+            final CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                terms.add(term.toString());
+            }
+            stream.end();
+        } catch (final IOException ex) {
+            // cannot happen when reading from a string
+            throw new UncheckedIOException(ex);
+        }
+        return terms;
+    }
+
+    // words are the text of a term or the words of a phrase, text the search string without whitespace
+    private org.apache.lucene.search.Query textQuery(String words, String text) {
+        final Builder builder = new Builder();
+        final List<String> terms = analyze(LuceneSearchBackend.TEXT, words);
+        if (terms.size() == 1) {
+            // whole words are scored
+            builder.add(new org.apache.lucene.search.TermQuery(new Term(LuceneSearchBackend.TEXT, terms.get(0))),
+                    Occur.SHOULD);
+            builder.add(new BoostQuery(
+                    new org.apache.lucene.search.TermQuery(new Term(LuceneSearchBackend.TITLE, terms.get(0))),
+                    TITLE_BOOST), Occur.SHOULD);
+            builder.add(new BoostQuery(
+                    new org.apache.lucene.search.TermQuery(new Term(LuceneSearchBackend.TAG_TEXT, terms.get(0))),
+                    TAG_BOOST), Occur.SHOULD);
+        } else if (terms.size() > 1) {
+            builder.add(phrase(LuceneSearchBackend.TEXT, terms), Occur.SHOULD);
+            builder.add(new BoostQuery(phrase(LuceneSearchBackend.TITLE, terms), TITLE_BOOST), Occur.SHOULD);
+            builder.add(new BoostQuery(phrase(LuceneSearchBackend.TAG_TEXT, terms), TAG_BOOST), Occur.SHOULD);
+        }
+        final List<String> foldedWords = textAnalyzer.foldWords(words);
+        if (foldedWords.size() == 1) {
+            // words that merely contain the term match with a constant score
+            builder.add(contains(LuceneSearchBackend.TEXT_GRAMS, foldedWords.get(0)), Occur.SHOULD);
+            builder.add(contains(LuceneSearchBackend.TITLE_GRAMS, foldedWords.get(0)), Occur.SHOULD);
+            builder.add(contains(LuceneSearchBackend.TAG_GRAMS, foldedWords.get(0)), Occur.SHOULD);
+        }
+        builder.add(contains(LuceneSearchBackend.PATH_GRAMS, textAnalyzer.foldText(text)), Occur.SHOULD);
+        return builder.build();
+    }
+
+    private static org.apache.lucene.search.Query phrase(String field, List<String> terms) {
+        return new org.apache.lucene.search.PhraseQuery(field, terms.toArray(new String[terms.size()]));
+    }
+
+    private org.apache.lucene.search.Query fuzzy(String field, FuzzyQuery query) {
+        // analyzed like the indexed terms
+        return new org.apache.lucene.search.FuzzyQuery(new Term(field, textAnalyzer.analyzeTerm(query.getTerm())),
+                query.getMaxEdits());
+    }
+
+    private static org.apache.lucene.search.Query contains(String gramField, String value) {
+        final List<String> grams = NGramTokenStream.substringGrams(value);
+        if (grams.size() == 1) {
+            return new ConstantScoreQuery(new org.apache.lucene.search.TermQuery(new Term(gramField, grams.get(0))));
+        }
+        final org.apache.lucene.search.PhraseQuery.Builder phrase = new org.apache.lucene.search.PhraseQuery.Builder();
+        for (int i = 0; i < grams.size(); i++) {
+            phrase.add(new Term(gramField, grams.get(i)), i);
+        }
+        return new ConstantScoreQuery(phrase.build());
+    }
+
+}
@@ -0,0 +1,768 @@
+package de.scyv.scarchive.server.search;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import de.scyv.scarchive.server.MetaData;
+import de.scyv.scarchive.server.MetaDataListener;
+import de.scyv.scarchive.server.MetaDataService;
+import de.scyv.scarchive.server.SCArchive;
+import de.scyv.scarchive.server.ScanListener;
+import de.scyv.scarchive.server.Scheduler;
+import de.scyv.scarchive.server.index.Normalizer;
+import de.scyv.scarchive.server.index.TagCounts;
+import de.scyv.scarchive.server.index.TextAnalyzer;
+import de.scyv.scarchive.server.search.query.Query;
+
+/**
+ * Answers queries with an embedded Lucene index, stored in
+ * <code>scarchive.lucene.directory</code>. The index is only maintained if this
+ * backend is selected (<code>scarchive.search.backend=lucene</code>).
+ *
+ * Like the {@link de.scyv.scarchive.server.index.SearchIndex}, the index is
+ * kept up to date by listening to the {@link MetaDataService}, and by
+ * listening to the scans of the {@link SCArchive} to pick up meta data written
+ * by others. Lucene's matches are taken as they are, the findings are ordered by
+ * {@link Finding.RelevanceComparator}. The texts are analyzed with the steps of
+ * <code>scarchive.index.analysis</code> (see {@link AnalyzingTokenizer}), the
+ * index is built again when they change.
+ *
+ * Changes are searchable within <code>scarchive.search.refreshDelay</code>:
+ * a background thread reopens the searcher on the uncommitted changes of the
+ * writer (near real time), which are only committed to disk with the
+ * scheduler. The change listeners are informed once a change is searchable.
+ */
+@Service
+public class LuceneSearchBackend implements SearchBackend, MetaDataListener, ScanListener {
+
+    public static final String NAME = "lucene";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LuceneSearchBackend.class);
+
+    /** The original file path, as stored. */
+    static final String PATH = "path";
+
+    /** The n-grams of the folded original file path, for substring matches. */
+    static final String PATH_GRAMS = "pathGrams";
+
+    static final String TITLE = "title";
+
+    /** The n-grams of the folded title, for substring matches. */
+    static final String TITLE_GRAMS = "titleGrams";
+
+    /** The normalized tags, each as a whole. */
+    static final String TAG = "tag";
+
+    static final String TAG_TEXT = "tagText";
+
+    /** The n-grams of the folded tags, for substring matches. */
+    static final String TAG_GRAMS = "tagGrams";
+
+    /** The text of the meta data and all page texts. */
+    static final String TEXT = "text";
+
+    /** The n-grams of the distinct folded, unstemmed words of the text, for substring matches. */
+    static final String TEXT_GRAMS = "textGrams";
+
+    /** The last modification time of the meta data file. */
+    static final String UPDATED = "updated";
+
+    /** The creation time of the meta data file. */
+    static final String ADDED = "added";
+
+    private static final String PAGE = "page";
+
+    // commit data with the version of the fields and the analysis steps, an index with others is built again
+    private static final String FORMAT_KEY = "scarchive.format";
+
+    private static final String FORMAT_VERSION = "3";
+
+    // terms that are looked at per field for suggestions
+    private static final int MAX_SUGGESTION_TERMS = 1000;
+
+    @Value("${scarchive.search.backend}")
+    private String backendName;
+
+    @Value("${scarchive.lucene.directory}")
+    private String luceneDirectory;
+
+    @Value("${scarchive.documentPaths}")
+    private String documentPaths;
+
+    @Value("${scarchive.search.refreshDelay}")
+    private long refreshDelay;
+
+    private final MetaDataService metaDataService;
+
+    private final SearchExecutor searchExecutor;
+
+    private final TextAnalyzer textAnalyzer;
+
+    private final Analyzer analyzer;
+
+    // original file path -> last modification time of the indexed meta data file
+    private final Map<String, Long> indexed = new ConcurrentHashMap<>();
+
+    private final List<MetaDataListener> changeListeners = new CopyOnWriteArrayList<>();
+
+    // changes that are not searchable yet
+    private final Queue<MetaData> pendingSaves = new ConcurrentLinkedQueue<>();
+
+    private final Queue<Path> pendingDeletes = new ConcurrentLinkedQueue<>();
+
+    private IndexWriter writer;
+
+    private SearcherManager searcherManager;
+
+    private ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+
+    private volatile boolean ready = false;
+
+    /**
+     * Create the backend.
+     *
+     * @param scheduler
+     *            the scheduler that commits the index periodically.
+     * @param metaDataService
+     *            the service that informs the index about written meta data.
+     * @param scArchive
+     *            the service that informs the index about its scans.
+     * @param searchExecutor
+     *            the executor that creates the findings.
+     * @param textAnalyzer
+     *            the analyzer of the terms that are indexed and highlighted.
+     */
+    public LuceneSearchBackend(Scheduler scheduler, MetaDataService metaDataService, SCArchive scArchive,
+            SearchExecutor searchExecutor, TextAnalyzer textAnalyzer) {
+        this.metaDataService = metaDataService;
+        this.searchExecutor = searchExecutor;
+        this.textAnalyzer = textAnalyzer;
+        this.analyzer = AnalyzingTokenizer.createAnalyzer(textAnalyzer);
+        metaDataService.addMetaDataListener(this);
+        scArchive.addScanListener(this);
+
+        scheduler.addRunner(() -> {
+            if (isOpen()) {
+                commit();
+            }
+        });
+    }
+
+    /**
+     * Open the index, if this backend is selected.
+     */
+    @PostConstruct
+    public void open() {
+        if (!NAME.equals(backendName)) {
+            return;
+        }
+        try {
+            final Directory directory = FSDirectory.open(Paths.get(luceneDirectory));
+            final String format = FORMAT_VERSION + ";" + textAnalyzer.getConfiguration();
+            final boolean exists = DirectoryReader.indexExists(directory)
+                    && format.equals(SegmentInfos.readLatestCommit(directory).getUserData().get(FORMAT_KEY));
+            final IndexWriterConfig config = new IndexWriterConfig(analyzer);
+            if (!exists) {
+                config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            }
+            writer = new IndexWriter(directory, config);
+            writer.setLiveCommitData(Collections.singletonMap(FORMAT_KEY, format).entrySet());
+            searcherManager = new SearcherManager(writer, null);
+            searcherManager.addListener(new ChangeNotifier());
+            loadIndexed();
+            reopenThread = new ControlledRealTimeReopenThread<>(writer, searcherManager, refreshDelay / 1000.0, 0);
+            reopenThread.setName("scarchive-lucene-reopen");
+            reopenThread.setDaemon(true);
+            reopenThread.start();
+            ready = exists;
+            LOGGER.info(exists ? "Opened Lucene index with " + indexed.size() + " documents."
+                    : "No current Lucene index found at " + luceneDirectory + ". It will be built with the next scan.");
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot open Lucene index " + luceneDirectory + ". Searching the document paths instead.",
+                    ex);
+            writer = null;
+        }
+    }
+
+    /**
+     * Commit and close the index.
+     */
+    @PreDestroy
+    public void close() {
+        if (!isOpen()) {
+            return;
+        }
+        try {
+            reopenThread.close();
+            searcherManager.close();
+            writer.close();
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot close Lucene index " + luceneDirectory, ex);
+        }
+    }
+
+    /**
+     * Register a listener that gets informed about changed meta data, as soon
+     * as the change is searchable. Besides the changes reported by the
+     * {@link MetaDataService}, this covers meta data that has been written or
+     * removed by others. Such changes are found by the refreshes, once
+     * the index is ready.
+     *
+     * @param listener
+     *            the listener to add. Must not be <code>null</code>.
+     */
+    public void addChangeListener(MetaDataListener listener) {
+        changeListeners.add(listener);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isReady() {
+        return isOpen() && ready;
+    }
+
+    @Override
+    public Supplier<Finding> find(Query query) {
+        return new Matches(query, query.accept(new LuceneQueryBuilder(analyzer, textAnalyzer)));
+    }
+
+    @Override
+    public Comparator<Finding> getOrder() {
+        return new Finding.RelevanceComparator();
+    }
+
+    @Override
+    public TagCounts countTags(Query query) {
+        final org.apache.lucene.search.Query luceneQuery = query == null ? null
+                : query.accept(new LuceneQueryBuilder(analyzer, textAnalyzer));
+        final Map<String, Integer> counts = new TreeMap<>();
+        try {
+            final IndexSearcher searcher = searcherManager.acquire();
+            try {
+                final Terms tags = MultiFields.getTerms(searcher.getIndexReader(), TAG);
+                if (tags == null) {
+                    return new TagCounts(counts, true);
+                }
+                final TermsEnum tagsEnum = tags.iterator();
+                for (BytesRef tag = tagsEnum.next(); tag != null; tag = tagsEnum.next()) {
+                    final TermQuery tagQuery = new TermQuery(new Term(TAG, BytesRef.deepCopyOf(tag)));
+                    final int count = searcher.count(luceneQuery == null ? tagQuery
+                            : new BooleanQuery.Builder().add(luceneQuery, Occur.FILTER)
+                                    .add(tagQuery, Occur.FILTER).build());
+                    if (count > 0) {
+                        counts.put(tag.utf8ToString(), count);
+                    }
+                }
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot count tags in Lucene index", ex);
+            return null;
+        }
+        return new TagCounts(counts, true);
+    }
+
+    @Override
+    public List<String> suggest(String prefix, int limit) {
+        final String normalizedPrefix = Normalizer.normalize(prefix);
+        // the terms of the text and the title are analyzed, the tags are kept as a whole
+        final String foldedPrefix = textAnalyzer.foldText(prefix);
+        final Map<String, Integer> weights = new HashMap<>();
+        try {
+            final IndexSearcher searcher = searcherManager.acquire();
+            try {
+                for (final String field : new String[] { TEXT, TITLE, TAG }) {
+                    final Terms terms = MultiFields.getTerms(searcher.getIndexReader(), field);
+                    if (terms == null) {
+                        continue;
+                    }
+                    final String fieldPrefix = TAG.equals(field) ? normalizedPrefix : foldedPrefix;
+                    final TermsEnum termsEnum = terms.iterator();
+                    if (termsEnum.seekCeil(new BytesRef(fieldPrefix)) == TermsEnum.SeekStatus.END) {
+                        continue;
+                    }
+                    for (int i = 0; i < MAX_SUGGESTION_TERMS && termsEnum.term() != null; i++) {
+                        final String term = termsEnum.term().utf8ToString();
+                        if (!term.startsWith(fieldPrefix)) {
+                            break;
+                        }
+                        weights.merge(term, termsEnum.docFreq(), Math::max);
+                        termsEnum.next();
+                    }
+                }
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot read suggestions from Lucene index", ex);
+            return Collections.emptyList();
+        }
+        return weights.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(limit).map(Map.Entry::getKey).collect(Collectors.toList());
+    }
+
+    @Override
+    public Set<Finding> findNewest(long from, int limit) {
+        final TreeSet<Finding> sortedFindings = new TreeSet<>(new Finding.LatestUpdateComparator());
+        final List<Path> originalFilePaths = new ArrayList<>();
+        try {
+            final IndexSearcher searcher = searcherManager.acquire();
+            try {
+                final TopDocs topDocs = searcher.search(LongPoint.newRangeQuery(UPDATED, from, Long.MAX_VALUE),
+                        Math.max(1, limit), new Sort(new SortField(UPDATED, SortField.Type.LONG, true)));
+                for (final ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                    originalFilePaths.add(Paths.get(searcher.doc(scoreDoc.doc).get(PATH)));
+                }
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot find newest documents in Lucene index", ex);
+        }
+        for (final Path originalFilePath : originalFilePaths) {
+            try {
+                if (!Files.exists(originalFilePath)) {
+                    // orphaned, removed by the OrphanCollector
+                    continue;
+                }
+                sortedFindings.add(
+                        Findings.preview(MetaData.createFromFile(metaDataService.getMetaDataPath(originalFilePath))));
+            } catch (final IOException ex) {
+                LOGGER.error("Cannot read meta data of " + originalFilePath, ex);
+            }
+        }
+        return Collections.unmodifiableSortedSet(sortedFindings);
+    }
+
+    @Override
+    public void metaDataSaved(MetaData metaData) {
+        if (!isOpen()) {
+            return;
+        }
+        final Path metaDataPath = metaData.getFilePath();
+        final Path originalFilePath = metaDataService.getOriginalFilePath(metaDataPath);
+        try {
+            final Map<Integer, Path> pageTextPaths = metaDataService.getPageTextPaths(metaDataPath.getParent())
+                    .get(originalFilePath.getFileName().toString());
+            update(originalFilePath, metaData, pageTextPaths == null ? Collections.emptyMap() : pageTextPaths,
+                    Files.readAttributes(metaDataPath, BasicFileAttributes.class));
+            pendingSaves.add(metaData);
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot index " + originalFilePath, ex);
+        }
+    }
+
+    @Override
+    public void metaDataDeleted(Path originalFilePath) {
+        if (!isOpen()) {
+            return;
+        }
+        try {
+            remove(originalFilePath.toString());
+            pendingDeletes.add(originalFilePath);
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot remove " + originalFilePath + " from Lucene index", ex);
+        }
+    }
+
+    @Override
+    public void fullScanFinished() {
+        if (isOpen()) {
+            refresh();
+        }
+    }
+
+    @Override
+    public void changesScanned(Set<Path> paths) {
+        if (isOpen() && ready) {
+            refresh(paths);
+        }
+    }
+
+    /**
+     * Bring the index in line with the meta data files in all document paths.
+     *
+     * Only meta data files that are new or have been modified since they were
+     * indexed are read. Documents whose meta data file is gone are removed,
+     * unless a document path could not be walked completely. The index is
+     * ready after the first refresh, even if some document paths have not been
+     * available.
+     */
+    public void refresh() {
+        final Set<String> seen = new HashSet<>();
+        boolean complete = true;
+        for (final String documentPath : documentPaths.split(";")) {
+            LOGGER.debug("Refreshing Lucene index for " + documentPath + "...");
+            try {
+                metaDataService.forEachMetaDataDirectory(Paths.get(documentPath),
+                        path -> refreshDirectory(path, seen));
+            } catch (final IOException ex) {
+                LOGGER.error("Cannot walk the path: " + documentPath, ex);
+                complete = false;
+            }
+        }
+        try {
+            if (complete) {
+                // do not drop documents of paths that are temporarily unavailable
+                final List<String> removed = indexed.keySet().stream().filter(path -> !seen.contains(path))
+                        .collect(Collectors.toList());
+                for (final String path : removed) {
+                    remove(path);
+                    if (ready) {
+                        pendingDeletes.add(Paths.get(path));
+                    }
+                }
+            }
+            searcherManager.maybeRefresh();
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot refresh Lucene index", ex);
+            return;
+        }
+        if (!ready && complete) {
+            LOGGER.info("Lucene index built with " + seen.size() + " documents.");
+        } else if (!ready) {
+            LOGGER.warn("Lucene index built with " + seen.size()
+                    + " documents. Some document paths could not be read, they are indexed with the next scan.");
+        }
+        ready = true;
+    }
+
+    /**
+     * Bring the index in line with the meta data files of some original files,
+     * without walking the document paths.
+     *
+     * @param originalFilePaths
+     *            the original files, e.g. the files changed in the document
+     *            paths. Must not be <code>null</code>.
+     */
+    public void refresh(Collection<Path> originalFilePaths) {
+        for (final Path originalFilePath : originalFilePaths) {
+            if (originalFilePath.getParent() == null) {
+                continue;
+            }
+            final Path metaDataPath = metaDataService.getMetaDataPath(originalFilePath);
+            try {
+                if (Files.exists(metaDataPath)) {
+                    refreshMetaData(metaDataPath, null);
+                } else if (indexed.containsKey(originalFilePath.toString())) {
+                    remove(originalFilePath.toString());
+                    pendingDeletes.add(originalFilePath);
+                }
+            } catch (final IOException ex) {
+                LOGGER.error("Cannot index meta data file " + metaDataPath, ex);
+            }
+        }
+    }
+
+    /**
+     * Write the changes of the index to disk.
+     */
+    public void commit() {
+        try {
+            if (writer.hasUncommittedChanges()) {
+                writer.commit();
+                LOGGER.debug("Lucene index committed to " + luceneDirectory);
+            }
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot commit Lucene index " + luceneDirectory, ex);
+        }
+    }
+
+    private boolean isOpen() {
+        return writer != null;
+    }
+
+    private void refreshDirectory(Path metaDataDirectory, Set<String> seen) {
+        final List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(metaDataDirectory)) {
+            stream.forEach(entries::add);
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot list meta data directory " + metaDataDirectory, ex);
+            return;
+        }
+        final Map<String, Map<Integer, Path>> pageTextPaths = metaDataService.getPageTextPaths(entries);
+        entries.stream().filter(path -> path.getFileName().toString().endsWith(MetaDataService.META_DATA_SUFFIX))
+                .forEach(metaDataPath -> {
+                    seen.add(metaDataService.getOriginalFilePath(metaDataPath).toString());
+                    try {
+                        refreshMetaData(metaDataPath, pageTextPaths);
+                    } catch (final IOException ex) {
+                        LOGGER.error("Cannot index meta data file " + metaDataPath, ex);
+                    }
+                });
+    }
+
+    // indexes a meta data file that is new or has been modified since it was indexed, the page texts are listed if null
+    private void refreshMetaData(Path metaDataPath, Map<String, Map<Integer, Path>> pageTextPaths)
+            throws IOException {
+        final Path originalFilePath = metaDataService.getOriginalFilePath(metaDataPath);
+        final BasicFileAttributes attributes = Files.readAttributes(metaDataPath, BasicFileAttributes.class);
+        final Long indexedTime = indexed.get(originalFilePath.toString());
+        if (indexedTime != null && indexedTime == attributes.lastModifiedTime().toMillis()) {
+            return;
+        }
+        final Map<Integer, Path> pages = (pageTextPaths != null ? pageTextPaths
+                : metaDataService.getPageTextPaths(metaDataPath.getParent()))
+                        .get(originalFilePath.getFileName().toString());
+        final MetaData metaData = MetaData.createFromFile(metaDataPath);
+        update(originalFilePath, metaData, pages == null ? Collections.emptyMap() : pages, attributes);
+        if (ready) {
+            pendingSaves.add(metaData);
+        }
+    }
+
+    private void update(Path originalFilePath, MetaData metaData, Map<Integer, Path> pageTextPaths,
+            BasicFileAttributes attributes) throws IOException {
+        final String path = originalFilePath.toString();
+        final long updated = attributes.lastModifiedTime().toMillis();
+        final long added = attributes.creationTime().toMillis();
+        final Document document = new Document();
+        document.add(new StringField(PATH, path, Field.Store.YES));
+        document.add(new TextField(PATH_GRAMS,
+                new NGramTokenStream(Collections.singletonList(textAnalyzer.foldText(path)))));
+        final String title = Normalizer.normalize(metaData.getTitle());
+        document.add(new TextField(TITLE, title, Field.Store.NO));
+        document.add(new TextField(TITLE_GRAMS,
+                new NGramTokenStream(Collections.singletonList(textAnalyzer.foldText(title)))));
+        final List<String> tags = new ArrayList<>();
+        if (metaData.getTags() != null) {
+            for (final String tag : metaData.getTags()) {
+                tags.add(textAnalyzer.foldText(tag));
+                document.add(new StringField(TAG, Normalizer.normalize(tag), Field.Store.NO));
+                document.add(new TextField(TAG_TEXT, Normalizer.normalize(tag), Field.Store.NO));
+            }
+        }
+        document.add(new TextField(TAG_GRAMS, new NGramTokenStream(tags)));
+        final StringBuilder text = new StringBuilder(Normalizer.normalize(metaData.getText()));
+        for (final Map.Entry<Integer, Path> page : new TreeMap<>(pageTextPaths).entrySet()) {
+            text.append('\n').append(new String(Files.readAllBytes(page.getValue()), StandardCharsets.UTF_8));
+            document.add(new StoredField(PAGE, page.getKey()));
+        }
+        document.add(new TextField(TEXT, text.toString(), Field.Store.NO));
+        // each word once, a page text repeats most of its words many times
+        final Set<String> words = new LinkedHashSet<>(textAnalyzer.foldWords(text.toString()));
+        document.add(new TextField(TEXT_GRAMS, new NGramTokenStream(words)));
+        document.add(new LongPoint(UPDATED, updated));
+        document.add(new NumericDocValuesField(UPDATED, updated));
+        document.add(new StoredField(UPDATED, updated));
+        document.add(new LongPoint(ADDED, added));
+        document.add(new StoredField(ADDED, added));
+        writer.updateDocument(new Term(PATH, path), document);
+        indexed.put(path, updated);
+    }
+
+    private void remove(String originalFilePath) throws IOException {
+        writer.deleteDocuments(new Term(PATH, originalFilePath));
+        indexed.remove(originalFilePath);
+    }
+
+    private void loadIndexed() throws IOException {
+        final IndexSearcher searcher = searcherManager.acquire();
+        try {
+            final Set<String> fields = new HashSet<>();
+            fields.add(PATH);
+            fields.add(UPDATED);
+            for (final LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+                final LeafReader reader = leaf.reader();
+                final Bits liveDocs = reader.getLiveDocs();
+                for (int i = 0; i < reader.maxDoc(); i++) {
+                    if (liveDocs == null || liveDocs.get(i)) {
+                        final Document document = reader.document(i, fields);
+                        indexed.put(document.get(PATH), document.getField(UPDATED).numericValue().longValue());
+                    }
+                }
+            }
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private Finding createFinding(Document document, float score, Query query) {
+        final Path originalFilePath = Paths.get(document.get(PATH));
+        try {
+            if (!Files.exists(originalFilePath)) {
+                // orphaned, removed by the OrphanCollector
+                return null;
+            }
+            final Path metaDataPath = metaDataService.getMetaDataPath(originalFilePath);
+            final Map<Integer, Path> pageTextPaths = new HashMap<>();
+            for (final IndexableField page : document.getFields(PAGE)) {
+                final int number = page.numericValue().intValue();
+                pageTextPaths.put(number, metaDataService.getPageTextPath(originalFilePath, number));
+            }
+            final QueryMatcher matcher = new QueryMatcher(MetaData.createFromFile(metaDataPath), metaDataPath,
+                    originalFilePath, document.getField(UPDATED).numericValue().longValue(),
+                    document.getField(ADDED).numericValue().longValue(), pageTextPaths, textAnalyzer);
+            final Finding finding = Findings.create(matcher, query, true, Collections.emptyList());
+            finding.setScore(score);
+            return finding;
+        } catch (final IOException ex) {
+            LOGGER.error("Cannot read meta data of " + originalFilePath, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Informs the change listeners about the changes a reopened searcher has
+     * made searchable.
+     */
+    private class ChangeNotifier implements ReferenceManager.RefreshListener {
+
+        private final List<MetaData> saved = new ArrayList<>();
+
+        private final List<Path> deleted = new ArrayList<>();
+
+        @Override
+        public void beforeRefresh() {
+            // the searcher sees all changes made before it is reopened
+            for (MetaData metaData = pendingSaves.poll(); metaData != null; metaData = pendingSaves.poll()) {
+                saved.add(metaData);
+            }
+            for (Path path = pendingDeletes.poll(); path != null; path = pendingDeletes.poll()) {
+                deleted.add(path);
+            }
+        }
+
+        @Override
+        public void afterRefresh(boolean didRefresh) {
+            saved.forEach(metaData -> changeListeners.forEach(listener -> listener.metaDataSaved(metaData)));
+            deleted.forEach(path -> changeListeners.forEach(listener -> listener.metaDataDeleted(path)));
+            saved.clear();
+            deleted.clear();
+        }
+    }
+
+    /**
+     * Fetches the matches of a query from the index one batch of
+     * {@link SearchExecutor#getParallelism()} after the other, by descending
+     * score, and creates their findings on the {@link SearchExecutor}. So only
+     * the matches that are shown are read.
+     */
+    private class Matches implements Supplier<Finding> {
+
+        private final Query query;
+
+        private final org.apache.lucene.search.Query luceneQuery;
+
+        private final Deque<Finding> found = new ArrayDeque<>();
+
+        private ScoreDoc after;
+
+        private boolean exhausted = false;
+
+        Matches(Query query, org.apache.lucene.search.Query luceneQuery) {
+            this.query = query;
+            this.luceneQuery = luceneQuery;
+        }
+
+        @Override
+        public Finding get() {
+            while (found.isEmpty() && !exhausted) {
+                final List<Document> documents = new ArrayList<>();
+                final List<Float> scores = new ArrayList<>();
+                try {
+                    final IndexSearcher searcher = searcherManager.acquire();
+                    try {
+                        final int batchSize = searchExecutor.getParallelism();
+                        final TopDocs topDocs = searcher.searchAfter(after, luceneQuery, batchSize);
+                        for (final ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                            documents.add(searcher.doc(scoreDoc.doc));
+                            scores.add(scoreDoc.score);
+                            after = scoreDoc;
+                        }
+                        exhausted = topDocs.scoreDocs.length < batchSize;
+                    } finally {
+                        searcherManager.release(searcher);
+                    }
+                } catch (final IOException ex) {
+                    LOGGER.error("Cannot search Lucene index for " + query, ex);
+                    exhausted = true;
+                }
+                // the findings keep the order of the matches
+                final List<Integer> indexes = new ArrayList<>();
+                for (int i = 0; i < documents.size(); i++) {
+                    indexes.add(i);
+                }
+                searchExecutor.map(indexes, i -> createFinding(documents.get(i), scores.get(i), query)).stream()
+                        .filter(Objects::nonNull).forEach(found::add);
+            }
+            return found.poll();
+        }
+    }
+
+}
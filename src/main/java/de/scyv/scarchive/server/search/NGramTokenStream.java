@@ -0,0 +1,108 @@
+package de.scyv.scarchive.server.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+
+/**
+ * Splits words into their n-grams of 1 to {@link #MAX_GRAM} characters, for
+ * substring matches without a wildcard over the term dictionary.
+ *
+ * The n-grams that start at the same character share a position, so a
+ * substring of at most {@link #MAX_GRAM} characters is a single term and a
+ * longer substring is the phrase of its n-grams of {@link #MAX_GRAM}
+ * characters (see {@link #substringGrams(String)}). The words are separated by
+ * a position without n-grams, so a phrase cannot span two words.
+ */
+final class NGramTokenStream extends TokenStream {
+
+    static final int MAX_GRAM = 3;
+
+    private final CharTermAttribute termAttribute = addAttribute(CharTermAttribute.class);
+
+    private final PositionIncrementAttribute positionAttribute = addAttribute(PositionIncrementAttribute.class);
+
+    private final List<String> words;
+
+    private Iterator<String> wordIterator;
+
+    private String word;
+
+    private int start;
+
+    private int length;
+
+    private int skippedPositions;
+
+    /**
+     * Create instance.
+     *
+     * @param words
+     *            the normalized words. Must not be <code>null</code>.
+     */
+    NGramTokenStream(Collection<String> words) {
+        this.words = new ArrayList<>(words);
+    }
+
+    /**
+     * Get the n-grams to look up for a substring.
+     *
+     * @param substring
+     *            the normalized substring. Must not be <code>null</code>.
+     * @return the substring itself if it is not longer than
+     *         {@link #MAX_GRAM}, otherwise its overlapping n-grams of
+     *         {@link #MAX_GRAM} characters, which have to occur at consecutive
+     *         positions. Never <code>null</code>.
+     */
+    static List<String> substringGrams(String substring) {
+        final List<String> grams = new ArrayList<>();
+        if (substring.length() <= MAX_GRAM) {
+            grams.add(substring);
+            return grams;
+        }
+        for (int i = 0; i + MAX_GRAM <= substring.length(); i++) {
+            grams.add(substring.substring(i, i + MAX_GRAM));
+        }
+        return grams;
+    }
+
+    @Override
+    public boolean incrementToken() {
+        clearAttributes();
+        while (word == null || start + length > word.length()) {
+            if (word != null && start < word.length() - 1) {
+                // the n-grams of the next character
+                start++;
+                length = 1;
+                skippedPositions++;
+                continue;
+            }
+            if (!wordIterator.hasNext()) {
+                return false;
+            }
+            word = wordIterator.next();
+            start = 0;
+            length = 1;
+            // one position without n-grams before each word
+            skippedPositions += 2;
+        }
+        termAttribute.setEmpty().append(word, start, start + length);
+        positionAttribute.setPositionIncrement(skippedPositions);
+        skippedPositions = 0;
+        length = length < MAX_GRAM ? length + 1 : word.length() + 1;
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        wordIterator = words.iterator();
+        word = null;
+        skippedPositions = -1;
+    }
+
+}
@@ -0,0 +1,288 @@
+package de.scyv.scarchive.server.search;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import de.scyv.scarchive.server.MetaData;
+import de.scyv.scarchive.server.index.LevenshteinAutomaton;
+import de.scyv.scarchive.server.index.Normalizer;
+import de.scyv.scarchive.server.index.TextAnalyzer;
+import de.scyv.scarchive.server.search.query.BooleanQuery;
+import de.scyv.scarchive.server.search.query.DateRangeQuery;
+import de.scyv.scarchive.server.search.query.FieldQuery;
+import de.scyv.scarchive.server.search.query.FuzzyQuery;
+import de.scyv.scarchive.server.search.query.NotQuery;
+import de.scyv.scarchive.server.search.query.PhraseQuery;
+import de.scyv.scarchive.server.search.query.Query;
+import de.scyv.scarchive.server.search.query.QueryVisitor;
+import de.scyv.scarchive.server.search.query.TermQuery;
+
+/**
+ * Checks whether a single document matches a query.
+ *
+ * Terms match the meta data if a field contains them, and the text pages if
+ * they contain them when ignoring whitespace. Phrases ignore whitespace
+ * everywhere. Both the texts and the search strings are folded for this (see
+ * {@link TextAnalyzer#foldText(String)}). Fuzzy terms match if a term of the meta data (text, title or
+ * tags) or of a page is within their edit distance, comparing the terms as
+ * analyzed for the index (see {@link TextAnalyzer}).
+ *
+ * The page texts are only read when needed. They are scanned for all terms and
+ * phrases of a query at once (see {@link TextScanner}), the results are kept
+ * for further queries.
+ */
+class QueryMatcher implements QueryVisitor<Boolean> {
+
+    private final MetaData metaData;
+
+    private final Path metaDataPath;
+
+    private final Path originalFilePath;
+
+    private final long lastModified;
+
+    private final long added;
+
+    private final SortedMap<Integer, Path> pageTextPaths;
+
+    private final TextAnalyzer analyzer;
+
+    // whether the page texts contain a search string (or match a fuzzy query)
+    private final Map<String, Boolean> pageTextMatches = new HashMap<>();
+
+    // the search strings of the current query, scanned for together
+    private List<String> querySearchStrings = Collections.emptyList();
+
+    /**
+     * Create instance.
+     *
+     * @param metaData
+     *            the meta data of the document. Must not be <code>null</code>.
+     * @param metaDataPath
+     *            the path of the meta data file. Must not be <code>null</code>.
+     * @param originalFilePath
+     *            the path of the original file. Must not be <code>null</code>.
+     * @param lastModified
+     *            the last modification time of the meta data file.
+     * @param added
+     *            the time the document has been added to the archive.
+     * @param pageTextPaths
+     *            the text files of the pages by page number. Must not be
+     *            <code>null</code>.
+     * @param analyzer
+     *            the analyzer of the terms. Must not be <code>null</code>.
+     */
+    QueryMatcher(MetaData metaData, Path metaDataPath, Path originalFilePath, long lastModified, long added,
+            Map<Integer, Path> pageTextPaths, TextAnalyzer analyzer) {
+        this.metaData = metaData;
+        this.metaDataPath = metaDataPath;
+        this.originalFilePath = originalFilePath;
+        this.lastModified = lastModified;
+        this.added = added;
+        this.pageTextPaths = new TreeMap<>(pageTextPaths);
+        this.analyzer = analyzer;
+    }
+
+    /**
+     * Create a matcher for a document that is not known to the index. The last
+     * update is the modification time of the meta data file, the time it has
+     * been added is the creation time of the meta data file.
+     *
+     * @throws IOException
+     *             if the attributes of the meta data file cannot be read.
+     */
+    static QueryMatcher forFile(MetaData metaData, Path metaDataPath, Path originalFilePath,
+            Map<Integer, Path> pageTextPaths, TextAnalyzer analyzer) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(metaDataPath, BasicFileAttributes.class);
+        return new QueryMatcher(metaData, metaDataPath, originalFilePath, attributes.lastModifiedTime().toMillis(),
+                attributes.creationTime().toMillis(), pageTextPaths, analyzer);
+    }
+
+    MetaData getMetaData() {
+        return metaData;
+    }
+
+    TextAnalyzer getAnalyzer() {
+        return analyzer;
+    }
+
+    /**
+     * Check the query.
+     *
+     * @throws IOException
+     *             if a page text cannot be read.
+     */
+    boolean matches(Query query) throws IOException {
+        querySearchStrings = new ArrayList<>();
+        collectSearchStrings(query, querySearchStrings);
+        try {
+            return query.accept(this);
+        } catch (final UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Check whether the meta data contains a search string.
+     */
+    boolean matchesMetaData(String searchString) {
+        final String folded = analyzer.foldText(searchString);
+        return analyzer.foldText(Normalizer.normalize(metaData.getText())).contains(folded)
+                || analyzer.foldText(Normalizer.normalize(String.join(",", metaData.getTags()))).contains(folded)
+                || analyzer.foldText(Normalizer.normalize(metaData.getTitle())).contains(folded)
+                || analyzer.foldText(metaDataPath.toString()).contains(folded);
+    }
+
+    /**
+     * Check whether a term of the meta data matches a fuzzy query.
+     */
+    boolean matchesMetaData(FuzzyQuery query) {
+        final LevenshteinAutomaton automaton = new LevenshteinAutomaton(analyzer.analyzeTerm(query.getTerm()),
+                query.getMaxEdits());
+        return matchesFuzzy(metaData.getText(), automaton) || matchesFuzzy(metaData.getTitle(), automaton)
+                || metaData.getTags().stream().anyMatch(tag -> matchesFuzzy(tag, automaton));
+    }
+
+    /**
+     * Get the numbers of the pages that have a text.
+     */
+    Set<Integer> getPages() {
+        return pageTextPaths.keySet();
+    }
+
+    /**
+     * Read the text of a page.
+     *
+     * @throws IOException
+     *             if the page text cannot be read.
+     */
+    String getPageText(int page) throws IOException {
+        final Path pageTextPath = pageTextPaths.get(page);
+        return pageTextPath == null ? "" : new String(Files.readAllBytes(pageTextPath), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Boolean visit(TermQuery query) {
+        return matchesMetaData(query.getText()) || matchesPageText(query.getText());
+    }
+
+    @Override
+    public Boolean visit(PhraseQuery query) {
+        final String phrase = query.getText();
+        final String folded = analyzer.foldText(phrase);
+        return analyzer.foldText(Normalizer.normalizePageText(metaData.getText())).contains(folded)
+                || analyzer.foldText(Normalizer.normalizePageText(metaData.getTitle())).contains(folded)
+                || analyzer.foldText(Normalizer.normalizePageText(String.join(",", metaData.getTags())))
+                        .contains(folded)
+                || matchesPageText(phrase);
+    }
+
+    @Override
+    public Boolean visit(FuzzyQuery query) {
+        final LevenshteinAutomaton automaton = new LevenshteinAutomaton(analyzer.analyzeTerm(query.getTerm()),
+                query.getMaxEdits());
+        if (matchesMetaData(query)) {
+            return true;
+        }
+        Boolean matches = pageTextMatches.get(query.toString());
+        if (matches == null) {
+            matches = false;
+            for (final Iterator<Integer> pages = getPages().iterator(); pages.hasNext() && !matches;) {
+                try {
+                    matches = matchesFuzzy(getPageText(pages.next()), automaton);
+                } catch (final IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            pageTextMatches.put(query.toString(), matches);
+        }
+        return matches;
+    }
+
+    @Override
+    public Boolean visit(FieldQuery query) {
+        switch (query.getField()) {
+        case TITLE:
+            return analyzer.foldText(Normalizer.normalize(metaData.getTitle()))
+                    .contains(analyzer.foldText(query.getValue()));
+        case TAG:
+            return metaData.getTags().stream().anyMatch(tag -> Normalizer.normalize(tag).equals(query.getValue()));
+        case PATH:
+            return analyzer.foldText(originalFilePath.toString()).contains(analyzer.foldText(query.getValue()));
+        default:
+            return false;
+        }
+    }
+
+    @Override
+    public Boolean visit(DateRangeQuery query) {
+        return query.contains(query.getField() == DateRangeQuery.Field.ADDED ? added : lastModified);
+    }
+
+    @Override
+    public Boolean visit(BooleanQuery query) {
+        if (query.getOperator() == BooleanQuery.Operator.AND) {
+            return query.getClauses().stream().allMatch(clause -> clause.accept(this));
+        }
+        return query.getClauses().stream().anyMatch(clause -> clause.accept(this));
+    }
+
+    @Override
+    public Boolean visit(NotQuery query) {
+        return !query.getQuery().accept(this);
+    }
+
+    private boolean matchesPageText(String searchString) {
+        final Boolean matches = pageTextMatches.get(searchString);
+        if (matches != null) {
+            return matches;
+        }
+        // scan for all search strings of the query that are not known yet, in one pass
+        final List<String> searchStrings = new ArrayList<>();
+        searchStrings.add(searchString);
+        querySearchStrings.stream().filter(other -> !pageTextMatches.containsKey(other))
+                .filter(other -> !searchStrings.contains(other)).forEach(searchStrings::add);
+        final TextScanner scanner = new TextScanner(searchStrings, analyzer);
+        for (final Path pageTextPath : pageTextPaths.values()) {
+            try {
+                scanner.scan(pageTextPath);
+            } catch (final IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        for (int i = 0; i < searchStrings.size(); i++) {
+            pageTextMatches.put(searchStrings.get(i), scanner.isFound(i));
+        }
+        return scanner.isFound(0);
+    }
+
+    private static void collectSearchStrings(Query query, List<String> searchStrings) {
+        if (query instanceof TermQuery) {
+            searchStrings.add(((TermQuery) query).getText());
+        } else if (query instanceof PhraseQuery) {
+            searchStrings.add(((PhraseQuery) query).getText());
+        } else if (query instanceof BooleanQuery) {
+            ((BooleanQuery) query).getClauses().forEach(clause -> collectSearchStrings(clause, searchStrings));
+        } else if (query instanceof NotQuery) {
+            collectSearchStrings(((NotQuery) query).getQuery(), searchStrings);
+        }
+    }
+
+    private boolean matchesFuzzy(String text, LevenshteinAutomaton automaton) {
+        return text != null && analyzer.analyze(text).stream().anyMatch(term -> automaton.distance(term) >= 0);
+    }
+
+}
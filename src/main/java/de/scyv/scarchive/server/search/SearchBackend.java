@@ -0,0 +1,88 @@
+package de.scyv.scarchive.server.search;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import de.scyv.scarchive.server.index.TagCounts;
+import de.scyv.scarchive.server.search.query.Query;
+
+/**
+ * A strategy for answering queries, used by the {@link DocumentFinder}.
+ *
+ * The backend is selected with <code>scarchive.search.backend</code>. While the
+ * selected backend is not ready (e.g. its index is being built), the
+ * {@link FileSystemSearchBackend} is used.
+ */
+public interface SearchBackend {
+
+    /**
+     * Get the name of the backend, as used in
+     * <code>scarchive.search.backend</code>.
+     *
+     * @return the name, never <code>null</code>.
+     */
+    String getName();
+
+    /**
+     * Whether the backend can answer queries.
+     *
+     * @return true, if it is ready.
+     */
+    boolean isReady();
+
+    /**
+     * Find the documents that match a query.
+     *
+     * @param query
+     *            the query. Must not be <code>null</code>.
+     * @return computes the next finding on each call, in the order of
+     *         {@link #getOrder()} if possible, and <code>null</code> if there are
+     *         no more. Never <code>null</code>.
+     */
+    Supplier<Finding> find(Query query);
+
+    /**
+     * Get the order of the findings of this backend.
+     *
+     * @return the comparator, never <code>null</code>.
+     */
+    Comparator<Finding> getOrder();
+
+    /**
+     * Count the documents that match a query per tag, if the backend can do so
+     * without finding the documents.
+     *
+     * @param query
+     *            the query, <code>null</code> to count all documents.
+     * @return amount of documents by normalized tag, or <code>null</code> if
+     *         not supported.
+     */
+    TagCounts countTags(Query query);
+
+    /**
+     * Find the most frequent terms, titles and tags that start with a prefix.
+     *
+     * @param prefix
+     *            the prefix. Must not be <code>null</code>.
+     * @param limit
+     *            the maximum amount of suggestions.
+     * @return the normalized suggestions, most frequent first. Never
+     *         <code>null</code>, empty if not supported.
+     */
+    List<String> suggest(String prefix, int limit);
+
+    /**
+     * Find the documents whose meta data has been updated most recently.
+     *
+     * @param from
+     *            the earliest update time (millis), inclusive.
+     * @param limit
+     *            the maximum amount of documents.
+     * @return the findings, ordered by {@link Finding.LatestUpdateComparator}.
+     *         Never <code>null</code>.
+     */
+    Set<Finding> findNewest(long from, int limit);
+
+}
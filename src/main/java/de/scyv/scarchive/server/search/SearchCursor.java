@@ -0,0 +1,119 @@
+package de.scyv.scarchive.server.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Cursor over the findings of a search (see
+ * {@link DocumentFinder#search(String)}).
+ *
+ * Findings are computed only when they are fetched, so the first page of a
+ * search is available long before all documents have been checked. A cursor
+ * keeps its position, the next call of {@link #next(int)} continues where the
+ * previous one stopped.
+ *
+ * Not thread safe.
+ */
+public class SearchCursor {
+
+    private final Supplier<Finding> source;
+
+    private final int maxFindings;
+
+    private final Consumer<List<Finding>> completionListener;
+
+    private final List<Finding> fetched = new ArrayList<>();
+
+    private Finding lookahead;
+
+    private boolean exhausted = false;
+
+    /**
+     * Create instance.
+     *
+     * @param source
+     *            computes the next finding, returns <code>null</code> if there
+     *            are no more. Must not be <code>null</code>.
+     * @param maxFindings
+     *            the maximum amount of findings of the cursor.
+     * @param completionListener
+     *            gets all findings once the cursor is exhausted. Must not be
+     *            <code>null</code>.
+     */
+    SearchCursor(Supplier<Finding> source, int maxFindings, Consumer<List<Finding>> completionListener) {
+        this.source = source;
+        this.maxFindings = maxFindings;
+        this.completionListener = completionListener;
+    }
+
+    /**
+     * Create a cursor over findings that are already known.
+     *
+     * @param findings
+     *            the findings. Must not be <code>null</code>.
+     * @return the cursor, never <code>null</code>.
+     */
+    static SearchCursor of(Iterable<Finding> findings) {
+        final List<Finding> copy = new ArrayList<>();
+        findings.forEach(copy::add);
+        final Iterator<Finding> iterator = copy.iterator();
+        return new SearchCursor(() -> iterator.hasNext() ? iterator.next() : null, copy.size(), all -> {
+        });
+    }
+
+    /**
+     * Fetch the next findings.
+     *
+     * @param count
+     *            the maximum amount of findings to fetch.
+     * @return the findings, fewer than requested if there are no more. Never
+     *         <code>null</code>.
+     */
+    public List<Finding> next(int count) {
+        final List<Finding> page = new ArrayList<>();
+        while (page.size() < count && hasMore()) {
+            page.add(lookahead);
+            fetched.add(lookahead);
+            lookahead = null;
+        }
+        return Collections.unmodifiableList(page);
+    }
+
+    /**
+     * Whether there are more findings. Checks documents until the next finding
+     * has been found.
+     *
+     * @return true, if {@link #next(int)} would return at least one finding.
+     */
+    public boolean hasMore() {
+        if (lookahead != null) {
+            return true;
+        }
+        if (exhausted) {
+            return false;
+        }
+        if (fetched.size() < maxFindings) {
+            lookahead = source.get();
+        }
+        if (lookahead == null) {
+            exhausted = true;
+            completionListener.accept(Collections.unmodifiableList(fetched));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the amount of findings that have been fetched so far.
+     *
+     * @return the amount.
+     */
+    public int getPosition() {
+        return fetched.size();
+    }
+
+}
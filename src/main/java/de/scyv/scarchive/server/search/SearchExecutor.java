@@ -0,0 +1,114 @@
+package de.scyv.scarchive.server.search;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Thread pool for checking documents during a search.
+ *
+ * Searches hand in batches of at most {@link #getParallelism()} documents and
+ * wait for them. The batches of concurrent searches queue up in order, so a
+ * heavy search cannot starve the others. If the queue is full, the searching
+ * thread checks its documents itself. The results of a batch are collected per
+ * task and returned in the order of the batch, so they do not depend on the
+ * scheduling.
+ */
+@Service
+public class SearchExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchExecutor.class);
+
+    private static final int QUEUE_CAPACITY_PER_THREAD = 64;
+
+    @Value("${scarchive.search.threads}")
+    private int threads;
+
+    private ThreadPoolExecutor executor;
+
+    @PostConstruct
+    public void start() {
+        final int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        final AtomicInteger threadNumber = new AtomicInteger();
+        final ThreadFactory threadFactory = runnable -> {
+            final Thread thread = new Thread(runnable, "scarchive-search-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(poolSize * QUEUE_CAPACITY_PER_THREAD), threadFactory,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        LOGGER.info("Searching with " + poolSize + " threads.");
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Get the amount of documents that should be checked in parallel.
+     *
+     * @return the amount of threads.
+     */
+    public int getParallelism() {
+        return executor.getCorePoolSize();
+    }
+
+    /**
+     * Apply a function to all inputs in parallel.
+     *
+     * @param inputs
+     *            the inputs, should not be more than {@link #getParallelism()}.
+     *            Must not be <code>null</code>.
+     * @param function
+     *            the function, must be thread safe. Must not be
+     *            <code>null</code>.
+     * @return the results in the order of the inputs. Never <code>null</code>.
+     */
+    public <I, R> List<R> map(List<I> inputs, Function<I, R> function) {
+        if (inputs.size() <= 1) {
+            final List<R> results = new ArrayList<>();
+            inputs.forEach(input -> results.add(function.apply(input)));
+            return results;
+        }
+        final List<Future<R>> futures = new ArrayList<>();
+        for (final I input : inputs) {
+            futures.add(executor.submit(() -> function.apply(input)));
+        }
+        final List<R> results = new ArrayList<>();
+        try {
+            for (final Future<R> future : futures) {
+                results.add(future.get());
+            }
+        } catch (final InterruptedException ex) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Search has been interrupted.", ex);
+        } catch (final ExecutionException ex) {
+            futures.forEach(future -> future.cancel(true));
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException("Search failed.", ex.getCause());
+        }
+        return results;
+    }
+
+}
@@ -0,0 +1,264 @@
+package de.scyv.scarchive.server.search;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import de.scyv.scarchive.server.MetaData;
+import de.scyv.scarchive.server.MetaDataListener;
+import de.scyv.scarchive.server.MetaDataService;
+import de.scyv.scarchive.server.index.SearchIndex;
+import de.scyv.scarchive.server.index.TextAnalyzer;
+import de.scyv.scarchive.server.search.query.Query;
+
+/**
+ * Cache of the findings of recent searches, keyed by the normalized query.
+ *
+ * The cache is bounded by the estimated memory of the cached findings
+ * (<code>scarchive.search.cacheSize</code>, in megabytes); the least recently
+ * used results are evicted first.
+ *
+ * Results are invalidated precisely: when the meta data of a document is saved
+ * or deleted, only the results that contain the document or whose query
+ * matches the document now are dropped. Besides the {@link MetaDataService},
+ * the {@link SearchIndex} and the {@link LuceneSearchBackend} report meta data
+ * that has been changed by others. The Lucene index reports all changes again
+ * once they are searchable, so results of a searcher that has not seen a
+ * change yet are dropped as well.
+ */
+@Service
+public class SearchResultCache implements MetaDataListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchResultCache.class);
+
+    // rough estimate of the memory of a finding apart from its strings and hits
+    private static final long FINDING_OVERHEAD = 256;
+
+    private static final long HIT_SIZE = 32;
+
+    private static final long BYTES_PER_MEGABYTE = 1024 * 1024;
+
+    private static class Entry {
+        private final Query query;
+        private final Set<Finding> findings;
+        private final Set<Path> metaDataPaths = new HashSet<>();
+        private final long size;
+
+        private Entry(Query query, Set<Finding> findings) {
+            this.query = query;
+            this.findings = findings;
+            long size = FINDING_OVERHEAD;
+            for (final Finding finding : findings) {
+                metaDataPaths.add(finding.getMetaData().getFilePath());
+                size += estimateSize(finding);
+            }
+            this.size = size;
+        }
+    }
+
+    @Value("${scarchive.search.cacheSize}")
+    private Integer cacheSize;
+
+    private final MetaDataService metaDataService;
+
+    private final TextAnalyzer analyzer;
+
+    // access ordered, the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long size = 0;
+
+    // incremented on every invalidation, see #put
+    private long generation = 0;
+
+    /**
+     * Create the cache.
+     *
+     * @param metaDataService
+     *            the service that informs the cache about written meta data.
+     * @param searchIndex
+     *            the index that informs the cache about meta data written by
+     *            others.
+     * @param luceneSearchBackend
+     *            the Lucene index that informs the cache about changes once
+     *            they are searchable.
+     * @param analyzer
+     *            the analyzer of the terms of fuzzy queries.
+     */
+    public SearchResultCache(MetaDataService metaDataService, SearchIndex searchIndex,
+            LuceneSearchBackend luceneSearchBackend, TextAnalyzer analyzer) {
+        this.metaDataService = metaDataService;
+        this.analyzer = analyzer;
+        metaDataService.addMetaDataListener(this);
+        searchIndex.addExternalChangeListener(this);
+        luceneSearchBackend.addChangeListener(this);
+    }
+
+    /**
+     * Get the cached findings of a query.
+     *
+     * @param key
+     *            the key of the query, see {@link #key(Query, String)}.
+     * @return the findings or <code>null</code>, if they are not cached.
+     */
+    public synchronized Set<Finding> get(String key) {
+        final Entry entry = entries.get(key);
+        return entry == null ? null : entry.findings;
+    }
+
+    /**
+     * Get the current generation of the cache. It has to be fetched before
+     * searching and handed to {@link #put(String, Query, Set, long)}, so that
+     * findings that may have been outdated during the search are not cached.
+     *
+     * @return the generation.
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Cache the findings of a query.
+     *
+     * @param key
+     *            the key of the query, see {@link #key(Query, String)}. Must
+     *            not be <code>null</code>.
+     * @param query
+     *            the query. Must not be <code>null</code>.
+     * @param findings
+     *            the unmodifiable findings. Must not be <code>null</code>.
+     * @param searchGeneration
+     *            the generation of the cache when the search started.
+     */
+    public synchronized void put(String key, Query query, Set<Finding> findings, long searchGeneration) {
+        if (searchGeneration != generation) {
+            return;
+        }
+        final Entry entry = new Entry(query, findings);
+        if (entry.size > cacheSize * BYTES_PER_MEGABYTE) {
+            return;
+        }
+        remove(key);
+        entries.put(key, entry);
+        size += entry.size;
+        final Iterator<Entry> eldest = entries.values().iterator();
+        while (size > cacheSize * BYTES_PER_MEGABYTE && eldest.hasNext()) {
+            size -= eldest.next().size;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Build the cache key of a query.
+     *
+     * @param query
+     *            the query. Must not be <code>null</code>.
+     * @param backend
+     *            the name of the backend that answers the query. The backends
+     *            order their findings differently. Must not be
+     *            <code>null</code>.
+     * @return the key, never <code>null</code>.
+     */
+    public static String key(Query query, String backend) {
+        return backend + " " + query;
+    }
+
+    @Override
+    public void metaDataSaved(MetaData metaData) {
+        final Path metaDataPath = metaData.getFilePath();
+        synchronized (this) {
+            generation++;
+            if (entries.isEmpty()) {
+                return;
+            }
+        }
+        final Path originalFilePath = metaDataService.getOriginalFilePath(metaDataPath);
+        final QueryMatcher matcher;
+        try {
+            final Map<Integer, Path> pageTextPaths = metaDataService.getPageTextPaths(metaDataPath.getParent())
+                    .get(originalFilePath.getFileName().toString());
+            matcher = QueryMatcher.forFile(metaData, metaDataPath, originalFilePath,
+                    pageTextPaths == null ? Collections.emptyMap() : pageTextPaths, analyzer);
+        } catch (final IOException ex) {
+            LOGGER.warn("Cannot check cached search results against " + metaDataPath + ", dropping all.", ex);
+            clear();
+            return;
+        }
+        invalidate(metaDataPath, matcher);
+    }
+
+    @Override
+    public void metaDataDeleted(Path originalFilePath) {
+        synchronized (this) {
+            generation++;
+        }
+        invalidate(metaDataService.getMetaDataPath(originalFilePath), null);
+    }
+
+    /**
+     * Drop all cached findings.
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Drop the results that contain the document or (if a matcher is given)
+     * whose query matches the document.
+     */
+    private synchronized void invalidate(Path metaDataPath, QueryMatcher matcher) {
+        final Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (entry.metaDataPaths.contains(metaDataPath) || matcher != null && matches(matcher, entry.query)) {
+                size -= entry.size;
+                iterator.remove();
+            }
+        }
+    }
+
+    private boolean matches(QueryMatcher matcher, Query query) {
+        try {
+            return matcher.matches(query);
+        } catch (final IOException ex) {
+            LOGGER.warn("Cannot read page texts of " + matcher.getMetaData().getFilePath(), ex);
+            return true;
+        }
+    }
+
+    private void remove(String key) {
+        final Entry entry = entries.remove(key);
+        if (entry != null) {
+            size -= entry.size;
+        }
+    }
+
+    private static long estimateSize(Finding finding) {
+        final MetaData metaData = finding.getMetaData();
+        long length = length(finding.getContext()) + length(metaData.getText()) + length(metaData.getTitle());
+        if (metaData.getTags() != null) {
+            for (final String tag : metaData.getTags()) {
+                length += length(tag);
+            }
+        }
+        // two bytes per char
+        return FINDING_OVERHEAD + 2 * length + HIT_SIZE * finding.getHits().size();
+    }
+
+    private static long length(String string) {
+        return string == null ? 0 : string.length();
+    }
+
+}
@@ -0,0 +1,232 @@
+package de.scyv.scarchive.server.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import de.scyv.scarchive.server.index.LevenshteinAutomaton;
+import de.scyv.scarchive.server.index.TextAnalyzer;
+
+/**
+ * Creates short, highlighted snippets of a text around the hits of a search.
+ *
+ * A snippet consists of a few windows of the text around the hits, so its size
+ * does not depend on the length of the text. The text is HTML escaped, the hits
+ * are wrapped in <code>&lt;b&gt;</code>.
+ */
+final class Snippets {
+
+    /** The separator between the windows of a snippet. */
+    static final String SEPARATOR = "<br><br>...<br><br>";
+
+    /** Characters shown before and after a hit. */
+    private static final int RADIUS = 80;
+
+    private Snippets() {
+    }
+
+    /**
+     * Find the hits of search strings and fuzzy terms within a text.
+     *
+     * Search strings are matched like the page texts are searched: folded (see
+     * {@link TextAnalyzer#foldText(String)}) and ignoring whitespace, so a hit
+     * may span several words.
+     *
+     * @param text
+     *            the text. Must not be <code>null</code>.
+     * @param searchStrings
+     *            the normalized search strings. Must not be <code>null</code>.
+     * @param automata
+     *            the automata of the analyzed fuzzy terms. Must not be
+     *            <code>null</code>.
+     * @param analyzer
+     *            the analyzer of the terms the automata are run on. Must not be
+     *            <code>null</code>.
+     * @param limit
+     *            the maximum amount of hits.
+     * @return the first hits as {offset, length}, ordered by offset. Never
+     *         <code>null</code>.
+     */
+    static List<int[]> find(String text, List<String> searchStrings, List<LevenshteinAutomaton> automata,
+            TextAnalyzer analyzer, int limit) {
+        final List<int[]> hits = new ArrayList<>();
+        if (!searchStrings.isEmpty()) {
+            final FoldedText stripped = new FoldedText(text, analyzer);
+            for (final String searchString : searchStrings) {
+                final String strippedSearchString = analyzer.foldText(searchString.replaceAll("\\s", ""));
+                if (strippedSearchString.isEmpty()) {
+                    continue;
+                }
+                for (int index = stripped.chars.indexOf(strippedSearchString); index >= 0 && hits.size() < limit;
+                        index = stripped.chars.indexOf(strippedSearchString, index + strippedSearchString.length())) {
+                    final int start = stripped.positions[index];
+                    final int end = stripped.positions[index + strippedSearchString.length() - 1] + 1;
+                    hits.add(new int[] { start, end - start });
+                }
+            }
+        }
+        if (!automata.isEmpty()) {
+            analyzer.analyze(text, (term, offset, length) -> {
+                if (automata.stream().anyMatch(automaton -> automaton.distance(term) >= 0)) {
+                    hits.add(new int[] { offset, length });
+                }
+            });
+        }
+        hits.sort(Comparator.<int[]>comparingInt(hit -> hit[0]).thenComparingInt(hit -> -hit[1]));
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    /**
+     * Create the windows of a snippet.
+     *
+     * @param text
+     *            the text. Must not be <code>null</code>.
+     * @param hits
+     *            the hits as {offset, length}, ordered by offset. Must not be
+     *            <code>null</code>. If there are no hits, the beginning of the
+     *            text is shown.
+     * @param maxWindows
+     *            the maximum amount of windows.
+     * @return the HTML of the windows, never <code>null</code>.
+     */
+    static List<String> create(String text, List<int[]> hits, int maxWindows) {
+        final List<String> windows = new ArrayList<>();
+        if (text.trim().isEmpty() || maxWindows <= 0) {
+            return windows;
+        }
+        if (hits.isEmpty()) {
+            windows.add(createWindow(text, 0, Math.min(text.length(), 2 * RADIUS), hits, 0, 0));
+            return windows;
+        }
+        int first = 0;
+        while (first < hits.size() && windows.size() < maxWindows) {
+            final int start = Math.max(0, hits.get(first)[0] - RADIUS);
+            int end = Math.min(text.length(), hits.get(first)[0] + hits.get(first)[1] + RADIUS);
+            int last = first + 1;
+            // hits close to each other share a window
+            while (last < hits.size() && hits.get(last)[0] < end) {
+                last++;
+            }
+            end = Math.max(end, Math.min(text.length(), hits.get(last - 1)[0] + hits.get(last - 1)[1]));
+            windows.add(createWindow(text, start, end, hits, first, last));
+            first = last;
+        }
+        return windows;
+    }
+
+    private static String createWindow(String text, int start, int end, List<int[]> hits, int firstHit,
+            int lastHit) {
+        // start and end at word boundaries, without cutting a hit
+        int from = start;
+        final int firstHitOffset = firstHit < lastHit ? hits.get(firstHit)[0] : end;
+        if (from > 0) {
+            int boundary = from;
+            while (boundary < firstHitOffset && !Character.isWhitespace(text.charAt(boundary))) {
+                boundary++;
+            }
+            if (boundary < firstHitOffset) {
+                from = boundary;
+            }
+        }
+        int to = end;
+        final int lastHitEnd = firstHit < lastHit ? hits.get(lastHit - 1)[0] + hits.get(lastHit - 1)[1] : from;
+        if (to < text.length()) {
+            int boundary = to;
+            while (boundary > lastHitEnd && !Character.isWhitespace(text.charAt(boundary - 1))) {
+                boundary--;
+            }
+            if (boundary > lastHitEnd) {
+                to = boundary;
+            }
+        }
+        final StringBuilder html = new StringBuilder();
+        if (from > 0) {
+            html.append("... ");
+        }
+        int position = from;
+        for (int i = firstHit; i < lastHit; i++) {
+            final int hitStart = Math.max(position, hits.get(i)[0]);
+            final int hitEnd = Math.min(to, hits.get(i)[0] + hits.get(i)[1]);
+            if (hitEnd <= hitStart) {
+                continue;
+            }
+            appendEscaped(html, text, position, hitStart);
+            html.append("<b>");
+            appendEscaped(html, text, hitStart, hitEnd);
+            html.append("</b>");
+            position = hitEnd;
+        }
+        appendEscaped(html, text, position, to);
+        if (to < text.length()) {
+            html.append(html.length() > 0 && html.charAt(html.length() - 1) == ' ' ? "..." : " ...");
+        }
+        return html.toString().trim();
+    }
+
+    private static void appendEscaped(StringBuilder html, String text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            final char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                // line breaks and indentation of the OCR output are not kept
+                if (html.length() > 0 && html.charAt(html.length() - 1) != ' ') {
+                    html.append(' ');
+                }
+                continue;
+            }
+            switch (c) {
+            case '<':
+                html.append("&lt;");
+                break;
+            case '>':
+                html.append("&gt;");
+                break;
+            case '&':
+                html.append("&amp;");
+                break;
+            case '"':
+                html.append("&quot;");
+                break;
+            case '\'':
+                html.append("&#39;");
+                break;
+            default:
+                html.append(c);
+            }
+        }
+    }
+
+    /**
+     * A text without whitespace and folded, and the position of each of its
+     * characters within the text.
+     */
+    private static class FoldedText {
+
+        private final StringBuilder chars;
+
+        private int[] positions;
+
+        private int position;
+
+        FoldedText(String text, TextAnalyzer analyzer) {
+            chars = new StringBuilder(text.length());
+            positions = new int[text.length()];
+            final TextAnalyzer.CharFolder folder = analyzer.createCharFolder(this::append);
+            for (position = 0; position < text.length(); position++) {
+                if (!Character.isWhitespace(text.charAt(position))) {
+                    folder.accept(text.charAt(position));
+                }
+            }
+        }
+
+        private void append(char c) {
+            if (chars.length() == positions.length) {
+                // folding may expand a character, e.g. ß to ss
+                positions = Arrays.copyOf(positions, positions.length * 2 + 1);
+            }
+            positions[chars.length()] = position;
+            chars.append(c);
+        }
+    }
+
+}
@@ -0,0 +1,256 @@
+package de.scyv.scarchive.server.search;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import de.scyv.scarchive.server.index.TextAnalyzer;
+
+/**
+ * Finds several search strings in text files in a single pass (Aho-Corasick).
+ *
+ * The files are memory mapped and decoded as UTF-8 while they are scanned.
+ * Whitespace is skipped and the characters are folded on the fly (see
+ * {@link TextAnalyzer#createCharFolder(TextAnalyzer.CharConsumer)}), so
+ * "Rech nung" matches "rechnung" like with
+ * {@link de.scyv.scarchive.server.index.Normalizer#normalizePageText(String)}
+ * and "strasse" matches "Straße", without allocating anything per line. The
+ * search strings are folded the same way. A scan stops as soon as all search
+ * strings have been found.
+ *
+ * Not thread safe, create one instance per thread.
+ */
+class TextScanner {
+
+    private static final char REPLACEMENT_CHARACTER = '\uFFFD';
+
+    // trie: the transitions of a node are sorted by character
+    private final List<char[]> transitionChars = new ArrayList<>();
+
+    private final List<int[]> transitionTargets = new ArrayList<>();
+
+    private int[] failures;
+
+    // the patterns that end in a node, including those of its failure chain
+    private int[][] outputs;
+
+    private final boolean[] found;
+
+    private int foundCount = 0;
+
+    private int state = 0;
+
+    private final TextAnalyzer.CharFolder folder;
+
+    /**
+     * Create instance.
+     *
+     * @param searchStrings
+     *            the normalized search strings, whitespace is ignored. Must not
+     *            be <code>null</code>.
+     * @param analyzer
+     *            the analyzer that folds the search strings and the texts. Must
+     *            not be <code>null</code>.
+     */
+    TextScanner(List<String> searchStrings, TextAnalyzer analyzer) {
+        found = new boolean[searchStrings.size()];
+        folder = analyzer.createCharFolder(this::transit);
+        addNode();
+        final List<List<Integer>> patternsByNode = new ArrayList<>();
+        patternsByNode.add(new ArrayList<>());
+        for (int pattern = 0; pattern < searchStrings.size(); pattern++) {
+            final String searchString = analyzer.foldText(searchStrings.get(pattern).replaceAll("\\s", ""));
+            if (searchString.isEmpty()) {
+                markFound(pattern);
+                continue;
+            }
+            int node = 0;
+            for (int i = 0; i < searchString.length(); i++) {
+                int next = transition(node, searchString.charAt(i));
+                if (next < 0) {
+                    next = addNode();
+                    patternsByNode.add(new ArrayList<>());
+                    addTransition(node, searchString.charAt(i), next);
+                }
+                node = next;
+            }
+            patternsByNode.get(node).add(pattern);
+        }
+        buildFailures(patternsByNode);
+    }
+
+    /**
+     * Scan a file for the search strings that have not been found yet. A search
+     * string is not found across files.
+     *
+     * @param file
+     *            the UTF-8 text file. Must not be <code>null</code>.
+     * @throws IOException
+     *             if the file cannot be read.
+     */
+    void scan(Path file) throws IOException {
+        if (allFound()) {
+            return;
+        }
+        state = 0;
+        folder.reset();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.hasRemaining() && !allFound()) {
+                final int codePoint = decode(buffer);
+                if (Character.isSupplementaryCodePoint(codePoint)) {
+                    accept(Character.highSurrogate(codePoint));
+                    accept(Character.lowSurrogate(codePoint));
+                } else {
+                    accept((char) codePoint);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether a search string has been found.
+     *
+     * @param index
+     *            the index of the search string.
+     */
+    boolean isFound(int index) {
+        return found[index];
+    }
+
+    boolean allFound() {
+        return foundCount == found.length;
+    }
+
+    private void accept(char c) {
+        if (!Character.isWhitespace(c)) {
+            folder.accept(c);
+        }
+    }
+
+    // the automaton reads a folded character
+    private void transit(char c) {
+        int next = transition(state, c);
+        while (next < 0 && state != 0) {
+            state = failures[state];
+            next = transition(state, c);
+        }
+        state = next < 0 ? 0 : next;
+        for (final int pattern : outputs[state]) {
+            markFound(pattern);
+        }
+    }
+
+    private void markFound(int pattern) {
+        if (!found[pattern]) {
+            found[pattern] = true;
+            foundCount++;
+        }
+    }
+
+    private static int decode(MappedByteBuffer buffer) {
+        final int first = buffer.get() & 0xff;
+        final int length;
+        int codePoint;
+        if (first < 0x80) {
+            return first;
+        } else if (first >= 0xf8) {
+            return REPLACEMENT_CHARACTER;
+        } else if (first >= 0xf0) {
+            length = 3;
+            codePoint = first & 0x07;
+        } else if (first >= 0xe0) {
+            length = 2;
+            codePoint = first & 0x0f;
+        } else if (first >= 0xc0) {
+            length = 1;
+            codePoint = first & 0x1f;
+        } else {
+            return REPLACEMENT_CHARACTER;
+        }
+        for (int i = 0; i < length; i++) {
+            if (!buffer.hasRemaining()) {
+                return REPLACEMENT_CHARACTER;
+            }
+            final int next = buffer.get(buffer.position()) & 0xff;
+            if ((next & 0xc0) != 0x80) {
+                return REPLACEMENT_CHARACTER;
+            }
+            buffer.get();
+            codePoint = (codePoint << 6) | (next & 0x3f);
+        }
+        return Character.isValidCodePoint(codePoint) ? codePoint : REPLACEMENT_CHARACTER;
+    }
+
+    private int addNode() {
+        transitionChars.add(new char[0]);
+        transitionTargets.add(new int[0]);
+        return transitionChars.size() - 1;
+    }
+
+    private void addTransition(int node, char c, int target) {
+        final char[] chars = transitionChars.get(node);
+        final int[] targets = transitionTargets.get(node);
+        final int insertion = -Arrays.binarySearch(chars, c) - 1;
+        final char[] newChars = new char[chars.length + 1];
+        final int[] newTargets = new int[targets.length + 1];
+        System.arraycopy(chars, 0, newChars, 0, insertion);
+        System.arraycopy(targets, 0, newTargets, 0, insertion);
+        newChars[insertion] = c;
+        newTargets[insertion] = target;
+        System.arraycopy(chars, insertion, newChars, insertion + 1, chars.length - insertion);
+        System.arraycopy(targets, insertion, newTargets, insertion + 1, targets.length - insertion);
+        transitionChars.set(node, newChars);
+        transitionTargets.set(node, newTargets);
+    }
+
+    private int transition(int node, char c) {
+        final int index = Arrays.binarySearch(transitionChars.get(node), c);
+        return index < 0 ? -1 : transitionTargets.get(node)[index];
+    }
+
+    private void buildFailures(List<List<Integer>> patternsByNode) {
+        final int nodeCount = transitionChars.size();
+        failures = new int[nodeCount];
+        outputs = new int[nodeCount][];
+        outputs[0] = toArray(patternsByNode.get(0));
+        // breadth first, so the failure of a node is complete before its children
+        final Deque<Integer> queue = new ArrayDeque<>();
+        for (final int child : transitionTargets.get(0)) {
+            failures[child] = 0;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int node = queue.poll();
+            final List<Integer> nodeOutputs = new ArrayList<>(patternsByNode.get(node));
+            for (final int pattern : outputs[failures[node]]) {
+                nodeOutputs.add(pattern);
+            }
+            outputs[node] = toArray(nodeOutputs);
+            final char[] chars = transitionChars.get(node);
+            final int[] targets = transitionTargets.get(node);
+            for (int i = 0; i < chars.length; i++) {
+                int failure = failures[node];
+                int next = transition(failure, chars[i]);
+                while (next < 0 && failure != 0) {
+                    failure = failures[failure];
+                    next = transition(failure, chars[i]);
+                }
+                failures[targets[i]] = next < 0 ? 0 : next;
+                queue.add(targets[i]);
+            }
+        }
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        return values.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+}
@@ -0,0 +1,52 @@
+package de.scyv.scarchive.server.search.query;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Combines queries with AND or OR.
+ */
+public class BooleanQuery extends Query {
+
+    public static enum Operator {
+        AND, OR
+    }
+
+    private final Operator operator;
+
+    private final List<Query> clauses;
+
+    /**
+     * Create instance.
+     *
+     * @param operator
+     *            how to combine the clauses. Must not be <code>null</code>.
+     * @param clauses
+     *            at least two clauses. Must not be <code>null</code>.
+     */
+    public BooleanQuery(Operator operator, List<Query> clauses) {
+        this.operator = operator;
+        this.clauses = Collections.unmodifiableList(clauses);
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    public List<Query> getClauses() {
+        return clauses;
+    }
+
+    @Override
+    public <R> R accept(QueryVisitor<R> visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public String toString() {
+        return clauses.stream().map(Query::toString)
+                .collect(Collectors.joining(" " + operator.name() + " ", "(", ")"));
+    }
+
+}
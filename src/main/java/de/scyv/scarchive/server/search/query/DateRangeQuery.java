@@ -0,0 +1,71 @@
+package de.scyv.scarchive.server.search.query;
+
+/**
+ * Matches documents whose meta data has been updated, or which have been added
+ * to the archive, within a time range.
+ */
+public class DateRangeQuery extends Query {
+
+    public static enum Field {
+        /** The last update of the meta data. */
+        UPDATED,
+        /** The time the document has been added to the archive. */
+        ADDED
+    }
+
+    private final Field field;
+
+    private final long from;
+
+    private final long to;
+
+    /**
+     * Create instance.
+     *
+     * @param field
+     *            the point in time to match. Must not be <code>null</code>.
+     * @param from
+     *            start of the range in millis, inclusive.
+     * @param to
+     *            end of the range in millis, exclusive.
+     */
+    public DateRangeQuery(Field field, long from, long to) {
+        this.field = field;
+        this.from = from;
+        this.to = to;
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    /**
+     * Check whether a point in time is within the range.
+     *
+     * @param time
+     *            the time in millis.
+     * @return true, if the time is within the range.
+     */
+    public boolean contains(long time) {
+        return time >= from && time < to;
+    }
+
+    @Override
+    public <R> R accept(QueryVisitor<R> visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public String toString() {
+        return (field == Field.ADDED ? "added:" : "date:") + from + ".." + to;
+    }
+
+}
@@ -0,0 +1,52 @@
+package de.scyv.scarchive.server.search.query;
+
+/**
+ * Matches documents by a single meta data field.
+ */
+public class FieldQuery extends Query {
+
+    public static enum Field {
+        /** The title contains the value. */
+        TITLE,
+        /** One of the tags equals the value. */
+        TAG,
+        /** The path of the original file contains the value. */
+        PATH
+    }
+
+    private final Field field;
+
+    private final String value;
+
+    /**
+     * Create instance.
+     *
+     * @param field
+     *            the field to match. Must not be <code>null</code>.
+     * @param value
+     *            the normalized value. Must not be <code>null</code>.
+     */
+    public FieldQuery(Field field, String value) {
+        this.field = field;
+        this.value = value;
+    }
+
+    public Field getField() {
+        return field;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public <R> R accept(QueryVisitor<R> visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public String toString() {
+        return field.name().toLowerCase() + ":\"" + value + "\"";
+    }
+
+}
@@ -0,0 +1,48 @@
+package de.scyv.scarchive.server.search.query;
+
+/**
+ * Matches documents that contain a term within a maximum edit (Levenshtein)
+ * distance of the given term, e.g. to find OCR errors like "rechnunq" for
+ * "rechnung".
+ */
+public class FuzzyQuery extends Query {
+
+    private final String term;
+
+    private final int maxEdits;
+
+    /**
+     * Create instance.
+     *
+     * @param term
+     *            the normalized term (see
+     *            {@link de.scyv.scarchive.server.index.Tokenizer}). Must not be
+     *            <code>null</code> or empty.
+     * @param maxEdits
+     *            the maximum amount of inserted, deleted or replaced
+     *            characters, 1 or 2.
+     */
+    public FuzzyQuery(String term, int maxEdits) {
+        this.term = term;
+        this.maxEdits = maxEdits;
+    }
+
+    public String getTerm() {
+        return term;
+    }
+
+    public int getMaxEdits() {
+        return maxEdits;
+    }
+
+    @Override
+    public <R> R accept(QueryVisitor<R> visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public String toString() {
+        return term + "~" + maxEdits;
+    }
+
+}
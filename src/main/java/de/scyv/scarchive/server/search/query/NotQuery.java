@@ -0,0 +1,34 @@
+package de.scyv.scarchive.server.search.query;
+
+/**
+ * Matches documents that are not matched by another query.
+ */
+public class NotQuery extends Query {
+
+    private final Query query;
+
+    /**
+     * Create instance.
+     *
+     * @param query
+     *            the query to negate. Must not be <code>null</code>.
+     */
+    public NotQuery(Query query) {
+        this.query = query;
+    }
+
+    public Query getQuery() {
+        return query;
+    }
+
+    @Override
+    public <R> R accept(QueryVisitor<R> visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public String toString() {
+        return "NOT " + query;
+    }
+
+}
@@ -0,0 +1,49 @@
+package de.scyv.scarchive.server.search.query;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Matches documents that contain a sequence of words, ignoring any whitespace
+ * between (and within) the words.
+ */
+public class PhraseQuery extends Query {
+
+    private final String text;
+
+    private final List<String> words;
+
+    /**
+     * Create instance.
+     *
+     * @param text
+     *            the normalized phrase, with all whitespace removed. Must not be
+     *            <code>null</code> or empty.
+     * @param words
+     *            the terms of the phrase in order, for backends that match
+     *            words rather than strings. Must not be <code>null</code>.
+     */
+    public PhraseQuery(String text, List<String> words) {
+        this.text = text;
+        this.words = Collections.unmodifiableList(words);
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public List<String> getWords() {
+        return words;
+    }
+
+    @Override
+    public <R> R accept(QueryVisitor<R> visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public String toString() {
+        return "\"" + text + "\"";
+    }
+
+}
@@ -0,0 +1,72 @@
+package de.scyv.scarchive.server.search.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A parsed search query (see {@link QueryParser}).
+ *
+ * Queries are immutable. Their string representation is normalized, i.e. two
+ * queries that match the same documents by the same rules have the same string
+ * representation.
+ */
+public abstract class Query {
+
+    /**
+     * Let the visitor visit this query.
+     *
+     * @param visitor
+     *            the visitor. Must not be <code>null</code>.
+     * @return the result of the visitor.
+     */
+    public abstract <R> R accept(QueryVisitor<R> visitor);
+
+    /**
+     * Get the normalized strings of all text terms and phrases that are not
+     * negated. These are the strings that make a document relevant and that are
+     * shown in the context of a finding.
+     *
+     * @return the search strings, never <code>null</code>.
+     */
+    public List<String> getSearchStrings() {
+        final List<String> searchStrings = new ArrayList<>();
+        collectSearchStrings(this, false, searchStrings);
+        return searchStrings;
+    }
+
+    /**
+     * Get all fuzzy terms that are not negated. Like the search strings, they
+     * make a document relevant and are shown in the context of a finding.
+     *
+     * @return the fuzzy queries, never <code>null</code>.
+     */
+    public List<FuzzyQuery> getFuzzyQueries() {
+        final List<FuzzyQuery> fuzzyQueries = new ArrayList<>();
+        collectFuzzyQueries(this, fuzzyQueries);
+        return fuzzyQueries;
+    }
+
+    private static void collectFuzzyQueries(Query query, List<FuzzyQuery> fuzzyQueries) {
+        if (query instanceof FuzzyQuery) {
+            fuzzyQueries.add((FuzzyQuery) query);
+        } else if (query instanceof BooleanQuery) {
+            ((BooleanQuery) query).getClauses().forEach(clause -> collectFuzzyQueries(clause, fuzzyQueries));
+        }
+    }
+
+    private static void collectSearchStrings(Query query, boolean negated, List<String> searchStrings) {
+        if (negated) {
+            return;
+        }
+        if (query instanceof TermQuery) {
+            searchStrings.add(((TermQuery) query).getText());
+        } else if (query instanceof PhraseQuery) {
+            searchStrings.add(((PhraseQuery) query).getText());
+        } else if (query instanceof BooleanQuery) {
+            ((BooleanQuery) query).getClauses().forEach(clause -> collectSearchStrings(clause, false, searchStrings));
+        } else if (query instanceof NotQuery) {
+            collectSearchStrings(((NotQuery) query).getQuery(), true, searchStrings);
+        }
+    }
+
+}
@@ -0,0 +1,344 @@
+package de.scyv.scarchive.server.search.query;
+
+import java.time.LocalDate;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.scyv.scarchive.server.index.Normalizer;
+import de.scyv.scarchive.server.index.Tokenizer;
+
+/**
+ * Parser for the search query language.
+ *
+ * <ul>
+ * <li>Words separated by blanks must all match (AND)</li>
+ * <li><code>OR</code> between words or groups: one of them must match. AND binds
+ * stronger than OR</li>
+ * <li><code>NOT</code> or <code>-</code> before a word or group: it must not
+ * match</li>
+ * <li><code>"quoted phrase"</code>: the words must occur in this order</li>
+ * <li><code>( ... )</code>: grouping</li>
+ * <li><code>title:</code>, <code>tag:</code>, <code>path:</code>: match only the
+ * given field, values may be quoted</li>
+ * <li><code>date:2023</code>, <code>date:2023-04</code>,
+ * <code>date:2023-04-01</code>, <code>date:2023-01..2023-06</code>: match by the
+ * date of the last update, ranges may be open on one side</li>
+ * <li><code>added:</code>: same as <code>date:</code>, but matches by the date
+ * the document has been added to the archive</li>
+ * <li><code>word~</code>, <code>word~1</code>, <code>word~2</code>: fuzzy
+ * search, matches terms that differ by up to 1 or 2 characters (e.g. OCR
+ * errors). Without a number, short words allow 1 and longer words 2
+ * differences</li>
+ * </ul>
+ *
+ * The parser is lenient: unbalanced quotes or parentheses and unknown fields
+ * never fail, they are treated as well as possible.
+ */
+public final class QueryParser {
+
+    private static enum TokenType {
+        WORD, PHRASE, FIELD, LEFT_PARENTHESIS, RIGHT_PARENTHESIS, AND, OR, NOT
+    }
+
+    private static final class Token {
+        private final TokenType type;
+        private final String text;
+        private final String value;
+
+        private Token(TokenType type, String text, String value) {
+            this.type = type;
+            this.text = text;
+            this.value = value;
+        }
+    }
+
+    private static final Pattern FUZZY_PATTERN = Pattern.compile("(.+)~(\\d)?");
+
+    private static final int MAX_EDITS = 2;
+
+    private static final int MAX_LENGTH_FOR_ONE_EDIT = 5;
+
+    private final List<Token> tokens;
+
+    private int position = 0;
+
+    private QueryParser(List<Token> tokens) {
+        this.tokens = tokens;
+    }
+
+    /**
+     * Parse a search string.
+     *
+     * @param searchString
+     *            the search string as entered by the user. Must not be
+     *            <code>null</code>.
+     * @return the query, or <code>null</code> if the search string does not
+     *         contain anything to search for.
+     */
+    public static Query parse(String searchString) {
+        final QueryParser parser = new QueryParser(tokenize(searchString));
+        Query query = null;
+        while (parser.position < parser.tokens.size()) {
+            final Query next = parser.parseOr();
+            if (next != null) {
+                query = query == null ? next : and(query, next);
+            }
+            // skip unbalanced closing parentheses
+            parser.position++;
+        }
+        return query;
+    }
+
+    private Query parseOr() {
+        final List<Query> clauses = new ArrayList<>();
+        addClause(clauses, parseAnd());
+        while (peek(TokenType.OR)) {
+            position++;
+            addClause(clauses, parseAnd());
+        }
+        return combine(BooleanQuery.Operator.OR, clauses);
+    }
+
+    private Query parseAnd() {
+        final List<Query> clauses = new ArrayList<>();
+        while (position < tokens.size() && !peek(TokenType.OR) && !peek(TokenType.RIGHT_PARENTHESIS)) {
+            if (peek(TokenType.AND)) {
+                position++;
+            } else {
+                addClause(clauses, parseUnary());
+            }
+        }
+        return combine(BooleanQuery.Operator.AND, clauses);
+    }
+
+    private Query parseUnary() {
+        if (peek(TokenType.NOT)) {
+            position++;
+            if (position >= tokens.size() || peek(TokenType.OR) || peek(TokenType.RIGHT_PARENTHESIS)) {
+                return null;
+            }
+            final Query query = parseUnary();
+            return query == null ? null : new NotQuery(query);
+        }
+        final Token token = tokens.get(position++);
+        switch (token.type) {
+        case LEFT_PARENTHESIS:
+            final Query group = parseOr();
+            if (peek(TokenType.RIGHT_PARENTHESIS)) {
+                position++;
+            }
+            return group;
+        case PHRASE:
+            final String phrase = Normalizer.normalizePageText(token.value);
+            return phrase.isEmpty() ? null : new PhraseQuery(phrase, Tokenizer.tokenize(token.value));
+        case FIELD:
+            return createFieldQuery(token);
+        default:
+            return createTermQuery(token.text);
+        }
+    }
+
+    private Query createTermQuery(String word) {
+        final Matcher fuzzy = FUZZY_PATTERN.matcher(word);
+        if (fuzzy.matches()) {
+            final List<String> terms = Tokenizer.tokenize(fuzzy.group(1));
+            // fuzzy matching works on single terms only
+            if (terms.size() == 1) {
+                final String term = terms.get(0);
+                final int maxEdits = fuzzy.group(2) == null
+                        ? (term.length() <= MAX_LENGTH_FOR_ONE_EDIT ? 1 : MAX_EDITS)
+                        : Math.min(Integer.parseInt(fuzzy.group(2)), MAX_EDITS);
+                return maxEdits == 0 ? new TermQuery(term) : new FuzzyQuery(term, maxEdits);
+            }
+            return new TermQuery(Normalizer.normalize(fuzzy.group(1)));
+        }
+        return new TermQuery(Normalizer.normalize(word));
+    }
+
+    private Query createFieldQuery(Token token) {
+        final String field = token.text.toLowerCase();
+        final String value = Normalizer.normalize(token.value).trim();
+        if (value.isEmpty()) {
+            return null;
+        }
+        switch (field) {
+        case "title":
+            return new FieldQuery(FieldQuery.Field.TITLE, value);
+        case "tag":
+            return new FieldQuery(FieldQuery.Field.TAG, value);
+        case "path":
+            return new FieldQuery(FieldQuery.Field.PATH, value);
+        case "date":
+        case "added":
+            final DateRangeQuery dateQuery = parseDateRange(
+                    "date".equals(field) ? DateRangeQuery.Field.UPDATED : DateRangeQuery.Field.ADDED, value);
+            if (dateQuery != null) {
+                return dateQuery;
+            }
+            break;
+        default:
+            break;
+        }
+        // not a known field, search for it as it has been entered
+        final String text = Normalizer.normalize(token.text + ":" + token.value);
+        return text.matches(".*\\s.*")
+                ? new PhraseQuery(Normalizer.normalizePageText(text), Tokenizer.tokenize(text))
+                : new TermQuery(text);
+    }
+
+    private boolean peek(TokenType type) {
+        return position < tokens.size() && tokens.get(position).type == type;
+    }
+
+    private static void addClause(List<Query> clauses, Query clause) {
+        if (clause != null) {
+            clauses.add(clause);
+        }
+    }
+
+    private static Query combine(BooleanQuery.Operator operator, List<Query> clauses) {
+        if (clauses.isEmpty()) {
+            return null;
+        }
+        return clauses.size() == 1 ? clauses.get(0) : new BooleanQuery(operator, clauses);
+    }
+
+    private static Query and(Query first, Query second) {
+        final List<Query> clauses = new ArrayList<>();
+        clauses.add(first);
+        clauses.add(second);
+        return new BooleanQuery(BooleanQuery.Operator.AND, clauses);
+    }
+
+    /**
+     * Parse a date or a date range (<code>from..to</code>). Dates may be given as
+     * year, year and month or full date.
+     *
+     * @return the range or <code>null</code>, if the value cannot be parsed.
+     */
+    static DateRangeQuery parseDateRange(DateRangeQuery.Field field, String value) {
+        final int separator = value.indexOf("..");
+        try {
+            if (separator < 0) {
+                return new DateRangeQuery(field, startOf(value), endOf(value));
+            }
+            final String from = value.substring(0, separator).trim();
+            final String to = value.substring(separator + 2).trim();
+            return new DateRangeQuery(field, from.isEmpty() ? Long.MIN_VALUE : startOf(from),
+                    to.isEmpty() ? Long.MAX_VALUE : endOf(to));
+        } catch (final DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+    private static long startOf(String date) {
+        return toMillis(parseStartDate(date));
+    }
+
+    private static long endOf(String date) {
+        switch (date.length()) {
+        case 4:
+            return toMillis(Year.parse(date).plusYears(1).atDay(1));
+        case 7:
+            return toMillis(YearMonth.parse(date).plusMonths(1).atDay(1));
+        default:
+            return toMillis(LocalDate.parse(date).plusDays(1));
+        }
+    }
+
+    private static LocalDate parseStartDate(String date) {
+        switch (date.length()) {
+        case 4:
+            return Year.parse(date).atDay(1);
+        case 7:
+            return YearMonth.parse(date).atDay(1);
+        default:
+            return LocalDate.parse(date);
+        }
+    }
+
+    private static long toMillis(LocalDate date) {
+        return date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static List<Token> tokenize(String searchString) {
+        final List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < searchString.length()) {
+            final char c = searchString.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(') {
+                tokens.add(new Token(TokenType.LEFT_PARENTHESIS, "(", null));
+                i++;
+            } else if (c == ')') {
+                tokens.add(new Token(TokenType.RIGHT_PARENTHESIS, ")", null));
+                i++;
+            } else if (c == '"') {
+                final int end = findClosingQuote(searchString, i + 1);
+                tokens.add(new Token(TokenType.PHRASE, null, searchString.substring(i + 1, end)));
+                i = end + 1;
+            } else if (c == '-' && i + 1 < searchString.length()
+                    && !Character.isWhitespace(searchString.charAt(i + 1))) {
+                tokens.add(new Token(TokenType.NOT, "-", null));
+                i++;
+            } else {
+                i = readWord(searchString, i, tokens);
+            }
+        }
+        return tokens;
+    }
+
+    private static int readWord(String searchString, int start, List<Token> tokens) {
+        int i = start;
+        while (i < searchString.length()) {
+            final char c = searchString.charAt(i);
+            if (Character.isWhitespace(c) || c == '(' || c == ')') {
+                break;
+            }
+            if (c == ':' && i > start) {
+                return readField(searchString, start, i, tokens);
+            }
+            i++;
+        }
+        final String word = searchString.substring(start, i);
+        if ("AND".equals(word)) {
+            tokens.add(new Token(TokenType.AND, word, null));
+        } else if ("OR".equals(word)) {
+            tokens.add(new Token(TokenType.OR, word, null));
+        } else if ("NOT".equals(word)) {
+            tokens.add(new Token(TokenType.NOT, word, null));
+        } else {
+            tokens.add(new Token(TokenType.WORD, word, null));
+        }
+        return i;
+    }
+
+    private static int readField(String searchString, int start, int colon, List<Token> tokens) {
+        final String field = searchString.substring(start, colon);
+        int i = colon + 1;
+        if (i < searchString.length() && searchString.charAt(i) == '"') {
+            final int end = findClosingQuote(searchString, i + 1);
+            tokens.add(new Token(TokenType.FIELD, field, searchString.substring(i + 1, end)));
+            return end + 1;
+        }
+        while (i < searchString.length() && !Character.isWhitespace(searchString.charAt(i))
+                && searchString.charAt(i) != '(' && searchString.charAt(i) != ')') {
+            i++;
+        }
+        tokens.add(new Token(TokenType.FIELD, field, searchString.substring(colon + 1, i)));
+        return i;
+    }
+
+    private static int findClosingQuote(String searchString, int from) {
+        final int end = searchString.indexOf('"', from);
+        return end < 0 ? searchString.length() : end;
+    }
+
+}
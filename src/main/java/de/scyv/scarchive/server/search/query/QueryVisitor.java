@@ -0,0 +1,25 @@
+package de.scyv.scarchive.server.search.query;
+
+/**
+ * Visitor for evaluating a {@link Query}.
+ *
+ * @param <R>
+ *            the type of the result of the evaluation.
+ */
+public interface QueryVisitor<R> {
+
+    R visit(TermQuery query);
+
+    R visit(PhraseQuery query);
+
+    R visit(FuzzyQuery query);
+
+    R visit(FieldQuery query);
+
+    R visit(DateRangeQuery query);
+
+    R visit(BooleanQuery query);
+
+    R visit(NotQuery query);
+
+}
@@ -0,0 +1,36 @@
+package de.scyv.scarchive.server.search.query;
+
+/**
+ * Matches documents that contain a string in their title, tags, text or meta
+ * data path, or in a line of a page text (ignoring whitespace there).
+ */
+public class TermQuery extends Query {
+
+    private final String text;
+
+    /**
+     * Create instance.
+     *
+     * @param text
+     *            the normalized text, without whitespace. Must not be
+     *            <code>null</code> or empty.
+     */
+    public TermQuery(String text) {
+        this.text = text;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public <R> R accept(QueryVisitor<R> visitor) {
+        return visitor.visit(this);
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+}
@@ -30,6 +30,7 @@ import com.vaadin.ui.Window;
 import com.vaadin.ui.themes.ValoTheme;
 
 import de.scyv.scarchive.server.MetaData;
+import de.scyv.scarchive.server.MetaDataService;
 
 /**
  * Window for editing the MetaData of a document/note.
@@ -40,6 +41,7 @@ public class EditMetaDataWindow extends Window {
 
     private static Logger LOGGER = LoggerFactory.getLogger(EditMetaDataWindow.class);
 
+    private final MetaDataService metaDataService;
     private final MetaData metaData;
     private TextField title;
     private TextField tags;
@@ -50,11 +52,14 @@ public class EditMetaDataWindow extends Window {
     /**
      * Create instance.
      *
+     * @param metaDataService
+     *            the service used for saving the metadata. Not Null!
      * @param metaData
      *            the metadata to edit. Not Null!
      */
-    public EditMetaDataWindow(MetaData metaData, Consumer<MetaData> saveCallback) {
+    public EditMetaDataWindow(MetaDataService metaDataService, MetaData metaData, Consumer<MetaData> saveCallback) {
         super("Bearbeiten");
+        this.metaDataService = metaDataService;
         this.metaData = metaData;
         this.saveCallback = saveCallback;
 
@@ -105,7 +110,7 @@ public class EditMetaDataWindow extends Window {
                 binder.writeBean(metaData);
                 try {
                     LOGGER.debug("Saving meta data to: " + metaData.getFilePath());
-                    metaData.saveToFile(metaData.getFilePath());
+                    metaDataService.save(metaData, metaData.getFilePath());
                     Notification.show("Speichern erfolreich.", Type.TRAY_NOTIFICATION);
                     saveCallback.accept(metaData);
                 } catch (final IOException ex) {
@@ -5,6 +5,9 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.PostConstruct;
@@ -18,6 +21,8 @@ import com.vaadin.event.ShortcutAction.KeyCode;
 import com.vaadin.icons.VaadinIcons;
 import com.vaadin.server.FileDownloader;
 import com.vaadin.server.FileResource;
+import com.vaadin.shared.ui.ContentMode;
+import com.vaadin.shared.ui.ValueChangeMode;
 import com.vaadin.spring.annotation.SpringView;
 import com.vaadin.ui.Button;
 import com.vaadin.ui.Component;
@@ -31,8 +36,10 @@ import com.vaadin.ui.themes.ValoTheme;
 
 import de.scyv.scarchive.server.MetaData;
 import de.scyv.scarchive.server.MetaDataService;
+import de.scyv.scarchive.server.index.TagCounts;
 import de.scyv.scarchive.server.search.DocumentFinder;
 import de.scyv.scarchive.server.search.Finding;
+import de.scyv.scarchive.server.search.SearchCursor;
 import de.scyv.scarchive.ui.EditMetaDataWindow;
 
 @SpringView(name = DocumentsView.VIEW_NAME)
@@ -44,6 +51,12 @@ public class DocumentsView extends VerticalLayout implements ScarchiveView {
 
     private static final long serialVersionUID = 1L;
 
+    private static final int PAGE_SIZE = 20;
+
+    private static final int MAX_TAG_FACETS = 15;
+
+    private static final int MAX_SUGGESTIONS = 8;
+
     @Value("${scarchive.openlocal}")
     private Boolean openlocal;
 
@@ -56,6 +69,19 @@ public class DocumentsView extends VerticalLayout implements ScarchiveView {
 
     private Label searchResultCountLabel;
 
+    private Button moreResultsButton;
+
+    private CssLayout tagFacetLayout;
+
+    private CssLayout suggestionLayout;
+
+    private SearchCursor searchCursor;
+
+    private final List<Finding> shownFindings = new ArrayList<>();
+
+    // the backend cannot count the tags, they are counted in the shown findings
+    private boolean partialTagFacets;
+
     private final MetaDataService metaDataService;
 
     public DocumentsView(MetaDataService metaDataService) {
@@ -70,15 +96,20 @@ public class DocumentsView extends VerticalLayout implements ScarchiveView {
         content.setMargin(false);
         searchResult = new VerticalLayout();
         searchResult.setMargin(false);
+        tagFacetLayout = new CssLayout();
+        suggestionLayout = new CssLayout();
 
-        content.addComponents(searchBar, searchResult);
+        content.addComponents(searchBar, suggestionLayout, tagFacetLayout, searchResult);
         this.addComponent(content);
 
         findNewestEntries();
+        showTagFacets("");
 
         content.addStyleName("sc-content");
         searchBar.addStyleName("sc-searchBar");
         searchResult.addStyleName("sc-searchResult");
+        tagFacetLayout.addStyleName("sc-tagFacets");
+        suggestionLayout.addStyleName("sc-suggestions");
     }
 
     @Override
@@ -101,12 +132,24 @@ public class DocumentsView extends VerticalLayout implements ScarchiveView {
         searchForm.addStyleName("sc-searchForm");
         searchField = new TextField();
         searchField.setPlaceholder("Suchbegriff");
+        searchField.setDescription("Alle Wörter müssen vorkommen. Außerdem: OR, NOT bzw. -wort, \"genaue Phrase\", "
+                + "wort~ (unscharf), title:, tag:, path:, date:2023 bzw. date:2023-01..2023-06");
+        searchField.setValueChangeMode(ValueChangeMode.LAZY);
+        searchField.addValueChangeListener(event -> {
+            if (event.isUserOriginated()) {
+                showSuggestions(event.getValue());
+            }
+        });
         final Button searchButton = new Button("Suche");
 
         searchResultCountLabel = new Label("");
         searchResultCountLabel.addStyleName(ValoTheme.LABEL_SMALL);
         searchResultCountLabel.addStyleName("sc-searchResultCount");
 
+        moreResultsButton = new Button("Weitere Ergebnisse");
+        moreResultsButton.addStyleName(ValoTheme.BUTTON_SMALL);
+        moreResultsButton.addClickListener(event -> showNextResults());
+
         searchForm.addComponents(searchField, searchButton);
         searchButton.setClickShortcut(KeyCode.ENTER);
         searchButton.addClickListener(event -> {
@@ -123,17 +166,81 @@ public class DocumentsView extends VerticalLayout implements ScarchiveView {
         }
         searchResultCountLabel.setValue("...");
         searchResult.removeAllComponents();
+        suggestionLayout.removeAllComponents();
+        shownFindings.clear();
 
-        final Set<Finding> findings = finder.find(searchField.getValue());
-        findings.forEach(finding -> {
-            searchResult.addComponent(createResultComponent(finding));
-        });
-        if (findings.size() == 0) {
+        searchCursor = finder.search(searchField.getValue());
+        showNextResults();
+        if (searchCursor.getPosition() == 0) {
             searchResult.addComponent(new Label("Nichts gefunden :("));
         }
+        showTagFacets(searchField.getValue());
+    }
 
-        updateSearchResultCount(findings.size());
+    private void showSuggestions(String searchString) {
+        suggestionLayout.removeAllComponents();
+        finder.suggest(searchString, MAX_SUGGESTIONS).forEach(suggestion -> {
+            final Button suggestionButton = new Button(suggestion);
+            suggestionButton.addStyleNames(ValoTheme.BUTTON_LINK, ValoTheme.BUTTON_SMALL);
+            suggestionButton.addClickListener(event -> {
+                searchField.setValue(suggestion);
+                runSearch(suggestion);
+            });
+            suggestionLayout.addComponent(suggestionButton);
+        });
+    }
+
+    private void showTagFacets(String searchString) {
+        final TagCounts tagCounts = finder.countTags(searchString);
+        partialTagFacets = tagCounts == null;
+        if (partialTagFacets) {
+            showPartialTagFacets();
+        } else {
+            showTagFacets(tagCounts.getCounts(), tagCounts.isExact() ? "" : "max. ", null);
+        }
+    }
 
+    private void showPartialTagFacets() {
+        showTagFacets(finder.countTags(shownFindings), "", "In den ersten " + shownFindings.size() + " Ergebnissen:");
+    }
+
+    private void showTagFacets(Map<String, Integer> counts, String countPrefix, String caption) {
+        tagFacetLayout.removeAllComponents();
+        if (caption != null && !counts.isEmpty()) {
+            final Label captionLabel = new Label(caption);
+            captionLabel.addStyleName(ValoTheme.LABEL_SMALL);
+            tagFacetLayout.addComponent(captionLabel);
+        }
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer>comparingByValue().reversed()).limit(MAX_TAG_FACETS)
+                .forEach(tagCount -> {
+                    final Button tagButton = new Button(
+                            tagCount.getKey() + " (" + countPrefix + tagCount.getValue() + ")");
+                    tagButton.addStyleNames(ValoTheme.BUTTON_LINK, ValoTheme.BUTTON_SMALL);
+                    tagButton.addClickListener(event -> {
+                        searchField.setValue((searchField.getValue() + " tag:\"" + tagCount.getKey() + "\"").trim());
+                        runSearch(searchField.getValue());
+                    });
+                    tagFacetLayout.addComponent(tagButton);
+                });
+    }
+
+    private void showNextResults() {
+        searchResult.removeComponent(moreResultsButton);
+        final List<Finding> findings = searchCursor.next(PAGE_SIZE);
+        findings.forEach(finding -> {
+            searchResult.addComponent(createResultComponent(finding));
+        });
+        shownFindings.addAll(findings);
+        if (partialTagFacets) {
+            showPartialTagFacets();
+        }
+        if (searchCursor.hasMore()) {
+            searchResult.addComponent(moreResultsButton);
+            searchResultCountLabel.setValue(searchCursor.getPosition() + "+ Ergebnisse.");
+        } else {
+            updateSearchResultCount(searchCursor.getPosition());
+        }
     }
 
     private void updateSearchResultCount(int results) {
@@ -165,6 +272,14 @@ public class DocumentsView extends VerticalLayout implements ScarchiveView {
         info.addComponent(filePathLabel);
         addThumbnail(data, info, 180);
         info.addComponent(tagLabel);
+        if (finding.getContext() != null && !finding.getContext().isEmpty()) {
+            // the snippet is escaped HTML with the hits highlighted
+            final Label snippetLabel = new Label(finding.getContext(), ContentMode.HTML);
+            snippetLabel.addStyleNames(ValoTheme.LABEL_SMALL, "sc-snippet");
+            snippetLabel.setWidth(100, Unit.PERCENTAGE);
+            addPageButtons(finding, info, snippetLabel);
+            info.addComponent(snippetLabel);
+        }
 
         result.setContent(info);
 
@@ -185,13 +300,38 @@ public class DocumentsView extends VerticalLayout implements ScarchiveView {
 
         buttons.addComponents(editButton, openButton);
         editButton.addClickListener(event -> {
-            getUI().addWindow(new EditMetaDataWindow(data, metaData -> {
+            // findings come without the text of the meta data
+            final MetaData fullMetaData;
+            try {
+                fullMetaData = MetaData.createFromFile(data.getFilePath());
+            } catch (final IOException ex) {
+                LOGGER.error("Cannot read meta data file " + data.getFilePath(), ex);
+                return;
+            }
+            getUI().addWindow(new EditMetaDataWindow(metaDataService, fullMetaData, metaData -> {
                 metaDataToUI(metaData, finding, result, tagLabel);
             }));
         });
         info.addComponent(buttons);
     }
 
+    private void addPageButtons(Finding finding, VerticalLayout info, Label snippetLabel) {
+        final List<Integer> pages = finding.getPages();
+        if (pages.size() < 2) {
+            return;
+        }
+        final CssLayout pageButtons = new CssLayout();
+        pageButtons.addStyleName("sc-pages");
+        pages.forEach(page -> {
+            final Button pageButton = new Button(page == 0 ? "Text" : "Seite " + page);
+            pageButton.addStyleNames(ValoTheme.BUTTON_LINK, ValoTheme.BUTTON_SMALL);
+            // the page text is only read when its snippet is shown
+            pageButton.addClickListener(event -> snippetLabel.setValue(finder.createContext(finding, page)));
+            pageButtons.addComponent(pageButton);
+        });
+        info.addComponent(pageButtons);
+    }
+
     private void addThumbnail(final MetaData data, final VerticalLayout info, int width) {
         Image image = null;
         if (data.getThumbnailPaths().size() > 0) {
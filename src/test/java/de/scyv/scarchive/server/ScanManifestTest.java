@@ -0,0 +1,164 @@
+package de.scyv.scarchive.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import de.scyv.scarchive.server.extraction.Extractor;
+
+public class ScanManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path documentPath;
+
+    private Path manifestDirectory;
+
+    @Before
+    public void createDirectories() throws IOException {
+        documentPath = folder.newFolder("documents").toPath();
+        manifestDirectory = folder.newFolder("manifest").toPath();
+    }
+
+    @Test
+    public void persistAndLoad() throws IOException {
+        final Path first = createFile("first.pdf", "first content", 100000);
+        final Path second = createFile("sub/second.pdf", "second", 200000);
+        final ScanManifest manifest = createManifest();
+        manifest.extracted(first, attributes(first), extractor(1), ScanManifest.hash(first));
+        manifest.extracted(second, attributes(second), extractor(1), null);
+        manifest.persist();
+
+        final ScanManifest loaded = createManifest();
+        assertTrue(loaded.isUpToDate(first, attributes(first), extractor(1)));
+        assertTrue(loaded.isUpToDate(second, attributes(second), extractor(1)));
+        // a new extractor version
+        assertFalse(loaded.isUpToDate(first, attributes(first), extractor(2)));
+
+        // replaced with another size or modification time
+        Files.write(first, "other content".getBytes());
+        assertFalse(loaded.isUpToDate(first, attributes(first), extractor(1)));
+        Files.setLastModifiedTime(second, FileTime.fromMillis(300000));
+        assertFalse(loaded.isUpToDate(second, attributes(second), extractor(1)));
+    }
+
+    @Test
+    public void unscannedFilesAreDropped() throws IOException {
+        final Path kept = createFile("kept.pdf", "kept", 100000);
+        final Path deleted = createFile("deleted.pdf", "deleted", 100000);
+        final ScanManifest manifest = createManifest();
+        manifest.extracted(kept, attributes(kept), extractor(1), null);
+        manifest.extracted(deleted, attributes(deleted), extractor(1), null);
+        manifest.persist();
+
+        manifest.startScan();
+        assertTrue(manifest.isUpToDate(kept, attributes(kept), extractor(1)));
+        manifest.finishScan(Collections.emptyList());
+        manifest.persist();
+
+        // without an entry and without meta data, the file has to be extracted
+        final ScanManifest loaded = createManifest();
+        assertTrue(loaded.isUpToDate(kept, attributes(kept), extractor(1)));
+        assertFalse(loaded.isUpToDate(deleted, attributes(deleted), extractor(1)));
+    }
+
+    @Test
+    public void unreadableManifestIsIgnored() throws IOException {
+        final Path file = createFile("file.pdf", "content", 100000);
+        final ScanManifest manifest = createManifest();
+        manifest.extracted(file, attributes(file), extractor(1), null);
+        manifest.persist();
+        try (Stream<Path> files = Files.list(manifestDirectory)) {
+            files.forEach(manifestFile -> {
+                try {
+                    Files.write(manifestFile, new byte[] { 1, 2, 3 });
+                } catch (final IOException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            });
+        }
+
+        assertFalse(createManifest().isUpToDate(file, attributes(file), extractor(1)));
+    }
+
+    @Test
+    public void duplicatesAreFoundByHash() throws IOException {
+        final Path original = createFile("original.pdf", "same content", 100000);
+        final Path copy = createFile("copy.pdf", "same content", 200000);
+        final Path other = createFile("other.pdf", "other content", 100000);
+        Files.createDirectories(documentPath.resolve(MetaDataService.META_DATA_SUB_DIRECTORY));
+        Files.write(documentPath.resolve(MetaDataService.META_DATA_SUB_DIRECTORY)
+                .resolve("original.pdf" + MetaDataService.META_DATA_SUFFIX), "{\"title\":\"original\"}".getBytes());
+        final ScanManifest manifest = createManifest();
+        manifest.extracted(original, attributes(original), extractor(1), ScanManifest.hash(original));
+        manifest.persist();
+
+        final ScanManifest loaded = createManifest();
+        assertEquals(original,
+                loaded.findDuplicate(copy, attributes(copy), ScanManifest.hash(copy), extractor(1)));
+        assertNull(loaded.findDuplicate(copy, attributes(copy), ScanManifest.hash(copy), extractor(2)));
+        assertNull(loaded.findDuplicate(other, attributes(other), ScanManifest.hash(other), extractor(1)));
+    }
+
+    private ScanManifest createManifest() {
+        final ScanManifest manifest = new ScanManifest(new MetaDataService());
+        ReflectionTestUtils.setField(manifest, "manifestDirectory", manifestDirectory.toString());
+        ReflectionTestUtils.setField(manifest, "documentPaths", documentPath.toString());
+        manifest.load();
+        return manifest;
+    }
+
+    private Path createFile(String name, String content, long lastModified) throws IOException {
+        final Path file = documentPath.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes());
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+        return file;
+    }
+
+    private static BasicFileAttributes attributes(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+
+    private static Extractor extractor(int version) {
+        return new Extractor() {
+
+            @Override
+            public String getIdentifier() {
+                return "test";
+            }
+
+            @Override
+            public int getVersion() {
+                return version;
+            }
+
+            @Override
+            public boolean extract(Path path) {
+                return true;
+            }
+
+            @Override
+            public boolean accepts(Path path) {
+                return true;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,76 @@
+package de.scyv.scarchive.server.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class DocumentIdsTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        final DocumentIds ids = multiplesOf(7, 5000);
+        // repeated ids are ignored
+        ids.add(4998);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            ids.write(out);
+        }
+        final DocumentIds read = new DocumentIds();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read.read(in);
+        }
+        assertEquals(ids.size(), read.size());
+        final DocumentIds.Cursor cursor = read.cursor();
+        for (int id = 0; id < 5000; id += 7) {
+            assertTrue(cursor.next());
+            assertEquals(id, cursor.id());
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void intersect() {
+        final int[] expected = IntStream.range(0, 10000).filter(id -> id % 30 == 0).toArray();
+        assertArrayEquals(expected,
+                DocumentIds.intersect(Arrays.asList(multiplesOf(2, 10000), multiplesOf(3, 10000),
+                        multiplesOf(5, 10000))));
+    }
+
+    @Test
+    public void intersectWithSmallSet() {
+        final DocumentIds small = new DocumentIds();
+        small.add(5);
+        small.add(4000);
+        small.add(9999);
+        small.add(12000);
+        assertArrayEquals(new int[] { 5, 4000, 9999 },
+                DocumentIds.intersect(Arrays.asList(multiplesOf(1, 10000), small)));
+        assertArrayEquals(new int[0], DocumentIds.intersect(Arrays.asList(multiplesOf(2, 10000),
+                multiplesOf(2, 10000), new DocumentIds())));
+        assertArrayEquals(new int[] { 0, 7, 14 },
+                DocumentIds.intersect(Collections.singletonList(multiplesOf(7, 20))));
+    }
+
+    private static DocumentIds multiplesOf(int factor, int limit) {
+        final DocumentIds ids = new DocumentIds();
+        for (int id = 0; id < limit; id += factor) {
+            ids.add(id);
+        }
+        ids.trim();
+        return ids;
+    }
+
+}
@@ -0,0 +1,59 @@
+package de.scyv.scarchive.server.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LevenshteinAutomatonTest {
+
+    @Test
+    public void distances() {
+        final LevenshteinAutomaton automaton = new LevenshteinAutomaton("rechnung", 2);
+        assertEquals(0, automaton.distance("rechnung"));
+        // substitution, insertion, deletion
+        assertEquals(1, automaton.distance("rechnunq"));
+        assertEquals(1, automaton.distance("rechnungs"));
+        assertEquals(1, automaton.distance("rechnng"));
+        assertEquals(2, automaton.distance("reehnunq"));
+        assertEquals(2, automaton.distance("echnun"));
+        // transpositions are two edits
+        assertEquals(2, automaton.distance("rehcnung"));
+    }
+
+    @Test
+    public void distancesAboveTheMaximum() {
+        final LevenshteinAutomaton automaton = new LevenshteinAutomaton("rechnung", 1);
+        assertEquals(-1, automaton.distance("rechnungen"));
+        assertEquals(-1, automaton.distance("rehcnung"));
+        assertEquals(-1, automaton.distance(""));
+        assertEquals(-1, automaton.distance("quittung"));
+    }
+
+    @Test
+    public void emptyWord() {
+        final LevenshteinAutomaton automaton = new LevenshteinAutomaton("", 1);
+        assertEquals(0, automaton.distance(""));
+        assertEquals(1, automaton.distance("a"));
+        assertEquals(-1, automaton.distance("ab"));
+    }
+
+    @Test
+    public void hopelessPrefixes() {
+        final LevenshteinAutomaton automaton = new LevenshteinAutomaton("maier", 1);
+        int[] state = automaton.start();
+        for (final char c : "mei".toCharArray()) {
+            state = automaton.step(state, c);
+        }
+        assertTrue(automaton.canMatch(state));
+        assertFalse(automaton.isMatch(state));
+
+        state = automaton.start();
+        for (final char c : "mux".toCharArray()) {
+            state = automaton.step(state, c);
+        }
+        assertFalse(automaton.canMatch(state));
+    }
+
+}
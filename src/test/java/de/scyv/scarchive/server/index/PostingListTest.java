@@ -0,0 +1,138 @@
+package de.scyv.scarchive.server.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+public class PostingListTest {
+
+    // several blocks, the postings of a document may span two blocks
+    private static final int DOCUMENTS = 150;
+
+    @Test
+    public void roundTrip() throws IOException {
+        final PostingList postings = createPostings();
+        assertPostings(postings);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            postings.write(out);
+        }
+        final PostingList read = new PostingList();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read.read(in);
+        }
+        assertEquals(postings.size(), read.size());
+        assertPostings(read);
+    }
+
+    @Test
+    public void advance() {
+        final PostingList postings = createPostings();
+        final PostingList.Cursor cursor = postings.cursor();
+        for (int document = 0; document < DOCUMENTS; document += 7) {
+            assertTrue(cursor.advance(document * 3 - 1));
+            // the first posting of the document, even if it starts in the block before
+            assertEquals(document * 3, cursor.getDocumentId());
+            assertEquals(0, cursor.getPage());
+        }
+        // the cursor does not move back
+        assertTrue(cursor.advance(0));
+        assertEquals(147 * 3, cursor.getDocumentId());
+        assertFalse(cursor.advance(DOCUMENTS * 3));
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void documentIds() {
+        final BitSet ids = new BitSet();
+        createPostings().addDocumentIdsTo(ids);
+        assertEquals(DOCUMENTS, ids.cardinality());
+        assertEquals(0, ids.nextSetBit(0));
+        assertEquals(3, ids.nextSetBit(1));
+        assertEquals((DOCUMENTS - 1) * 3, ids.length() - 1);
+    }
+
+    @Test
+    public void addAllMapsDocumentIds() {
+        final PostingList postings = createPostings();
+        // drop the odd documents, move the others to the ids 1000, 1001, ...
+        final int[] newIds = new int[DOCUMENTS * 3];
+        Arrays.fill(newIds, -1);
+        for (int document = 0; document < DOCUMENTS; document += 2) {
+            newIds[document * 3] = 1000 + document / 2;
+        }
+        final PostingList merged = new PostingList();
+        merged.addAll(postings, newIds);
+
+        final PostingList.Cursor cursor = merged.cursor();
+        for (int document = 0; document < DOCUMENTS; document += 2) {
+            for (int page = 0; page <= document % 3; page++) {
+                assertTrue(cursor.next());
+                assertEquals(1000 + document / 2, cursor.getDocumentId());
+                assertPosting(cursor, document, page);
+            }
+        }
+        assertFalse(cursor.next());
+    }
+
+    // document n has the id 3n and the pages 0 to n % 3
+    private static PostingList createPostings() {
+        final PostingList postings = new PostingList();
+        for (int document = 0; document < DOCUMENTS; document++) {
+            for (int page = 0; page <= document % 3; page++) {
+                postings.add(document * 3, page, page + 1, offsets(document, page), lengths(document, page));
+            }
+        }
+        postings.trim();
+        return postings;
+    }
+
+    private static void assertPostings(PostingList postings) {
+        final PostingList.Cursor cursor = postings.cursor();
+        for (int document = 0; document < DOCUMENTS; document++) {
+            for (int page = 0; page <= document % 3; page++) {
+                assertTrue(cursor.next());
+                assertEquals(document * 3, cursor.getDocumentId());
+                assertPosting(cursor, document, page);
+            }
+        }
+        assertFalse(cursor.next());
+    }
+
+    private static void assertPosting(PostingList.Cursor cursor, int document, int page) {
+        assertEquals(page, cursor.getPage());
+        assertEquals(page + 1, cursor.getFrequency());
+        assertArrayEquals(offsets(document, page), cursor.getOffsets());
+        assertArrayEquals(lengths(document, page), cursor.getLengths());
+    }
+
+    // no offsets for the meta data, page + 1 ascending offsets otherwise
+    private static int[] offsets(int document, int page) {
+        final int[] offsets = new int[page == 0 ? 0 : page + 1];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = document * 10 + i * 200;
+        }
+        return offsets;
+    }
+
+    private static int[] lengths(int document, int page) {
+        final int[] lengths = new int[page == 0 ? 0 : page + 1];
+        for (int i = 0; i < lengths.length; i++) {
+            lengths[i] = 5 + i;
+        }
+        return lengths;
+    }
+
+}
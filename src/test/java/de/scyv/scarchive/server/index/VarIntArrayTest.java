@@ -0,0 +1,58 @@
+package de.scyv.scarchive.server.index;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class VarIntArrayTest {
+
+    private static final int[] VALUES = { 0, 1, 127, 128, 16383, 16384, 2097151, 2097152, 268435455, 268435456,
+            Integer.MAX_VALUE };
+
+    @Test
+    public void sizes() {
+        assertEquals(1, VarIntArray.size(0));
+        assertEquals(1, VarIntArray.size(127));
+        assertEquals(2, VarIntArray.size(128));
+        assertEquals(3, VarIntArray.size(16384));
+        assertEquals(4, VarIntArray.size(2097152));
+        assertEquals(5, VarIntArray.size(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        final VarIntArray array = new VarIntArray();
+        for (final int value : VALUES) {
+            array.add(value);
+        }
+        array.trim();
+        assertValues(array);
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            array.write(out);
+        }
+        final VarIntArray read = new VarIntArray();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read.read(in);
+        }
+        assertEquals(array.length(), read.length());
+        assertValues(read);
+    }
+
+    private static void assertValues(VarIntArray array) {
+        int position = 0;
+        for (final int value : VALUES) {
+            assertEquals(value, array.get(position));
+            position += VarIntArray.size(value);
+        }
+        assertEquals(array.length(), position);
+    }
+
+}
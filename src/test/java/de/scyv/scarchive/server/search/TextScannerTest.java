@@ -0,0 +1,75 @@
+package de.scyv.scarchive.server.search;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import de.scyv.scarchive.server.index.TextAnalyzer;
+
+public class TextScannerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void whitespaceIsSkipped() throws IOException {
+        final TextScanner scanner = new TextScanner(Arrays.asList("rechnung", "gesamt betrag", "mahnung"),
+                createAnalyzer(""));
+        scanner.scan(createFile("Die Rech nung\nüber den Gesamt-\n  betrag"));
+        assertTrue(scanner.isFound(0));
+        assertFalse(scanner.isFound(1));
+        assertFalse(scanner.isFound(2));
+        assertFalse(scanner.allFound());
+
+        scanner.scan(createFile("Gesamt\tBetrag"));
+        assertTrue(scanner.isFound(1));
+        assertFalse(scanner.isFound(2));
+    }
+
+    @Test
+    public void caseIsFolded() throws IOException {
+        final TextScanner scanner = new TextScanner(Arrays.asList("RECHNUNG", "nr"), createAnalyzer(""));
+        scanner.scan(createFile("rEcHnUnG NR. 4711"));
+        assertTrue(scanner.allFound());
+    }
+
+    @Test
+    public void umlautsAreFolded() throws IOException {
+        final TextScanner scanner = new TextScanner(Arrays.asList("mueller", "strasse", "übung"),
+                createAnalyzer("unicode,folding"));
+        scanner.scan(createFile("Herrn Müller, Haupt\nstraße 1\nUebung"));
+        assertTrue(scanner.allFound());
+    }
+
+    @Test
+    public void searchStringsAreNotFoundAcrossFiles() throws IOException {
+        final TextScanner scanner = new TextScanner(Arrays.asList("rechnung"), createAnalyzer(""));
+        scanner.scan(createFile("Rech"));
+        scanner.scan(createFile("nung"));
+        assertFalse(scanner.isFound(0));
+    }
+
+    private Path createFile(String text) throws IOException {
+        final Path file = folder.newFile().toPath();
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static TextAnalyzer createAnalyzer(String analysis) {
+        final TextAnalyzer analyzer = new TextAnalyzer();
+        ReflectionTestUtils.setField(analyzer, "analysis", analysis);
+        analyzer.configure();
+        return analyzer;
+    }
+
+}
@@ -0,0 +1,101 @@
+package de.scyv.scarchive.server.search.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+import org.junit.Test;
+
+public class QueryParserTest {
+
+    @Test
+    public void emptySearchStrings() {
+        assertNull(QueryParser.parse(""));
+        assertNull(QueryParser.parse("   "));
+        assertNull(QueryParser.parse("NOT"));
+        assertNull(QueryParser.parse("()"));
+    }
+
+    @Test
+    public void wordsAreCombinedWithAnd() {
+        assertEquals("rechnung", QueryParser.parse("Rechnung").toString());
+        assertEquals("(rechnung AND 2023)", QueryParser.parse("Rechnung 2023").toString());
+        assertEquals("(rechnung AND 2023)", QueryParser.parse("rechnung AND 2023").toString());
+    }
+
+    @Test
+    public void andBindsStrongerThanOr() {
+        assertEquals("(a OR (b AND c))", QueryParser.parse("a OR b c").toString());
+        assertEquals("((a AND b) OR c)", QueryParser.parse("a b OR c").toString());
+        assertEquals("((a OR b) AND c)", QueryParser.parse("(a OR b) c").toString());
+    }
+
+    @Test
+    public void negation() {
+        assertEquals("(NOT a AND b)", QueryParser.parse("-a b").toString());
+        assertEquals("(b AND NOT (a OR c))", QueryParser.parse("b NOT (a OR c)").toString());
+        // a dash within or before a blank is no negation
+        assertEquals("(a-b AND - AND c)", QueryParser.parse("a-b - c").toString());
+    }
+
+    @Test
+    public void phrases() {
+        final Query query = QueryParser.parse("\"Jahres Bericht\" 2023");
+        assertEquals("(\"jahresbericht\" AND 2023)", query.toString());
+        final PhraseQuery phrase = (PhraseQuery) ((BooleanQuery) query).getClauses().get(0);
+        assertEquals(2, phrase.getWords().size());
+    }
+
+    @Test
+    public void fields() {
+        assertEquals("title:\"jahres bericht\"", QueryParser.parse("title:\"Jahres Bericht\"").toString());
+        assertEquals("(tag:\"steuer\" AND path:\"finanzen\")",
+                QueryParser.parse("TAG:Steuer path:Finanzen").toString());
+        assertEquals("foo:bar", QueryParser.parse("foo:bar").toString());
+        assertNull(QueryParser.parse("title:"));
+    }
+
+    @Test
+    public void fuzzyTerms() {
+        assertEquals("maier~1", QueryParser.parse("Maier~").toString());
+        assertEquals("rechnung~2", QueryParser.parse("rechnung~").toString());
+        assertEquals("rechnung~1", QueryParser.parse("rechnung~1").toString());
+        assertEquals("rechnung~2", QueryParser.parse("rechnung~5").toString());
+        assertEquals("rechnung", QueryParser.parse("rechnung~0").toString());
+    }
+
+    @Test
+    public void dateRanges() {
+        final DateRangeQuery year = (DateRangeQuery) QueryParser.parse("date:2023");
+        assertEquals(DateRangeQuery.Field.UPDATED, year.getField());
+        assertEquals(millis(2023, 1, 1), year.getFrom());
+        assertEquals(millis(2024, 1, 1), year.getTo());
+
+        final DateRangeQuery range = (DateRangeQuery) QueryParser.parse("added:2023-01..2023-06-15");
+        assertEquals(DateRangeQuery.Field.ADDED, range.getField());
+        assertEquals(millis(2023, 1, 1), range.getFrom());
+        assertEquals(millis(2023, 6, 16), range.getTo());
+
+        final DateRangeQuery open = (DateRangeQuery) QueryParser.parse("date:..2023-04");
+        assertEquals(Long.MIN_VALUE, open.getFrom());
+        assertEquals(millis(2023, 5, 1), open.getTo());
+
+        // not a date, searched for as entered
+        assertTrue(QueryParser.parse("date:gestern") instanceof TermQuery);
+    }
+
+    @Test
+    public void unbalancedInputIsTolerated() {
+        assertEquals("(a OR b)", QueryParser.parse("(a OR b").toString());
+        assertEquals("(a AND b)", QueryParser.parse("a) b").toString());
+        assertEquals("(a AND \"bc\")", QueryParser.parse("a \"b c").toString());
+    }
+
+    private static long millis(int year, int month, int day) {
+        return LocalDate.of(year, month, day).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+}